@@ -0,0 +1,106 @@
+package jp.jaxa.iss.kibo.rpc.defaultapk;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import android.graphics.Bitmap;
+import android.support.test.runner.AndroidJUnit4;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.opencv.android.OpenCVLoader;
+import org.opencv.android.Utils;
+import org.opencv.core.Core;
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.core.Size;
+import org.opencv.imgproc.Imgproc;
+import org.tensorflow.lite.DataType;
+import org.tensorflow.lite.support.common.ops.CastOp;
+import org.tensorflow.lite.support.common.ops.NormalizeOp;
+import org.tensorflow.lite.support.image.ImageProcessor;
+import org.tensorflow.lite.support.image.TensorImage;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+
+/**
+ * 実機 (またはエミュレータ) の Bitmap / TensorImage を使った以前の入力の作り方と、{@link TensorInputConverter} の
+ * 書き込むテンソルを比べます。JVM のテスト (TensorInputConverterTest) と同じく、値の違う要素が
+ * {@link #MAX_MISMATCH} 以下であればよいとします。
+ */
+@RunWith(AndroidJUnit4.class)
+public class TensorInputConverterInstrumentedTest {
+    private static final int SIZE = 640;
+    private static final float MEAN = 0f;
+    private static final float STD = 255f;
+    private static final float TOLERANCE = 1e-6f;
+    private static final double MAX_MISMATCH = 0.01;
+
+    @BeforeClass
+    public static void loadOpenCv() {
+        assertTrue(OpenCVLoader.initDebug());
+    }
+
+    @Test
+    public void sameSizeCrop() {
+        assertMatchesBitmapPath(image(SIZE, SIZE, 1), 0);
+    }
+
+    @Test
+    public void downscaledFrame() {
+        assertMatchesBitmapPath(image(1280, 960, 2), MAX_MISMATCH);
+    }
+
+    @Test
+    public void nonIntegerRatios() {
+        assertMatchesBitmapPath(image(1001, 777, 3), MAX_MISMATCH);
+        assertMatchesBitmapPath(image(500, 300, 4), MAX_MISMATCH);
+    }
+
+    private static void assertMatchesBitmapPath(Mat image, double maxMismatch) {
+        float[] expected = bitmapPath(image);
+        TensorInputConverter converter = new TensorInputConverter(SIZE, SIZE, 3, DataType.FLOAT32, MEAN, STD);
+        FloatBuffer actual = converter.convert(image).asFloatBuffer();
+
+        assertEquals(expected.length, actual.remaining());
+        int mismatches = 0;
+        for (int i = 0; i < expected.length; i++) {
+            if (!(Math.abs(expected[i] - actual.get(i)) <= TOLERANCE)) {
+                mismatches++;
+            }
+        }
+        assertTrue(image.cols() + "x" + image.rows() + ": " + mismatches + " of " + expected.length + " differ",
+                mismatches <= expected.length * maxMismatch);
+        converter.release();
+    }
+
+    /**
+     * 以前の Recognize.detectObjects と同じ処理。
+     */
+    private static float[] bitmapPath(Mat image) {
+        Bitmap bitmap = Bitmap.createBitmap(image.cols(), image.rows(), Bitmap.Config.ARGB_8888);
+        Utils.matToBitmap(image, bitmap);
+        Bitmap resized = Bitmap.createScaledBitmap(bitmap, SIZE, SIZE, false);
+        ImageProcessor processor = new ImageProcessor.Builder()
+                .add(new NormalizeOp(MEAN, STD))
+                .add(new CastOp(DataType.FLOAT32))
+                .build();
+        ByteBuffer buffer = processor.process(TensorImage.fromBitmap(resized)).getBuffer();
+        buffer.rewind();
+        FloatBuffer floats = buffer.order(ByteOrder.nativeOrder()).asFloatBuffer();
+        float[] values = new float[floats.remaining()];
+        floats.get(values);
+        return values;
+    }
+
+    private static Mat image(int width, int height, int seed) {
+        Core.setRNGSeed(seed);
+        Mat image = new Mat(height, width, CvType.CV_8UC1);
+        Core.randu(image, 0, 256);
+        Imgproc.GaussianBlur(image, image, new Size(3, 3), 0.8);
+        return image;
+    }
+}
@@ -0,0 +1,168 @@
+package jp.jaxa.iss.kibo.rpc.defaultapk;
+
+/**
+ * NavCam をターゲットのエリアに向けるためのビジュアルサーボ制御。
+ * フレームごとにエリアの方向 (ロボット座標系, x が前) を受け取り、平滑化した方向から次の動作を決めます。
+ *
+ * 直近のフレームの方向が平滑化した方向と requiredFrames 回続けて一致したら判断し、
+ * 誤差が許容範囲内なら収束、そうでなければ補正 (向き直し) を指示します。補正は maxCorrections 回まで、
+ * {@link #start} から timeoutMillis までです。
+ * API や時計には触れないため、記録したフレーム列や合成した方向の列でも同じように動かせます。
+ */
+class AlignmentController {
+    enum Action {
+        /** 判断に十分なフレームがまだない */
+        WAIT,
+        /** {@link #getBearing()} の方向へ向き直す */
+        CORRECT,
+        /** 向きが合っている */
+        CONVERGED,
+        /** 補正回数の上限に達した */
+        GIVE_UP,
+        /** 制限時間を過ぎた */
+        TIMEOUT
+    }
+
+    private static final Vec3 FORWARD = new Vec3(1, 0, 0);
+
+    private final double toleranceRadians;
+    private final int requiredFrames;
+    private final double smoothing;
+    private final double agreementRadians;
+    private final int maxCorrections;
+    private final long timeoutMillis;
+
+    private final Vec3 bearing = new Vec3();
+    private final Vec3 observed = new Vec3();
+    private boolean hasBearing = false;
+    private int agreeing = 0;
+    private int frames = 0;
+    private int misses = 0;
+    private int corrections = 0;
+    private long deadline = Long.MAX_VALUE;
+    private Action state = Action.WAIT;
+
+    /**
+     * @param toleranceDegrees 収束とみなす角度誤差。
+     * @param requiredFrames   判断に必要な、続けて一致したフレーム数。
+     * @param smoothing        新しいフレームの重み (0-1, 1 なら平滑化しない)。
+     * @param agreementDegrees 平滑化した方向と一致しているとみなす角度。
+     * @param maxCorrections   補正回数の上限。
+     * @param timeoutMillis    {@link #start} からの制限時間。
+     */
+    AlignmentController(double toleranceDegrees, int requiredFrames, double smoothing, double agreementDegrees,
+            int maxCorrections, long timeoutMillis) {
+        this.toleranceRadians = Math.toRadians(toleranceDegrees);
+        this.requiredFrames = requiredFrames;
+        this.smoothing = smoothing;
+        this.agreementRadians = Math.toRadians(agreementDegrees);
+        this.maxCorrections = maxCorrections;
+        this.timeoutMillis = timeoutMillis;
+    }
+
+    /**
+     * 制限時間を数え始めます。
+     */
+    void start(long nowMillis) {
+        deadline = nowMillis + timeoutMillis;
+    }
+
+    /**
+     * エリアが見えたフレームの方向を追加します。
+     *
+     * @return 次の動作。
+     */
+    Action update(double x, double y, double z) {
+        frames++;
+        observed.set(x, y, z);
+        if (observed.length() < 1e-9) {
+            return miss();
+        }
+        observed.normalize(observed);
+
+        if (!hasBearing || Vec3.angle(observed, bearing) > agreementRadians) {
+            // 最初のフレーム、または大きく変わった (ロボットが動いた) 場合はこのフレームからやり直す
+            bearing.set(observed);
+            hasBearing = true;
+            agreeing = 1;
+        } else {
+            bearing.normalize(bearing.lerp(bearing, observed, smoothing));
+            agreeing++;
+        }
+
+        if (agreeing < requiredFrames) {
+            state = Action.WAIT;
+        } else if (getErrorRadians() < toleranceRadians) {
+            state = Action.CONVERGED;
+        } else if (corrections >= maxCorrections) {
+            state = Action.GIVE_UP;
+        } else {
+            state = Action.CORRECT;
+        }
+        return state;
+    }
+
+    /**
+     * エリアが見えなかったフレームを追加します。一致したフレームの数はリセットされます。
+     */
+    Action miss() {
+        misses++;
+        agreeing = 0;
+        state = Action.WAIT;
+        return state;
+    }
+
+    /**
+     * 補正の移動が終わったら呼びます。平滑化した方向を捨て、次のフレームから推定し直します。
+     */
+    void corrected() {
+        corrections++;
+        hasBearing = false;
+        agreeing = 0;
+        state = Action.WAIT;
+    }
+
+    /**
+     * 収束・補正の打ち切り・制限時間切れのいずれかなら true を返します。
+     */
+    boolean isFinished(long nowMillis) {
+        if (state != Action.CONVERGED && state != Action.GIVE_UP && nowMillis >= deadline) {
+            state = Action.TIMEOUT;
+        }
+        return state == Action.CONVERGED || state == Action.GIVE_UP || state == Action.TIMEOUT;
+    }
+
+    Action getState() {
+        return state;
+    }
+
+    /**
+     * 平滑化したエリアの方向 (単位ベクトル, ロボット座標系)。
+     */
+    Vec3 getBearing() {
+        return bearing;
+    }
+
+    /**
+     * 平滑化した方向と正面 (x 軸) のなす角。{@link Quat#fromXDirection} で向き直す回転の角度と同じです。
+     */
+    double getErrorRadians() {
+        return Math.acos(Math.max(-1, Math.min(1, bearing.dot(FORWARD))));
+    }
+
+    double getErrorDegrees() {
+        return Math.toDegrees(getErrorRadians());
+    }
+
+    int getFrames() {
+        return frames;
+    }
+
+    int getMisses() {
+        return misses;
+    }
+
+    int getCorrections() {
+        return corrections;
+    }
+}
@@ -0,0 +1,28 @@
+package jp.jaxa.iss.kibo.rpc.defaultapk;
+
+import android.util.Log;
+
+/**
+ * {@link MissionLog} の出力先 (ロボット上)。android.util.Log に書き出します。
+ */
+class AndroidLogSink implements MissionLog.Sink {
+    @Override
+    public void d(String tag, String message) {
+        Log.d(tag, message);
+    }
+
+    @Override
+    public void i(String tag, String message) {
+        Log.i(tag, message);
+    }
+
+    @Override
+    public void w(String tag, String message) {
+        Log.w(tag, message);
+    }
+
+    @Override
+    public void e(String tag, String message) {
+        Log.e(tag, message);
+    }
+}
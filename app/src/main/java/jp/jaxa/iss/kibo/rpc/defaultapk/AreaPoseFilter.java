@@ -0,0 +1,206 @@
+package jp.jaxa.iss.kibo.rpc.defaultapk;
+
+import java.util.Arrays;
+
+import gov.nasa.arc.astrobee.Kinematics;
+import gov.nasa.arc.astrobee.types.Point;
+
+/**
+ * 複数フレームの solvePnP の結果をロボットの自己位置と合わせて、エリアの位置を推定するカルマンフィルタ。
+ * エリアは動かないため、状態はワールド座標の3次元の位置だけです。
+ *
+ * 観測はロボット座標系 (x が奥行き) の位置で、奥行き方向は横方向より誤差が大きいものとして扱います。
+ * 観測の誤差はロボットの姿勢で回転してワールド座標系に直し、自己位置の誤差を足します。
+ * 推定値からマハラノビス距離で大きく外れた観測は捨てます。
+ */
+class AreaPoseFilter {
+    private final double lateralSigmaPerMeter;
+    private final double depthSigmaPerMeter;
+    private final double localizationSigma;
+    private final double gate;
+
+    private final double[] state = new double[3];
+    private final double[] covariance = new double[9];
+    private boolean initialized = false;
+    private int accepted = 0;
+    private int rejected = 0;
+
+    // 作業用
+    private final Pose pose = new Pose();
+    private final double[] observation = new double[3];
+    private final double[] world = new double[3];
+    private final double[] rotation = new double[9];
+    private final double[] noise = new double[9];
+    private final double[] innovation = new double[3];
+    private final double[] s = new double[9];
+    private final double[] sInv = new double[9];
+    private final double[] gain = new double[9];
+    private final double[] tmp = new double[9];
+
+    /**
+     * @param lateralSigmaPerMeter 距離 1 m あたりの横方向の誤差 [m]。
+     * @param depthSigmaPerMeter   距離 1 m あたりの奥行き方向の誤差 [m]。
+     * @param localizationSigma    ロボットの自己位置の誤差 [m]。
+     * @param gate                 観測を捨てるマハラノビス距離。
+     */
+    AreaPoseFilter(double lateralSigmaPerMeter, double depthSigmaPerMeter, double localizationSigma, double gate) {
+        this.lateralSigmaPerMeter = lateralSigmaPerMeter;
+        this.depthSigmaPerMeter = depthSigmaPerMeter;
+        this.localizationSigma = localizationSigma;
+        this.gate = gate;
+    }
+
+    void reset() {
+        Arrays.fill(state, 0);
+        Arrays.fill(covariance, 0);
+        initialized = false;
+        accepted = 0;
+        rejected = 0;
+    }
+
+    /**
+     * 1フレーム分の観測を追加します。
+     *
+     * @param kinematics 撮影時のロボットの位置と姿勢。
+     * @param local      ロボット座標系でのエリアの位置。
+     * @return 観測を使った場合 true。
+     */
+    boolean add(Kinematics kinematics, Point local) {
+        double lx = local.getX(), ly = local.getY(), lz = local.getZ();
+        observation[0] = lx;
+        observation[1] = ly;
+        observation[2] = lz;
+        // ワールド座標に直す (rotation にはロボットの姿勢の回転行列が入る)
+        pose.set(kinematics.getPosition(), kinematics.getOrientation()).transform(rotation, observation, world, 0, 1);
+
+        double range = Math.sqrt(lx * lx + ly * ly + lz * lz);
+        double depthVar = sq(depthSigmaPerMeter * range);
+        double lateralVar = sq(lateralSigmaPerMeter * range);
+        // 自己位置が怪しいときは観測を軽く扱う
+        double scale = kinematics.getConfidence() == Kinematics.Confidence.GOOD ? 1 : 4;
+
+        // R diag(depth, lateral, lateral) R^T + loc^2 I
+        for (int r = 0; r < 3; r++) {
+            for (int c = 0; c < 3; c++) {
+                double v = rotation[r * 3] * rotation[c * 3] * depthVar
+                        + (rotation[r * 3 + 1] * rotation[c * 3 + 1] + rotation[r * 3 + 2] * rotation[c * 3 + 2])
+                        * lateralVar;
+                if (r == c) {
+                    v += sq(localizationSigma);
+                }
+                noise[r * 3 + c] = v * scale;
+            }
+        }
+
+        double wx = world[0], wy = world[1], wz = world[2];
+
+        if (!initialized) {
+            state[0] = wx;
+            state[1] = wy;
+            state[2] = wz;
+            System.arraycopy(noise, 0, covariance, 0, 9);
+            initialized = true;
+            accepted++;
+            return true;
+        }
+
+        innovation[0] = wx - state[0];
+        innovation[1] = wy - state[1];
+        innovation[2] = wz - state[2];
+        for (int i = 0; i < 9; i++) {
+            s[i] = covariance[i] + noise[i];
+        }
+        if (!invert(s, sInv)) {
+            rejected++;
+            return false;
+        }
+        double d2 = 0;
+        for (int r = 0; r < 3; r++) {
+            for (int c = 0; c < 3; c++) {
+                d2 += innovation[r] * sInv[r * 3 + c] * innovation[c];
+            }
+        }
+        if (d2 > gate * gate) {
+            rejected++;
+            return false;
+        }
+
+        // K = P S^-1, x += K v, P = (I - K) P
+        multiply(covariance, sInv, gain);
+        for (int r = 0; r < 3; r++) {
+            state[r] += gain[r * 3] * innovation[0] + gain[r * 3 + 1] * innovation[1]
+                    + gain[r * 3 + 2] * innovation[2];
+        }
+        multiply(gain, covariance, tmp);
+        for (int i = 0; i < 9; i++) {
+            covariance[i] -= tmp[i];
+        }
+        accepted++;
+        return true;
+    }
+
+    boolean isInitialized() {
+        return initialized;
+    }
+
+    /**
+     * ワールド座標系でのエリアの位置。
+     */
+    Point getPosition() {
+        return new Point(state[0], state[1], state[2]);
+    }
+
+    /**
+     * 位置の共分散 (3x3, 行優先)。
+     */
+    double[] getCovariance() {
+        return covariance.clone();
+    }
+
+    /**
+     * 位置の誤差の目安 [m] (共分散の対角和の平方根)。
+     */
+    double getSigma() {
+        return Math.sqrt(covariance[0] + covariance[4] + covariance[8]);
+    }
+
+    int getAccepted() {
+        return accepted;
+    }
+
+    int getRejected() {
+        return rejected;
+    }
+
+    private static void multiply(double[] a, double[] b, double[] out) {
+        for (int r = 0; r < 3; r++) {
+            for (int c = 0; c < 3; c++) {
+                out[r * 3 + c] = a[r * 3] * b[c] + a[r * 3 + 1] * b[3 + c] + a[r * 3 + 2] * b[6 + c];
+            }
+        }
+    }
+
+    private static boolean invert(double[] m, double[] out) {
+        double c00 = m[4] * m[8] - m[5] * m[7];
+        double c01 = m[5] * m[6] - m[3] * m[8];
+        double c02 = m[3] * m[7] - m[4] * m[6];
+        double det = m[0] * c00 + m[1] * c01 + m[2] * c02;
+        if (Math.abs(det) < 1e-18) {
+            return false;
+        }
+        out[0] = c00 / det;
+        out[1] = (m[2] * m[7] - m[1] * m[8]) / det;
+        out[2] = (m[1] * m[5] - m[2] * m[4]) / det;
+        out[3] = c01 / det;
+        out[4] = (m[0] * m[8] - m[2] * m[6]) / det;
+        out[5] = (m[2] * m[3] - m[0] * m[5]) / det;
+        out[6] = c02 / det;
+        out[7] = (m[1] * m[6] - m[0] * m[7]) / det;
+        out[8] = (m[0] * m[4] - m[1] * m[3]) / det;
+        return true;
+    }
+
+    private static double sq(double v) {
+        return v * v;
+    }
+}
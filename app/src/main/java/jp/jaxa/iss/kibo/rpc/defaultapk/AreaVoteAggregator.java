@@ -0,0 +1,157 @@
+package jp.jaxa.iss.kibo.rpc.defaultapk;
+
+import java.util.Arrays;
+
+/**
+ * 複数フレームの認識結果を集計し、多数決で結果を決めるクラス。
+ * フレームを追加するたびにクラスごとの得票数・確信度の合計・個数の分布を更新するため、
+ * 途中でいつでも結果と安定度を取り出せます。
+ *
+ * 切り抜きは {@link #offer} で渡します。品質の判定を通ったフレームは、見た目が前のフレームと似ていても
+ * それぞれ1票として数え、キャッシュは推論を省くためだけに使います (ハッシュはぼけや一部の隠れでほとんど
+ * 変わらないため、見た目で票をまとめると、最初のぼけたフレームの結果だけが残ってしまいます)。
+ */
+class AreaVoteAggregator {
+    // 個数の分布を数える上限 (これ以上は上限に丸める)
+    private static final int MAX_COUNT = 15;
+
+    private final int numClasses;
+    private final int[] votes;
+    private final double[] confidenceSums;
+    private final int[][] countHistogram;
+    private int frames = 0;
+
+    AreaVoteAggregator(int numClasses) {
+        this.numClasses = numClasses;
+        this.votes = new int[numClasses];
+        this.confidenceSums = new double[numClasses];
+        this.countHistogram = new int[numClasses][MAX_COUNT + 1];
+    }
+
+    /**
+     * 集計をやり直します。
+     */
+    void reset() {
+        Arrays.fill(votes, 0);
+        Arrays.fill(confidenceSums, 0);
+        for (int[] histogram : countHistogram) {
+            Arrays.fill(histogram, 0);
+        }
+        frames = 0;
+    }
+
+    /**
+     * 1フレームの切り抜きを集計に加えます。
+     * キャッシュに同じ見た目の推論結果があれば、推論せずにそれをこのフレームの1票として加えます。
+     *
+     * @param id    マーカーの id (キャッシュのキー)。
+     * @param hash  切り抜きのハッシュ ({@link InferenceCache#hash})。
+     * @param cache 推論結果のキャッシュ。
+     * @return 推論が必要なら true。結果は {@link #add} で加えてください。
+     */
+    boolean offer(int id, long hash, InferenceCache cache) {
+        Recognize.Result[] cached = cache.get(id, hash);
+        if (cached != null) {
+            add(cached);
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * 1フレーム分の認識結果を追加します。
+     */
+    void add(Recognize.Result[] result) {
+        frames++;
+        for (int i = 0; i < numClasses && i < result.length; i++) {
+            if (result[i].n > 0) {
+                votes[i]++;
+                confidenceSums[i] += result[i].confidence;
+                countHistogram[i][Math.min(result[i].n, MAX_COUNT)]++;
+            }
+        }
+    }
+
+    int getFrames() {
+        return frames;
+    }
+
+    /**
+     * 候補のクラスの中で最も得票の多いクラスを返します。同票なら確信度の合計が大きい方を選びます。
+     *
+     * @param candidates 対象とするクラスなら true。
+     * @return クラス番号。どの候補にも票がなければ -1。
+     */
+    int best(boolean[] candidates) {
+        int best = -1;
+        for (int i = 0; i < numClasses; i++) {
+            if (!candidates[i] || votes[i] == 0) {
+                continue;
+            }
+            if (best < 0 || votes[i] > votes[best]
+                    || (votes[i] == votes[best] && confidenceSums[i] > confidenceSums[best])) {
+                best = i;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * 候補のクラスの中で1位のクラスの安定度 (0-1)。
+     * 1位の票数を、フレーム数と候補全体の票数の大きい方で割った値です。
+     * 票がなければ 1 (どのフレームでも何もない、で一致) を返します。
+     */
+    double stability(boolean[] candidates) {
+        int best = best(candidates);
+        if (best < 0) {
+            return 1;
+        }
+        int total = 0;
+        for (int i = 0; i < numClasses; i++) {
+            if (candidates[i]) {
+                total += votes[i];
+            }
+        }
+        return (double) votes[best] / Math.max(frames, total);
+    }
+
+    /**
+     * クラスの個数として最も多く観測された値を返します。
+     */
+    int consensusCount(int classId) {
+        int[] histogram = countHistogram[classId];
+        int best = 0;
+        for (int n = 1; n <= MAX_COUNT; n++) {
+            if (histogram[n] > histogram[best]) {
+                best = n;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * クラスが検出されたフレームでの確信度の平均。
+     */
+    double meanConfidence(int classId) {
+        return votes[classId] == 0 ? 0 : confidenceSums[classId] / votes[classId];
+    }
+
+    /**
+     * 十分なフレームが集まり、各グループの1位が安定しているかどうか。
+     *
+     * @param minFrames    最低限必要なフレーム数。
+     * @param minStability 1位の得票割合の下限。
+     * @param groups       クラスのグループ (ランドマーク・トレジャーなど)。
+     */
+    boolean isStable(int minFrames, double minStability, boolean[]... groups) {
+        if (frames < minFrames) {
+            return false;
+        }
+        for (boolean[] group : groups) {
+            if (stability(group) < minStability) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,173 @@
+package jp.jaxa.iss.kibo.rpc.defaultapk;
+
+import org.opencv.aruco.Aruco;
+import org.opencv.aruco.DetectorParameters;
+import org.opencv.aruco.Dictionary;
+import org.opencv.core.Mat;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Properties;
+
+/**
+ * ArUco マーカー検出の設定。
+ * 辞書は DICT_5X5_1000 からミッションで使う id だけを取り出したもので、候補の照合と棄却が速くなります。
+ * 検出パラメータは ArucoTuner (benchmark モジュール) が記録した NavCam 画像で選んだものを
+ * assets の {@link #ASSET_NAME} に書き出し、起動時に {@link #load} で読み込みます。
+ */
+final class ArucoConfig {
+    static final String ASSET_NAME = "aruco.properties";
+    static final int BASE_DICTIONARY = Aruco.DICT_5X5_1000;
+    // ターゲット (100) とエリア 1〜4 (101〜104)
+    static final int[] MISSION_IDS = { 100, 101, 102, 103, 104 };
+
+    final int[] markerIds;
+    final int adaptiveThreshWinSizeMin;
+    final int adaptiveThreshWinSizeMax;
+    final int adaptiveThreshWinSizeStep;
+    final double minMarkerPerimeterRate;
+    final double maxMarkerPerimeterRate;
+    final int cornerRefinementMethod;
+
+    ArucoConfig(int[] markerIds, int adaptiveThreshWinSizeMin, int adaptiveThreshWinSizeMax,
+            int adaptiveThreshWinSizeStep, double minMarkerPerimeterRate, double maxMarkerPerimeterRate,
+            int cornerRefinementMethod) {
+        this.markerIds = markerIds.clone();
+        this.adaptiveThreshWinSizeMin = adaptiveThreshWinSizeMin;
+        this.adaptiveThreshWinSizeMax = adaptiveThreshWinSizeMax;
+        this.adaptiveThreshWinSizeStep = adaptiveThreshWinSizeStep;
+        this.minMarkerPerimeterRate = minMarkerPerimeterRate;
+        this.maxMarkerPerimeterRate = maxMarkerPerimeterRate;
+        this.cornerRefinementMethod = cornerRefinementMethod;
+    }
+
+    /**
+     * ミッションの id と OpenCV の既定の検出パラメータ。
+     */
+    static ArucoConfig defaults() {
+        return new ArucoConfig(MISSION_IDS, 3, 23, 10, 0.03, 4.0, Aruco.CORNER_REFINE_NONE);
+    }
+
+    /**
+     * 検出パラメータだけを変えた設定を返します (ArucoTuner 用)。
+     */
+    ArucoConfig with(int winSizeMin, int winSizeMax, int winSizeStep, double minPerimeterRate,
+            double maxPerimeterRate, int refinement) {
+        return new ArucoConfig(markerIds, winSizeMin, winSizeMax, winSizeStep, minPerimeterRate, maxPerimeterRate,
+                refinement);
+    }
+
+    /**
+     * {@link #store} で書き出した設定を読み込みます。書かれていない項目は既定値のままです。
+     *
+     * @throws IOException 読み込みに失敗した場合、または値が数値でない場合。
+     */
+    static ArucoConfig load(InputStream in) throws IOException {
+        Properties properties = new Properties();
+        properties.load(in);
+        ArucoConfig defaults = defaults();
+        try {
+            String ids = properties.getProperty("markerIds");
+            int[] markerIds = defaults.markerIds;
+            if (ids != null) {
+                String[] values = ids.split(",");
+                markerIds = new int[values.length];
+                for (int i = 0; i < values.length; i++) {
+                    markerIds[i] = Integer.parseInt(values[i].trim());
+                }
+            }
+            return new ArucoConfig(markerIds,
+                    getInt(properties, "adaptiveThreshWinSizeMin", defaults.adaptiveThreshWinSizeMin),
+                    getInt(properties, "adaptiveThreshWinSizeMax", defaults.adaptiveThreshWinSizeMax),
+                    getInt(properties, "adaptiveThreshWinSizeStep", defaults.adaptiveThreshWinSizeStep),
+                    getDouble(properties, "minMarkerPerimeterRate", defaults.minMarkerPerimeterRate),
+                    getDouble(properties, "maxMarkerPerimeterRate", defaults.maxMarkerPerimeterRate),
+                    getInt(properties, "cornerRefinementMethod", defaults.cornerRefinementMethod));
+        } catch (NumberFormatException e) {
+            throw new IOException("invalid " + ASSET_NAME + ": " + e.getMessage(), e);
+        }
+    }
+
+    private static int getInt(Properties properties, String key, int fallback) {
+        String value = properties.getProperty(key);
+        return value == null ? fallback : Integer.parseInt(value.trim());
+    }
+
+    private static double getDouble(Properties properties, String key, double fallback) {
+        String value = properties.getProperty(key);
+        return value == null ? fallback : Double.parseDouble(value.trim());
+    }
+
+    /**
+     * 設定を Properties 形式で書き出します。
+     */
+    void store(OutputStream out, String comment) throws IOException {
+        Properties properties = new Properties();
+        StringBuilder ids = new StringBuilder();
+        for (int i = 0; i < markerIds.length; i++) {
+            ids.append(i > 0 ? "," : "").append(markerIds[i]);
+        }
+        properties.setProperty("markerIds", ids.toString());
+        properties.setProperty("adaptiveThreshWinSizeMin", Integer.toString(adaptiveThreshWinSizeMin));
+        properties.setProperty("adaptiveThreshWinSizeMax", Integer.toString(adaptiveThreshWinSizeMax));
+        properties.setProperty("adaptiveThreshWinSizeStep", Integer.toString(adaptiveThreshWinSizeStep));
+        properties.setProperty("minMarkerPerimeterRate", Double.toString(minMarkerPerimeterRate));
+        properties.setProperty("maxMarkerPerimeterRate", Double.toString(maxMarkerPerimeterRate));
+        properties.setProperty("cornerRefinementMethod", Integer.toString(cornerRefinementMethod));
+        properties.store(out, comment);
+    }
+
+    /**
+     * markerIds だけを含む辞書を作ります。検出される id は markerIds の添字になるので {@link #markerId} で戻します。
+     */
+    Dictionary createDictionary() {
+        Dictionary base = Aruco.getPredefinedDictionary(BASE_DICTIONARY);
+        Mat all = base.get_bytesList();
+        Mat bytes = new Mat(markerIds.length, all.cols(), all.type());
+        for (int i = 0; i < markerIds.length; i++) {
+            Mat row = bytes.row(i);
+            all.row(markerIds[i]).copyTo(row);
+            row.release();
+        }
+        Dictionary dictionary = Dictionary.create_from(markerIds.length, base.get_markerSize(), base);
+        dictionary.set_bytesList(bytes);
+        // 誤り訂正は元の辞書と同じだけに抑え、誤検出を増やさない
+        dictionary.set_maxCorrectionBits(base.get_maxCorrectionBits());
+        bytes.release();
+        all.release();
+        return dictionary;
+    }
+
+    DetectorParameters createParameters() {
+        DetectorParameters parameters = DetectorParameters.create();
+        parameters.set_adaptiveThreshWinSizeMin(adaptiveThreshWinSizeMin);
+        parameters.set_adaptiveThreshWinSizeMax(adaptiveThreshWinSizeMax);
+        parameters.set_adaptiveThreshWinSizeStep(adaptiveThreshWinSizeStep);
+        parameters.set_minMarkerPerimeterRate(minMarkerPerimeterRate);
+        parameters.set_maxMarkerPerimeterRate(maxMarkerPerimeterRate);
+        parameters.set_cornerRefinementMethod(cornerRefinementMethod);
+        return parameters;
+    }
+
+    /**
+     * {@link #createDictionary} の辞書で検出した添字をマーカーの id に戻します。
+     */
+    int markerId(int index) {
+        return markerIds[index];
+    }
+
+    /**
+     * 元の辞書でマーカーを描きます (ウォームアップ・テスト画像用)。
+     */
+    static void drawMarker(int id, int side, Mat image) {
+        Aruco.drawMarker(Aruco.getPredefinedDictionary(BASE_DICTIONARY), id, side, image);
+    }
+
+    @Override
+    public String toString() {
+        return "win " + adaptiveThreshWinSizeMin + "-" + adaptiveThreshWinSizeMax + "/" + adaptiveThreshWinSizeStep
+                + ", perimeter " + minMarkerPerimeterRate + "-" + maxMarkerPerimeterRate
+                + ", refine " + cornerRefinementMethod + ", " + markerIds.length + " ids";
+    }
+}
@@ -0,0 +1,257 @@
+package jp.jaxa.iss.kibo.rpc.defaultapk;
+
+import org.opencv.core.Mat;
+import org.opencv.imgcodecs.Imgcodecs;
+
+import java.io.File;
+import java.util.ArrayDeque;
+
+/**
+ * デバッグ画像をバックグラウンドで保存するクラス。
+ * 画像は複製してキューに入れ、ワーカースレッドが PNG への変換と保存を行うため、
+ * ミッションのスレッドは保存の完了を待ちません。
+ *
+ * キューに積める画像の合計サイズには上限があり、超えた場合は DropPolicy に従って捨てます。
+ */
+class DebugImageSink {
+    private static final String TAG = "DebugImageSink";
+
+    /**
+     * 保存箇所ごとの詳細度。設定したレベル以下の画像だけを保存します。
+     */
+    enum Level {
+        NONE, SUMMARY, DETAIL
+    }
+
+    /**
+     * 上限を超えたときに捨てる画像。
+     */
+    enum DropPolicy {
+        DROP_NEWEST, DROP_OLDEST
+    }
+
+    /**
+     * 画像の保存先。ロボットでは api.saveMatImage を、ロボット外では {@link FileWriter} を使います。
+     */
+    interface Writer {
+        void write(Mat image, String name);
+    }
+
+    /**
+     * ローカルのディレクトリに PNG を書き出す Writer。
+     */
+    static class FileWriter implements Writer {
+        private final File directory;
+
+        FileWriter(File directory) {
+            this.directory = directory;
+        }
+
+        @Override
+        public void write(Mat image, String name) {
+            Imgcodecs.imwrite(new File(directory, name).getPath(), image);
+        }
+    }
+
+    private static class Entry {
+        final Mat image;
+        final String name;
+        final long bytes;
+
+        Entry(Mat image, String name, long bytes) {
+            this.image = image;
+            this.name = name;
+            this.bytes = bytes;
+        }
+    }
+
+    private final Writer writer;
+    private final long byteBudget;
+    private final DropPolicy dropPolicy;
+    private volatile Level level;
+
+    private final Object lock = new Object();
+    private final ArrayDeque<Entry> queue = new ArrayDeque<>();
+    private long queuedBytes = 0;
+    private boolean writing = false;
+    private boolean closed = false;
+    private int written = 0;
+    private int dropped = 0;
+    private final Thread worker;
+
+    /**
+     * @param writer     画像の保存先。
+     * @param level      保存する詳細度。
+     * @param byteBudget キューに積める画像の合計バイト数。
+     * @param dropPolicy 上限を超えたときに捨てる画像。
+     */
+    DebugImageSink(Writer writer, Level level, long byteBudget, DropPolicy dropPolicy) {
+        this.writer = writer;
+        this.level = level;
+        this.byteBudget = byteBudget;
+        this.dropPolicy = dropPolicy;
+
+        worker = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                loop();
+            }
+        }, TAG);
+        worker.setDaemon(true);
+        worker.setPriority(Thread.MIN_PRIORITY);
+        worker.start();
+    }
+
+    void setLevel(Level level) {
+        this.level = level;
+    }
+
+    /**
+     * 指定した詳細度の画像を保存するかどうか。
+     * 保存用の画像を作るのに手間がかかる場合は、先にこれで確認してください。
+     */
+    boolean isEnabled(Level imageLevel) {
+        return imageLevel != Level.NONE && imageLevel.ordinal() <= level.ordinal();
+    }
+
+    /**
+     * 画像を複製して保存キューに入れます。呼び出し後に image を解放・変更して構いません。
+     */
+    void save(Mat image, String name, Level imageLevel) {
+        if (!isEnabled(imageLevel) || image == null || image.empty()) {
+            return;
+        }
+        enqueue(image.clone(), name);
+    }
+
+    /**
+     * 画像をそのまま保存キューに入れます。image の所有権はこのクラスに移り、保存後に解放されます。
+     */
+    void saveOwned(Mat image, String name, Level imageLevel) {
+        if (!isEnabled(imageLevel) || image == null || image.empty()) {
+            if (image != null) {
+                image.release();
+            }
+            return;
+        }
+        enqueue(image, name);
+    }
+
+    private void enqueue(Mat image, String name) {
+        long bytes = image.total() * image.elemSize();
+        Entry discard = null;
+        synchronized (lock) {
+            if (closed) {
+                discard = new Entry(image, name, bytes);
+            } else {
+                if (dropPolicy == DropPolicy.DROP_OLDEST) {
+                    while (!queue.isEmpty() && queuedBytes + bytes > byteBudget) {
+                        Entry oldest = queue.pollFirst();
+                        queuedBytes -= oldest.bytes;
+                        oldest.image.release();
+                        dropped++;
+                    }
+                }
+                if (queuedBytes + bytes > byteBudget && !queue.isEmpty()) {
+                    discard = new Entry(image, name, bytes);
+                    dropped++;
+                } else {
+                    queue.addLast(new Entry(image, name, bytes));
+                    queuedBytes += bytes;
+                    lock.notifyAll();
+                }
+            }
+        }
+        if (discard != null) {
+            MissionLog.w(TAG, "dropped " + discard.name);
+            discard.image.release();
+        }
+    }
+
+    private void loop() {
+        while (true) {
+            Entry entry;
+            synchronized (lock) {
+                while (queue.isEmpty() && !closed) {
+                    try {
+                        lock.wait();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+                if (queue.isEmpty()) {
+                    return;
+                }
+                entry = queue.pollFirst();
+                queuedBytes -= entry.bytes;
+                writing = true;
+            }
+            try {
+                writer.write(entry.image, entry.name);
+            } catch (Exception e) {
+                MissionLog.e(TAG, "Failed to save " + entry.name + ": " + e);
+            } finally {
+                entry.image.release();
+                synchronized (lock) {
+                    writing = false;
+                    written++;
+                    lock.notifyAll();
+                }
+            }
+        }
+    }
+
+    /**
+     * キューが空になるまで待ちます。
+     *
+     * @param timeoutMillis 最大の待ち時間。
+     * @return 全て保存できた場合 true。
+     */
+    boolean flush(long timeoutMillis) {
+        long deadline = System.currentTimeMillis() + timeoutMillis;
+        synchronized (lock) {
+            while (!queue.isEmpty() || writing) {
+                long remaining = deadline - System.currentTimeMillis();
+                if (remaining <= 0) {
+                    MissionLog.w(TAG, "flush timed out: " + queue.size() + " images left");
+                    return false;
+                }
+                try {
+                    lock.wait(remaining);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return false;
+                }
+            }
+        }
+        MissionLog.i(TAG, "flushed: written " + written + ", dropped " + dropped);
+        return true;
+    }
+
+    /**
+     * 残りの画像を保存してからワーカースレッドを止めます。
+     */
+    void close(long timeoutMillis) {
+        flush(timeoutMillis);
+        synchronized (lock) {
+            closed = true;
+            while (!queue.isEmpty()) {
+                queue.pollFirst().image.release();
+            }
+            queuedBytes = 0;
+            lock.notifyAll();
+        }
+    }
+
+    int getWritten() {
+        synchronized (lock) {
+            return written;
+        }
+    }
+
+    int getDropped() {
+        synchronized (lock) {
+            return dropped;
+        }
+    }
+}
@@ -0,0 +1,651 @@
+package jp.jaxa.iss.kibo.rpc.defaultapk;
+
+import org.opencv.aruco.Aruco;
+import org.opencv.aruco.DetectorParameters;
+import org.opencv.aruco.Dictionary;
+import org.opencv.calib3d.Calib3d;
+import org.opencv.core.Core;
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.core.MatOfDouble;
+import org.opencv.core.MatOfPoint2f;
+import org.opencv.core.MatOfPoint3f;
+import org.opencv.core.Point3;
+import org.opencv.core.Rect;
+import org.opencv.core.Scalar;
+import org.opencv.core.Size;
+import org.opencv.imgproc.Imgproc;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * NavCam 画像の前処理を行うクラス。
+ * 歪み補正・ArUco マーカー検出・エリアの切り抜きと2値化・位置推定を行います。
+ *
+ * 辞書と検出パラメータ ({@link ArucoConfig})、歪み補正マップは一度だけ作成し、作業用の Mat も使い回します。
+ * 辞書はミッションの id だけを含むため、検出結果の id は {@link ArucoConfig#markerId} で元の id に戻しています。
+ * 取得した Mat は次の呼び出しで上書きされるため、保持する場合は clone してください。
+ *
+ * トラッキングを有効にすると、マーカーごとに前回検出した4隅を覚えておき、
+ * 次のフレームではその周辺 (ROI) だけを探索します。ROI で見つからなければ全体を探索します。
+ *
+ * {@link #detectRawMarkers} を使うと画像全体の歪み補正を省けます。マーカーは補正前の画像から検出して4隅だけを補正し、
+ * エリアの切り抜きは歪み補正と射影変換を合成したマップで補正前の画像から1回の remap で行います。
+ * 合成マップはマーカーごとに保存し、エリアの4隅の移動が REMAP_TOLERANCE 未満の間は作り直しません。
+ */
+class FramePreprocessor {
+    static final int AREA_SIZE = 640;
+    // ROI はマーカーの外接矩形を各辺にこの倍率だけ広げる
+    private static final double ROI_MARGIN = 1.0;
+    // 合成マップを使い回すエリアの4隅の移動量の上限 [px]
+    private static final double REMAP_TOLERANCE = 2.0;
+
+    private final Mat cameraMatrix;
+    private final Mat distCoeffs;
+    private final ArucoConfig config;
+    private final Dictionary dictionary;
+    private final DetectorParameters parameters;
+
+    // 歪み補正マップ (画像サイズが決まった時点で作成)
+    private final Mat map1 = new Mat();
+    private final Mat map2 = new Mat();
+    private Size mapSize = null;
+    // 合成マップの元にする歪み補正マップ (float, 最初の切り抜きで作成)
+    private final Mat mapX = new Mat();
+    private final Mat mapY = new Mat();
+    private Size floatMapSize = null;
+
+    /**
+     * 補正前の画像からエリア画像への合成マップ
+     */
+    private static class AreaRemap {
+        final float[] quad = new float[8];
+        final Mat map1 = new Mat();
+        final Mat map2 = new Mat();
+
+        void release() {
+            map1.release();
+            map2.release();
+        }
+    }
+
+    private final Map<Integer, AreaRemap> areaRemaps = new HashMap<>();
+    // 直前の detectRawMarkers に渡した画像 (detectMarkers を使った場合は null)
+    private Mat source = null;
+    private int remapHits = 0;
+    private int remapBuilds = 0;
+
+    // 作業用
+    private final Mat undistorted = new Mat();
+    private final Mat ids = new Mat();
+    private final List<Mat> corners = new ArrayList<>();
+    private final List<Mat> rejected = new ArrayList<>();
+    private final List<Mat> rawCorners = new ArrayList<>();
+    private final MatOfPoint2f rawPoints = new MatOfPoint2f();
+    private final MatOfPoint2f undistortedPoints = new MatOfPoint2f();
+    private final Mat noRectification = new Mat();
+    private final Mat composedX = new Mat();
+    private final Mat composedY = new Mat();
+    private final Mat warped = new Mat();
+    private final Mat binary = new Mat();
+    private final Mat rvec = new Mat();
+    private final Mat tvec = new Mat();
+    private final MatOfPoint2f ptsSrc = new MatOfPoint2f();
+    private final MatOfPoint2f ptsDst;
+    private final MatOfPoint2f imagePoints = new MatOfPoint2f();
+    private final MatOfPoint3f realPoints;
+    private final MatOfPoint3f markerPoints;
+    private final MatOfPoint2f markerImagePoints = new MatOfPoint2f();
+    private final MatOfDouble zeroDistortion = new MatOfDouble(0, 0, 0, 0, 0);
+    private final Size areaSize = new Size(AREA_SIZE, AREA_SIZE);
+
+    // トラッキング
+    private boolean tracking = true;
+    private final Map<Integer, float[]> lastQuads = new HashMap<>();
+    private final Rect roi = new Rect();
+    private int roiHits = 0;
+    private int roiMisses = 0;
+    private int fullSearches = 0;
+    private long roiNanos = 0;
+    private long fullNanos = 0;
+    // 直前の detectMarkers で ROI から見つかったマーカー (-1 ならなし)
+    private int roiHitId = -1;
+
+    // 位置推定 (マーカーごとの前回の rvec, tvec)
+    private final Map<Integer, double[]> lastPoses = new HashMap<>();
+    private int areaIndex = -1;
+    private int guessedSolves = 0;
+    private int seededSolves = 0;
+
+    private final int[] idData = new int[1];
+    private final float[] cornerData = new float[8];
+    private final float[] areaData = new float[8];
+    private final float[] imagePointData = new float[10];
+    private final double[] tvecData = new double[3];
+
+    /**
+     * @param cameraMatrix NavCam のカメラ行列 (3x3)。
+     * @param distCoeffs   NavCam の歪み係数 (1x5)。
+     */
+    FramePreprocessor(Mat cameraMatrix, Mat distCoeffs) {
+        this(cameraMatrix, distCoeffs, ArucoConfig.defaults());
+    }
+
+    /**
+     * @param cameraMatrix NavCam のカメラ行列 (3x3)。
+     * @param distCoeffs   NavCam の歪み係数 (1x5)。
+     * @param config       マーカー検出の設定。
+     */
+    FramePreprocessor(Mat cameraMatrix, Mat distCoeffs, ArucoConfig config) {
+        this.cameraMatrix = cameraMatrix;
+        this.distCoeffs = distCoeffs;
+        this.config = config;
+        this.dictionary = config.createDictionary();
+        this.parameters = config.createParameters();
+
+        ptsDst = new MatOfPoint2f(
+                new org.opencv.core.Point(0, 0),
+                new org.opencv.core.Point(AREA_SIZE - 1, 0),
+                new org.opencv.core.Point(AREA_SIZE - 1, AREA_SIZE - 1),
+                new org.opencv.core.Point(0, AREA_SIZE - 1));
+        realPoints = new MatOfPoint3f(
+                new Point3(0, 0, 0),
+                new Point3(-0.1, -0.1, 0),
+                new Point3(0.1, -0.1, 0),
+                new Point3(0.1, 0.1, 0),
+                new Point3(-0.1, 0.1, 0));
+        // エリア中心を原点とするマーカーの4隅 (一辺 0.05 m, エリアの右 0.0125 m, 上端から 0.04 m)
+        markerPoints = new MatOfPoint3f(
+                new Point3(0.1125, -0.06, 0),
+                new Point3(0.1625, -0.06, 0),
+                new Point3(0.1625, -0.01, 0),
+                new Point3(0.1125, -0.01, 0));
+        ptsSrc.alloc(4);
+        rawPoints.alloc(4);
+        imagePoints.alloc(5);
+        markerImagePoints.alloc(4);
+    }
+
+    /**
+     * 合成したマーカー画像で一通りの処理を数回実行し、補正マップ・合成マップの作成と初回の呼び出しの遅さを先に済ませます。
+     * 終わったらトラッキングの状態と集計を消すため、ミッション中の結果には影響しません。
+     *
+     * @param size       NavCam の画像サイズ。
+     * @param id         合成するマーカーの id。
+     * @param iterations 実行する回数。
+     */
+    void warmUp(Size size, int id, int iterations) {
+        Mat frame = new Mat((int) size.height, (int) size.width, CvType.CV_8UC1, new Scalar(255));
+        int side = (int) Math.min(size.width, size.height) / 8;
+        Mat marker = frame.submat(new Rect((int) size.width / 2 - side / 2, (int) size.height / 2 - side / 2,
+                side, side));
+        ArucoConfig.drawMarker(id, side, marker);
+        marker.release();
+
+        for (int i = 0; i < iterations; i++) {
+            detectRawMarkers(frame, id);
+            int index = findMarker(id);
+            if (index >= 0) {
+                warpArea(index);
+                estimateAreaPosition();
+            }
+        }
+        frame.release();
+
+        resetTracking();
+        MissionMetrics.reset(MissionMetrics.Span.UNDISTORT, MissionMetrics.Span.ARUCO_DETECT,
+                MissionMetrics.Span.WARP_THRESHOLD, MissionMetrics.Span.SOLVE_PNP);
+        roiHits = 0;
+        roiMisses = 0;
+        fullSearches = 0;
+        roiNanos = 0;
+        fullNanos = 0;
+        guessedSolves = 0;
+        seededSolves = 0;
+        remapHits = 0;
+        remapBuilds = 0;
+    }
+
+    /**
+     * 歪み補正を行います。
+     * 補正マップは最初の画像サイズで一度だけ計算し、以降は remap のみを行います。
+     *
+     * @return 歪み補正後の画像 (使い回し)。
+     */
+    Mat undistort(Mat image) {
+        long spanStart = MissionMetrics.start();
+        Size size = image.size();
+        if (mapSize == null || mapSize.width != size.width || mapSize.height != size.height) {
+            // Calib3d.undistort と同じマップ
+            Mat identity = new Mat();
+            Calib3d.initUndistortRectifyMap(cameraMatrix, distCoeffs, identity, cameraMatrix, size,
+                    CvType.CV_16SC2, map1, map2);
+            identity.release();
+            mapSize = size;
+        }
+        Imgproc.remap(image, undistorted, map1, map2, Imgproc.INTER_LINEAR);
+        MissionMetrics.stop(MissionMetrics.Span.UNDISTORT, spanStart);
+        return undistorted;
+    }
+
+    /**
+     * 歪み補正済みの画像から ArUco マーカーを検出します。
+     *
+     * @return 検出したマーカーの数。
+     */
+    int detectMarkers(Mat gray) {
+        return detectMarkers(gray, -1);
+    }
+
+    /**
+     * 歪み補正済みの画像から ArUco マーカーを検出します。
+     * トラッキングが有効で id の前回位置が分かっている場合は、その周辺だけを先に探索します。
+     *
+     * @param id 探しているマーカーの id (-1 なら常に全体を探索)。
+     * @return 検出したマーカーの数。
+     */
+    int detectMarkers(Mat gray, int id) {
+        long spanStart = MissionMetrics.start();
+        try {
+            source = null;
+            roiHitId = -1;
+            float[] last = lastQuads.get(id);
+            if (tracking && last != null && computeRoi(last, gray.cols(), gray.rows())) {
+                long start = System.nanoTime();
+                Mat sub = gray.submat(roi);
+                detect(sub);
+                sub.release();
+                offsetCorners(roi.x, roi.y);
+                roiNanos += System.nanoTime() - start;
+                if (findMarker(id) >= 0) {
+                    roiHits++;
+                    roiHitId = id;
+                    rememberQuads();
+                    return ids.rows();
+                }
+                roiMisses++;
+            }
+
+            fullSearches++;
+            long start = System.nanoTime();
+            detect(gray);
+            fullNanos += System.nanoTime() - start;
+            rememberQuads();
+            return ids.empty() ? 0 : ids.rows();
+        } finally {
+            MissionMetrics.stop(MissionMetrics.Span.ARUCO_DETECT, spanStart);
+        }
+    }
+
+    /**
+     * 歪み補正前の NavCam 画像から ArUco マーカーを検出し、4隅を歪み補正後の座標に直します。
+     * 画像全体の歪み補正を行わないため、{@link #getUndistorted()} は更新されません。
+     * image は {@link #warpArea(int)} で切り抜くまで解放・変更しないでください。
+     *
+     * @param id 探しているマーカーの id (-1 なら常に全体を探索)。
+     * @return 検出したマーカーの数。
+     */
+    int detectRawMarkers(Mat image, int id) {
+        int detected = detectMarkers(image, id);
+        source = image;
+
+        long spanStart = MissionMetrics.start();
+        releaseAll(rawCorners);
+        for (Mat corner : corners) {
+            rawCorners.add(corner.clone());
+            corner.get(0, 0, cornerData);
+            rawPoints.put(0, 0, cornerData);
+            Calib3d.undistortPoints(rawPoints, undistortedPoints, cameraMatrix, distCoeffs, noRectification,
+                    cameraMatrix);
+            undistortedPoints.get(0, 0, cornerData);
+            corner.put(0, 0, cornerData);
+        }
+        MissionMetrics.stop(MissionMetrics.Span.UNDISTORT, spanStart);
+        return detected;
+    }
+
+    private void detect(Mat gray) {
+        releaseAll(corners);
+        releaseAll(rejected);
+        Aruco.detectMarkers(gray, dictionary, corners, ids, parameters, rejected);
+        for (int i = 0; i < ids.rows(); i++) {
+            ids.get(i, 0, idData);
+            idData[0] = config.markerId(idData[0]);
+            ids.put(i, 0, idData);
+        }
+    }
+
+    /**
+     * 4隅の外接矩形を ROI_MARGIN だけ広げ、画像内に収めたものを roi に設定します。
+     *
+     * @return ROI が画像全体より小さい場合 true。
+     */
+    private boolean computeRoi(float[] quad, int cols, int rows) {
+        float minX = quad[0], maxX = quad[0], minY = quad[1], maxY = quad[1];
+        for (int i = 2; i < 8; i += 2) {
+            minX = Math.min(minX, quad[i]);
+            maxX = Math.max(maxX, quad[i]);
+            minY = Math.min(minY, quad[i + 1]);
+            maxY = Math.max(maxY, quad[i + 1]);
+        }
+        double marginX = (maxX - minX) * ROI_MARGIN;
+        double marginY = (maxY - minY) * ROI_MARGIN;
+        int x1 = (int) Math.max(0, Math.floor(minX - marginX));
+        int y1 = (int) Math.max(0, Math.floor(minY - marginY));
+        int x2 = (int) Math.min(cols, Math.ceil(maxX + marginX));
+        int y2 = (int) Math.min(rows, Math.ceil(maxY + marginY));
+        if (x2 <= x1 || y2 <= y1 || (x2 - x1) * (y2 - y1) >= cols * rows) {
+            return false;
+        }
+        roi.x = x1;
+        roi.y = y1;
+        roi.width = x2 - x1;
+        roi.height = y2 - y1;
+        return true;
+    }
+
+    private void offsetCorners(int dx, int dy) {
+        for (Mat corner : corners) {
+            corner.get(0, 0, cornerData);
+            for (int i = 0; i < 8; i += 2) {
+                cornerData[i] += dx;
+                cornerData[i + 1] += dy;
+            }
+            corner.put(0, 0, cornerData);
+        }
+    }
+
+    private void rememberQuads() {
+        if (ids.empty()) {
+            return;
+        }
+        for (int i = 0; i < ids.rows(); i++) {
+            ids.get(i, 0, idData);
+            float[] quad = lastQuads.get(idData[0]);
+            if (quad == null) {
+                quad = new float[8];
+                lastQuads.put(idData[0], quad);
+            }
+            corners.get(i).get(0, 0, quad);
+        }
+    }
+
+    /**
+     * ROI 探索の有効・無効を切り替えます。
+     */
+    void setTracking(boolean tracking) {
+        this.tracking = tracking;
+    }
+
+    /**
+     * 覚えているマーカー位置と合成マップを破棄します。
+     */
+    void resetTracking() {
+        lastQuads.clear();
+        lastPoses.clear();
+        for (AreaRemap remap : areaRemaps.values()) {
+            remap.release();
+        }
+        areaRemaps.clear();
+    }
+
+    int getRoiHits() {
+        return roiHits;
+    }
+
+    int getRoiMisses() {
+        return roiMisses;
+    }
+
+    int getFullSearches() {
+        return fullSearches;
+    }
+
+    /**
+     * ROI 探索のヒット率と平均時間をまとめた文字列を返します (ログ用)。
+     */
+    String getTrackingSummary() {
+        int roiSearches = roiHits + roiMisses;
+        return "roi hit " + roiHits + "/" + roiSearches
+                + ", roi avg " + (roiSearches == 0 ? 0 : roiNanos / roiSearches / 1000) + "us"
+                + ", full " + fullSearches
+                + ", full avg " + (fullSearches == 0 ? 0 : fullNanos / fullSearches / 1000) + "us";
+    }
+
+    /**
+     * 直前に検出したマーカーの中から id を探します。
+     *
+     * @return corners 内のインデックス。見つからない場合は -1。
+     */
+    int findMarker(int id) {
+        if (ids.empty()) {
+            return -1;
+        }
+        for (int i = 0; i < ids.rows(); i++) {
+            ids.get(i, 0, idData);
+            if (idData[0] == id) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * マーカーの位置からエリアを切り抜き、射影変換と2値化を行います。
+     * エリアの4隅は {@link #estimateAreaPosition()} でも使います。
+     * {@link #detectRawMarkers} で検出した場合は、補正前の画像から合成マップで切り抜きます。
+     *
+     * @param index {@link #findMarker(int)} で得たインデックス。
+     * @return 2値化したエリア画像 (AREA_SIZE x AREA_SIZE, 使い回し)。
+     */
+    Mat warpArea(int index) {
+        long spanStart = MissionMetrics.start();
+        computeAreaCorners(index);
+
+        if (source != null) {
+            AreaRemap remap = areaRemap(index);
+            Imgproc.remap(source, warped, remap.map1, remap.map2, Imgproc.INTER_LINEAR);
+        } else {
+            Mat M = Imgproc.getPerspectiveTransform(ptsSrc, ptsDst);
+            Imgproc.warpPerspective(undistorted, warped, M, areaSize);
+            M.release();
+        }
+
+        // 二値化
+        Imgproc.threshold(warped, binary, 0, 255, Imgproc.THRESH_BINARY + Imgproc.THRESH_OTSU);
+        MissionMetrics.stop(MissionMetrics.Span.WARP_THRESHOLD, spanStart);
+        return binary;
+    }
+
+    /**
+     * computeAreaCorners で求めたエリアの4隅に対する合成マップを返します。
+     * 前回作ったときから4隅が REMAP_TOLERANCE 以上動いていれば作り直します。
+     */
+    private AreaRemap areaRemap(int index) {
+        ids.get(index, 0, idData);
+        AreaRemap remap = areaRemaps.get(idData[0]);
+        if (remap != null) {
+            double shift = 0;
+            for (int i = 0; i < 8; i += 2) {
+                shift = Math.max(shift, Math.hypot(areaData[i] - remap.quad[i], areaData[i + 1] - remap.quad[i + 1]));
+            }
+            if (shift < REMAP_TOLERANCE) {
+                remapHits++;
+                return remap;
+            }
+        } else {
+            remap = new AreaRemap();
+            areaRemaps.put(idData[0], remap);
+        }
+
+        Size size = source.size();
+        if (floatMapSize == null || floatMapSize.width != size.width || floatMapSize.height != size.height) {
+            Calib3d.initUndistortRectifyMap(cameraMatrix, distCoeffs, noRectification, cameraMatrix, size,
+                    CvType.CV_32FC1, mapX, mapY);
+            floatMapSize = size;
+        }
+        // エリア画像の各画素 → 補正後の画像の座標 → 補正前の画像の座標 の対応を作る
+        Mat M = Imgproc.getPerspectiveTransform(ptsSrc, ptsDst);
+        Scalar outside = new Scalar(-1);
+        Imgproc.warpPerspective(mapX, composedX, M, areaSize, Imgproc.INTER_LINEAR, Core.BORDER_CONSTANT, outside);
+        Imgproc.warpPerspective(mapY, composedY, M, areaSize, Imgproc.INTER_LINEAR, Core.BORDER_CONSTANT, outside);
+        M.release();
+        Imgproc.convertMaps(composedX, composedY, remap.map1, remap.map2, CvType.CV_16SC2);
+        System.arraycopy(areaData, 0, remap.quad, 0, 8);
+        remapBuilds++;
+        return remap;
+    }
+
+    /**
+     * 切り抜きや2値化をせずに、カメラ座標系でのエリア中心だけを推定します (位置合わせ用)。
+     *
+     * @param index {@link #findMarker(int)} で得たインデックス。
+     * @return (x, y, z) のカメラ座標 (使い回し)。
+     */
+    double[] locateArea(int index) {
+        computeAreaCorners(index);
+        return estimateAreaPosition();
+    }
+
+    /**
+     * マーカーの辺を基準にエリアの4隅を外挿し、areaData と ptsSrc に設定します。
+     */
+    private void computeAreaCorners(int index) {
+        areaIndex = index;
+        corners.get(index).get(0, 0, cornerData);
+        float ltx = cornerData[0], lty = cornerData[1];
+        float rtx = cornerData[2], rty = cornerData[3];
+        float rbx = cornerData[4], rby = cornerData[5];
+        float lbx = cornerData[6], lby = cornerData[7];
+
+        areaData[0] = (float) (ltx - (rtx - ltx) * 4.25 - (lbx - ltx) * 0.8);
+        areaData[1] = (float) (lty - (rty - lty) * 4.25 - (lby - lty) * 0.8);
+        areaData[2] = (float) (ltx - (rtx - ltx) * 0.25 - (lbx - ltx) * 0.8);
+        areaData[3] = (float) (lty - (rty - lty) * 0.25 - (lby - lty) * 0.8);
+        areaData[4] = (float) (lbx - (rbx - lbx) * 0.25 + (lbx - ltx) * 2.2);
+        areaData[5] = (float) (lby - (rby - lby) * 0.25 + (lby - lty) * 2.2);
+        areaData[6] = (float) (lbx - (rbx - lbx) * 4.25 + (lbx - ltx) * 2.2);
+        areaData[7] = (float) (lby - (rby - lby) * 4.25 + (lby - lty) * 2.2);
+        ptsSrc.put(0, 0, areaData);
+    }
+
+    /**
+     * 直前に {@link #warpArea(int)} (または {@link #locateArea(int)}) で対象にしたマーカーから、
+     * カメラ座標系でのエリア中心を推定します。
+     *
+     * 同じマーカーを前のフレームから ROI で追跡できている場合は、前回の推定を初期値にしてマーカーの4隅だけで解きます。
+     * そうでなければ外挿したエリアの4隅と中心で解いてから、マーカーの4隅で仕上げます。
+     *
+     * @return (x, y, z) のカメラ座標 (使い回し)。
+     */
+    double[] estimateAreaPosition() {
+        long spanStart = MissionMetrics.start();
+        ids.get(areaIndex, 0, idData);
+        int id = idData[0];
+        corners.get(areaIndex).get(0, 0, cornerData);
+        markerImagePoints.put(0, 0, cornerData);
+
+        double[] last = lastPoses.get(id);
+        if (last != null && id == roiHitId) {
+            rvec.put(0, 0, last[0], last[1], last[2]);
+            tvec.put(0, 0, last[3], last[4], last[5]);
+            Calib3d.solvePnP(markerPoints, markerImagePoints, cameraMatrix, zeroDistortion, rvec, tvec, true,
+                    Calib3d.SOLVEPNP_ITERATIVE);
+            guessedSolves++;
+        } else {
+            imagePointData[0] = (areaData[0] + areaData[4]) / 2;
+            imagePointData[1] = (areaData[1] + areaData[5]) / 2;
+            System.arraycopy(areaData, 0, imagePointData, 2, 8);
+            imagePoints.put(0, 0, imagePointData);
+            Calib3d.solvePnP(realPoints, imagePoints, cameraMatrix, zeroDistortion, rvec, tvec);
+            Calib3d.solvePnPRefineLM(markerPoints, markerImagePoints, cameraMatrix, zeroDistortion, rvec, tvec);
+            seededSolves++;
+        }
+
+        if (last == null) {
+            last = new double[6];
+            lastPoses.put(id, last);
+        }
+        rvec.get(0, 0, tvecData);
+        System.arraycopy(tvecData, 0, last, 0, 3);
+        tvec.get(0, 0, tvecData);
+        System.arraycopy(tvecData, 0, last, 3, 3);
+        MissionMetrics.stop(MissionMetrics.Span.SOLVE_PNP, spanStart);
+        return tvecData;
+    }
+
+    /**
+     * 前回の推定を初期値にした位置推定の回数と、外挿した4隅から解いた回数 (ログ用)。
+     */
+    String getPoseSummary() {
+        return "pnp guessed " + guessedSolves + ", seeded " + seededSolves;
+    }
+
+    /**
+     * 合成マップを使い回した回数と作った回数 (ログ用)。
+     */
+    String getRemapSummary() {
+        return "remap reused " + remapHits + ", built " + remapBuilds;
+    }
+
+    List<Mat> getCorners() {
+        return corners;
+    }
+
+    /**
+     * {@link #detectRawMarkers} で検出したマーカーの、補正前の画像での4隅 (デバッグ画像用)。
+     */
+    List<Mat> getRawCorners() {
+        return rawCorners;
+    }
+
+    Mat getIds() {
+        return ids;
+    }
+
+    Mat getUndistorted() {
+        return undistorted;
+    }
+
+    /**
+     * ネイティブメモリを解放します。
+     */
+    void release() {
+        map1.release();
+        map2.release();
+        mapX.release();
+        mapY.release();
+        resetTracking();
+        undistorted.release();
+        ids.release();
+        releaseAll(corners);
+        releaseAll(rejected);
+        releaseAll(rawCorners);
+        rawPoints.release();
+        undistortedPoints.release();
+        noRectification.release();
+        composedX.release();
+        composedY.release();
+        warped.release();
+        binary.release();
+        rvec.release();
+        tvec.release();
+        ptsSrc.release();
+        ptsDst.release();
+        imagePoints.release();
+        realPoints.release();
+        markerPoints.release();
+        markerImagePoints.release();
+        zeroDistortion.release();
+    }
+
+    private static void releaseAll(List<Mat> mats) {
+        for (Mat mat : mats) {
+            mat.release();
+        }
+        mats.clear();
+    }
+}
@@ -0,0 +1,190 @@
+package jp.jaxa.iss.kibo.rpc.defaultapk;
+
+import org.opencv.core.Core;
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.core.MatOfDouble;
+import org.opencv.core.MatOfFloat;
+import org.opencv.core.MatOfInt;
+import org.opencv.core.Size;
+import org.opencv.imgproc.Imgproc;
+
+import java.util.Collections;
+import java.util.Locale;
+
+/**
+ * ArUco の検出や推論の前に、NavCam のフレームが使えるかを安く判定するクラス。
+ * フレームを 160x120 に間引き (1 ms かかりません)、次の3つで判定します。
+ * <ul>
+ * <li>鮮明さ: ラプラシアンの分散。最低限の値に加え、同じ視点 ({@link #reset} 以降) で露出と動きの判定を通った
+ * フレームのうち、最も鮮明だったものとの比も見ます。分散の値は写っているものによって大きく変わるため、比でぶれを
+ * 判定します (露出や動きで捨てたフレームはノイズで分散が大きくなることがあるので、基準にしません)。</li>
+ * <li>露出: 明るさの 2% 点と 98% 点の差 (コントラスト)。暗すぎ・明るすぎで階調がつぶれたフレームを捨てます。</li>
+ * <li>動き: 1 - 前のフレームとの正規化相互相関。明るさが変わっても値が変わらず、ずれが大きいほど大きくなります。
+ * ロボットがまだ動いているフレームを捨てます。{@link #reset} 直後の最初のフレームは比べるものがなく、
+ * 動きが分からないので捨てます ("settling")。</li>
+ * </ul>
+ * 視点が変わったら (moveTo のあと) {@link #reset} を呼んでください。
+ */
+class FrameQualityGate {
+    private static final Size SAMPLE_SIZE = new Size(160, 120);
+    private static final MatOfInt CHANNELS = new MatOfInt(0);
+    private static final MatOfInt HIST_SIZE = new MatOfInt(256);
+    private static final MatOfFloat RANGES = new MatOfFloat(0, 256);
+    private static final double LOW_PERCENTILE = 0.02;
+    private static final double HIGH_PERCENTILE = 0.98;
+    // 動きを比べる2枚の標準偏差の積の下限
+    private static final double MIN_VARIANCE = 1;
+
+    /**
+     * 1フレームの判定結果。rejection が null なら使えるフレームです。
+     */
+    static class Score {
+        final double sharpness;
+        final double maxSharpness;
+        final double contrast;
+        final double motion;
+        final String rejection;
+
+        Score(double sharpness, double maxSharpness, double contrast, double motion, String rejection) {
+            this.sharpness = sharpness;
+            this.maxSharpness = maxSharpness;
+            this.contrast = contrast;
+            this.motion = motion;
+            this.rejection = rejection;
+        }
+
+        boolean isAccepted() {
+            return rejection == null;
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.US, "%s: sharpness %.0f (max %.0f), contrast %.0f, motion %.3f",
+                    rejection == null ? "accepted" : rejection, sharpness, maxSharpness, contrast, motion);
+        }
+    }
+
+    private final double minSharpness;
+    private final double minSharpnessRatio;
+    private final double minContrast;
+    private final double maxMotion;
+
+    private final Mat small = new Mat();
+    private final Mat previous = new Mat();
+    private final Mat laplacian = new Mat();
+    private final Mat current = new Mat();
+    private final Mat histogram = new Mat();
+    private final Mat noMask = new Mat();
+    private final float[] counts = new float[256];
+    private final MatOfDouble mean = new MatOfDouble();
+    private final MatOfDouble stddev = new MatOfDouble();
+    private double previousMean = 0;
+    private double previousStddev = 0;
+    private double maxSharpness = 0;
+    private int frames = 0;
+    private int blurred = 0;
+    private int badExposure = 0;
+    private int moving = 0;
+    private int settling = 0;
+
+    /**
+     * @param minSharpness      最低限の鮮明さ (間引いた画像のラプラシアンの分散)。
+     * @param minSharpnessRatio 同じ視点で最も鮮明だったフレームに対する鮮明さの比の下限。
+     * @param minContrast       明るさの 2% 点と 98% 点の差の下限。
+     * @param maxMotion         1 - 前のフレームとの正規化相互相関の上限 (0-2)。
+     */
+    FrameQualityGate(double minSharpness, double minSharpnessRatio, double minContrast, double maxMotion) {
+        this.minSharpness = minSharpness;
+        this.minSharpnessRatio = minSharpnessRatio;
+        this.minContrast = minContrast;
+        this.maxMotion = maxMotion;
+    }
+
+    /**
+     * フレーム (グレースケール) を判定します。捨てたフレームも次のフレームの動きの基準にします。
+     */
+    synchronized Score evaluate(Mat frame) {
+        long start = MissionMetrics.start();
+        frames++;
+        Imgproc.resize(frame, small, SAMPLE_SIZE, 0, 0, Imgproc.INTER_NEAREST);
+
+        Imgproc.Laplacian(small, laplacian, CvType.CV_16S);
+        Core.meanStdDev(laplacian, mean, stddev);
+        double sharpness = stddev.get(0, 0)[0] * stddev.get(0, 0)[0];
+
+        Imgproc.calcHist(Collections.singletonList(small), CHANNELS, noMask, histogram, HIST_SIZE, RANGES);
+        histogram.get(0, 0, counts);
+        double contrast = percentile(HIGH_PERCENTILE) - percentile(LOW_PERCENTILE);
+
+        small.convertTo(current, CvType.CV_32F);
+        Core.meanStdDev(current, mean, stddev);
+        double currentMean = mean.get(0, 0)[0];
+        double currentStddev = stddev.get(0, 0)[0];
+        // 前のフレームがなければ動きは分からない (NaN)。どちらかが一様な画像なら比べられないので動きなしとする
+        double motion = previous.empty() ? Double.NaN : 0;
+        if (!previous.empty() && currentStddev * previousStddev > MIN_VARIANCE) {
+            double covariance = current.dot(previous) / current.total() - currentMean * previousMean;
+            motion = 1 - covariance / (currentStddev * previousStddev);
+        }
+        current.copyTo(previous);
+        previousMean = currentMean;
+        previousStddev = currentStddev;
+
+        String rejection = null;
+        if (contrast < minContrast) {
+            rejection = "exposure";
+            badExposure++;
+        } else if (Double.isNaN(motion)) {
+            rejection = "settling";
+            settling++;
+        } else if (motion > maxMotion) {
+            rejection = "motion";
+            moving++;
+        } else {
+            // 露出と動きの判定を通ったフレームだけを鮮明さの基準にする
+            maxSharpness = Math.max(maxSharpness, sharpness);
+            if (sharpness < minSharpness || sharpness < minSharpnessRatio * maxSharpness) {
+                rejection = "blur";
+                blurred++;
+            }
+        }
+        MissionMetrics.stop(MissionMetrics.Span.FRAME_QUALITY, start);
+        return new Score(sharpness, maxSharpness, contrast, motion, rejection);
+    }
+
+    private double percentile(double p) {
+        double target = p * SAMPLE_SIZE.width * SAMPLE_SIZE.height;
+        double sum = 0;
+        for (int i = 0; i < counts.length; i++) {
+            sum += counts[i];
+            if (sum >= target) {
+                return i;
+            }
+        }
+        return counts.length - 1;
+    }
+
+    /**
+     * 視点が変わったときに呼びます。前のフレームと最も鮮明だったフレームの記録を捨てます。
+     */
+    synchronized void reset() {
+        previous.release();
+        maxSharpness = 0;
+    }
+
+    synchronized String getSummary() {
+        return "frame quality: " + (blurred + badExposure + moving + settling) + "/" + frames + " rejected (blur "
+                + blurred + ", exposure " + badExposure + ", motion " + moving + ", settling " + settling + ")";
+    }
+
+    synchronized void release() {
+        small.release();
+        previous.release();
+        laplacian.release();
+        current.release();
+        histogram.release();
+        mean.release();
+        stddev.release();
+    }
+}
@@ -0,0 +1,61 @@
+package jp.jaxa.iss.kibo.rpc.defaultapk;
+
+import org.tensorflow.lite.Interpreter;
+
+/**
+ * TensorFlow Lite の実行方法。
+ * {@link Recognize#selectBackend} が起動時に計測し、最も速いものを選びます。
+ */
+enum InferenceBackend {
+    /** ライブラリの既定値 (従来の設定) */
+    DEFAULT,
+    /** CPU 1 スレッド */
+    SINGLE_THREAD,
+    /** CPU 全コア */
+    MULTI_THREAD,
+    /** XNNPACK (CPU 全コア) */
+    XNNPACK,
+    /** NNAPI (端末が対応している場合のみ) */
+    NNAPI;
+
+    /**
+     * この実行方法の Interpreter.Options を作ります。
+     */
+    Interpreter.Options createOptions() {
+        return createOptions(0);
+    }
+
+    /**
+     * この実行方法の Interpreter.Options を作ります。
+     *
+     * @param threads 1つの Interpreter が使うスレッド数 (0 以下なら全コア)。複数の Interpreter を並列に動かす場合に分け合います。
+     *                DEFAULT と NNAPI (NNAPI が扱えない演算は CPU で実行する) は、0 以下ならライブラリの既定値のままにします。
+     */
+    Interpreter.Options createOptions(int threads) {
+        int cores = threads > 0 ? threads : Runtime.getRuntime().availableProcessors();
+        Interpreter.Options options = new Interpreter.Options();
+        switch (this) {
+            case SINGLE_THREAD:
+                options.setNumThreads(1).setUseXNNPACK(false);
+                break;
+            case MULTI_THREAD:
+                options.setNumThreads(cores).setUseXNNPACK(false);
+                break;
+            case XNNPACK:
+                options.setNumThreads(cores).setUseXNNPACK(true);
+                break;
+            case NNAPI:
+                if (threads > 0) {
+                    options.setNumThreads(threads);
+                }
+                options.setUseNNAPI(true);
+                break;
+            default:
+                if (threads > 0) {
+                    options.setNumThreads(threads);
+                }
+                break;
+        }
+        return options;
+    }
+}
@@ -0,0 +1,124 @@
+package jp.jaxa.iss.kibo.rpc.defaultapk;
+
+import org.opencv.core.Mat;
+import org.opencv.core.Size;
+import org.opencv.imgproc.Imgproc;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * 切り抜いたエリア画像の推論結果のキャッシュ。
+ * 画像は 64 ビットの difference hash ({@link #hash}) で表し、同じマーカー id でハッシュのハミング距離が
+ * tolerance 以内なら同じ見た目とみなして、推論せずに前の結果を返します。
+ * ロボットが同じエリアの前に止まっている間の、ほとんど変わらない切り抜きの推論を省くためのものです。
+ *
+ * 件数は capacity までで、超えたら最も長く使われていないものから捨てます。複数スレッドから使えます。
+ * 返す結果は他の呼び出しと共有するため、変更しないでください。
+ */
+class InferenceCache {
+    // ハッシュを作る縮小画像 (横に隣り合う画素を比べるので幅は 1 つ多い)
+    private static final Size HASH_SIZE = new Size(9, 8);
+    // 縮小する前に間引く大きさ (ハッシュの1画素あたり 8x8 点)
+    private static final Size SAMPLE_SIZE = new Size(HASH_SIZE.width * 8, HASH_SIZE.height * 8);
+
+    private static class Key {
+        final int id;
+        final long hash;
+
+        Key(int id, long hash) {
+            this.id = id;
+            this.hash = hash;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof Key && ((Key) o).id == id && ((Key) o).hash == hash;
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * id + (int) (hash ^ (hash >>> 32));
+        }
+    }
+
+    private final int capacity;
+    private final int tolerance;
+    private final LinkedHashMap<Key, Recognize.Result[]> entries;
+    private int hits = 0;
+    private int misses = 0;
+
+    /**
+     * @param capacity  保持する結果の数。
+     * @param tolerance 同じ見た目とみなすハッシュのハミング距離 (0-64, 0 なら完全一致のみ)。
+     */
+    InferenceCache(final int capacity, int tolerance) {
+        this.capacity = capacity;
+        this.tolerance = tolerance;
+        // アクセス順: 使った結果を末尾に移し、先頭から捨てる
+        this.entries = new LinkedHashMap<Key, Recognize.Result[]>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Key, Recognize.Result[]> eldest) {
+                return size() > capacity;
+            }
+        };
+    }
+
+    /**
+     * 画像の difference hash。9x8 に縮小し、各行で右の画素より明るい画素を 1 とする 64 ビットです。
+     * 640x640 から直接 INTER_AREA で縮小すると 1 ms 以上かかるため、先に 72x64 点を間引いてから平均します
+     * (20 us 程度)。
+     */
+    static long hash(Mat image) {
+        Mat sampled = new Mat();
+        Mat small = new Mat();
+        Imgproc.resize(image, sampled, SAMPLE_SIZE, 0, 0, Imgproc.INTER_NEAREST);
+        Imgproc.resize(sampled, small, HASH_SIZE, 0, 0, Imgproc.INTER_AREA);
+        sampled.release();
+        byte[] pixels = new byte[(int) (HASH_SIZE.width * HASH_SIZE.height)];
+        small.get(0, 0, pixels);
+        small.release();
+        long hash = 0;
+        int width = (int) HASH_SIZE.width;
+        for (int y = 0; y < HASH_SIZE.height; y++) {
+            for (int x = 0; x + 1 < width; x++) {
+                int left = pixels[y * width + x] & 0xff;
+                int right = pixels[y * width + x + 1] & 0xff;
+                hash = hash << 1 | (left > right ? 1 : 0);
+            }
+        }
+        return hash;
+    }
+
+    /**
+     * 同じ id でハッシュが近い結果を返します。なければ null です。
+     */
+    synchronized Recognize.Result[] get(int id, long hash) {
+        Key best = null;
+        int bestDistance = tolerance + 1;
+        for (Iterator<Key> it = entries.keySet().iterator(); it.hasNext() && bestDistance > 0;) {
+            Key key = it.next();
+            int distance = Long.bitCount(key.hash ^ hash);
+            if (key.id == id && distance < bestDistance) {
+                best = key;
+                bestDistance = distance;
+            }
+        }
+        if (best == null) {
+            misses++;
+            return null;
+        }
+        hits++;
+        return entries.get(best);
+    }
+
+    synchronized void put(int id, long hash, Recognize.Result[] results) {
+        entries.put(new Key(id, hash), results);
+    }
+
+    synchronized String getSummary() {
+        return "inference cache: hits " + hits + "/" + (hits + misses) + " (tolerance " + tolerance + " bits, "
+                + entries.size() + "/" + capacity + " entries)";
+    }
+}
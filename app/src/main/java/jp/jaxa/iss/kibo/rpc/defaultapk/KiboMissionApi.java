@@ -0,0 +1,71 @@
+package jp.jaxa.iss.kibo.rpc.defaultapk;
+
+import org.opencv.core.Mat;
+
+import gov.nasa.arc.astrobee.Kinematics;
+import gov.nasa.arc.astrobee.Result;
+import gov.nasa.arc.astrobee.types.Point;
+import gov.nasa.arc.astrobee.types.Quaternion;
+import jp.jaxa.iss.kibo.rpc.api.KiboRpcApi;
+
+/**
+ * 実機・シミュレータの KiboRpcApi にそのまま委譲する {@link MissionApi}。
+ */
+class KiboMissionApi implements MissionApi {
+    private final KiboRpcApi api;
+
+    KiboMissionApi(KiboRpcApi api) {
+        this.api = api;
+    }
+
+    @Override
+    public boolean startMission() {
+        return api.startMission();
+    }
+
+    @Override
+    public boolean moveTo(Point point, Quaternion quaternion, boolean printRobotPosition) {
+        Result result = api.moveTo(point, quaternion, printRobotPosition);
+        return result != null && result.hasSucceeded();
+    }
+
+    @Override
+    public Kinematics getRobotKinematics() {
+        return api.getRobotKinematics();
+    }
+
+    @Override
+    public Mat getMatNavCam() {
+        return api.getMatNavCam();
+    }
+
+    @Override
+    public double[][] getNavCamIntrinsics() {
+        return api.getNavCamIntrinsics();
+    }
+
+    @Override
+    public void saveMatImage(Mat image, String imageName) {
+        api.saveMatImage(image, imageName);
+    }
+
+    @Override
+    public void setAreaInfo(int areaId, String itemName, int number) {
+        api.setAreaInfo(areaId, itemName, number);
+    }
+
+    @Override
+    public boolean reportRoundingCompletion() {
+        return api.reportRoundingCompletion();
+    }
+
+    @Override
+    public void notifyRecognitionItem() {
+        api.notifyRecognitionItem();
+    }
+
+    @Override
+    public void takeTargetItemSnapshot() {
+        api.takeTargetItemSnapshot();
+    }
+}
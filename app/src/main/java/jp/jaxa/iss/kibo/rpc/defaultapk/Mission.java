@@ -0,0 +1,909 @@
+package jp.jaxa.iss.kibo.rpc.defaultapk;
+
+import org.opencv.core.*;
+import org.opencv.aruco.*;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
+
+import gov.nasa.arc.astrobee.types.Point;
+import gov.nasa.arc.astrobee.types.Quaternion;
+import gov.nasa.arc.astrobee.Kinematics;
+
+/**
+ * ミッション本体 (Plan 1)
+ * Kibo-RPC API には {@link MissionApi} を通してアクセスするため、
+ * ロボット上 ({@link KiboMissionApi}) でもロボット外のリプレイ ({@link ReplayMissionApi}) でも同じように動きます。
+ */
+
+class Mission {
+    private final String[] labels = {
+            "coin",
+            "compass",
+            "coral",
+            "crystal",
+            "diamond",
+            "emerald",
+            "fossil",
+            "key",
+            "letter",
+            "shell",
+            "treasure_box" };
+
+    // crystal, diamond, emerald
+    private static final boolean[] TREASURE_CLASSES = { false, false, false, true, true, true, false, false, false,
+            false, false };
+    // coin, compass, coral, fossil, key, letter, shell, treasure_box
+    private static final boolean[] LANDMARK_CLASSES = { true, true, true, false, false, false, true, true, true,
+            true, true };
+    // エリア認識で集計するフレーム数
+    private static final int AREA_VOTE_MAX_FRAMES = 5;
+    private static final int AREA_VOTE_MIN_FRAMES = 3;
+    private static final double AREA_VOTE_STABILITY = 0.99;
+    private static final long AREA_VOTE_FRAME_INTERVAL_MILLIS = 200;
+    // 推論結果のキャッシュ (保持する数, 同じ切り抜きとみなすハッシュのハミング距離)
+    private static final int INFERENCE_CACHE_SIZE = 16;
+    private static final int INFERENCE_CACHE_TOLERANCE = 4;
+    // フレームの品質の判定 (鮮明さの下限, 同じ視点で最も鮮明なフレームとの比の下限, コントラストの下限, 動きの上限)
+    private static final double FRAME_MIN_SHARPNESS = 20;
+    private static final double FRAME_MIN_SHARPNESS_RATIO = 0.5;
+    private static final double FRAME_MIN_CONTRAST = 20;
+    private static final double FRAME_MAX_MOTION = 0.15;
+    // エリア位置のフィルタ (距離 1 m あたりの横・奥行きの誤差, 自己位置の誤差, 棄却するマハラノビス距離)
+    private static final double AREA_LATERAL_SIGMA = 0.01;
+    private static final double AREA_DEPTH_SIGMA = 0.05;
+    private static final double AREA_LOCALIZATION_SIGMA = 0.02;
+    private static final double AREA_GATE = 3.37; // カイ二乗 (自由度3) の 99%
+    // 最後の位置合わせ (ビジュアルサーボ)
+    static final double ALIGN_TOLERANCE_DEGREES = 15;
+    static final int ALIGN_FRAMES = 3;
+    static final double ALIGN_SMOOTHING = 0.5;
+    static final double ALIGN_AGREEMENT_DEGREES = 3;
+    static final int ALIGN_MAX_CORRECTIONS = 3;
+    static final long ALIGN_TIMEOUT_MILLIS = 20000;
+    // KIZ
+    static final Point KIZ_MIN = new Point(10.3, -10.2, 4.32);
+    static final Point KIZ_MAX = new Point(11.55, -6.0, 5.57);
+    // エリアの中心と観測するときの姿勢
+    static final RoutePlanner.Area[] AREAS = {
+            new RoutePlanner.Area(0, new Point(10.95, -10.58, 5.195), new Quaternion(0, 0, -0.7071f, 0.7071f)),
+            new RoutePlanner.Area(1, new Point(10.925, -8.875, 3.76203), new Quaternion(-0.707f, 0, 0.707f, 0)),
+            new RoutePlanner.Area(2, new Point(10.925, -7.925, 3.76093), new Quaternion(-0.707f, 0, 0.707f, 0)),
+            new RoutePlanner.Area(3, new Point(9.866984, -6.8525, 4.945), new Quaternion(0, 0, 1, 0)) };
+    // 以前の固定の観測位置と姿勢 (area2 と area3 は同じ位置から観測する)
+    static final Point[] LEGACY_POINTS = { new Point(10.95, -9.58, 5.195), new Point(10.925, -8.4, 5.1),
+            new Point(10.925, -8.4, 5.1), new Point(10.866984, -6.8525, 4.945) };
+    static final Quaternion[] LEGACY_QUATERNIONS = { new Quaternion(0, 0, -0.7071f, 0.7071f),
+            new Quaternion(-0.707f, 0, 0.707f, 0), new Quaternion(-0.707f, 0, 0.707f, 0),
+            new Quaternion(0, 0, 1, 0) };
+    // 宇宙飛行士の前
+    static final Point ASTRONAUT_POINT = new Point(11.143, -6.75, 4.9654);
+    static final Quaternion ASTRONAUT_QUATERNION = new Quaternion(0, 0, 0.707f, 0.707f);
+    // 経路計画 (エリアからの基本の距離, 最大の距離, 視野の中心からの最大の角度)
+    static final double ROUTE_STANDOFF = 1.0;
+    static final double ROUTE_MAX_DISTANCE = 1.6;
+    static final double ROUTE_MAX_OFF_AXIS_DEGREES = 20;
+    // 前処理のウォームアップ (NavCam の画像サイズと回数)
+    private static final Size NAVCAM_SIZE = new Size(1280, 960);
+    private static final int VISION_WARM_UP_ITERATIONS = 3;
+
+    private final MissionApi api;
+    private final StartupTask<RecognizePool> recognizeTask;
+    private volatile boolean recognizeFailed = false;
+    private final PhaseTimer phaseTimer = new PhaseTimer();
+    private Mat cameraMatrix;
+    private Mat distCoeffs;
+    private FramePreprocessor framePreprocessor;
+    private DebugImageSink imageSink;
+    private File metricsFile;
+    private ArucoConfig arucoConfig = ArucoConfig.defaults();
+    private InferenceCache inferenceCache = new InferenceCache(INFERENCE_CACHE_SIZE, INFERENCE_CACHE_TOLERANCE);
+    private FrameQualityGate frameQuality;
+
+    /**
+     * @param api       Kibo-RPC API。
+     * @param recognize 物体検出器のプール。バックグラウンドで準備中のものを渡し、最初の推論の直前まで待ちません。
+     */
+    Mission(MissionApi api, StartupTask<RecognizePool> recognize) {
+        this.api = api;
+        this.recognizeTask = recognize;
+    }
+
+    /**
+     * ミッション終了時に処理ごとの所要時間 ({@link MissionMetrics}) を書き出すファイルを指定します。
+     */
+    void setMetricsFile(File metricsFile) {
+        this.metricsFile = metricsFile;
+    }
+
+    /**
+     * マーカー検出の設定を指定します。指定しなければ {@link ArucoConfig#defaults()} を使います。
+     */
+    void setArucoConfig(ArucoConfig arucoConfig) {
+        this.arucoConfig = arucoConfig;
+    }
+
+    /**
+     * 推論結果のキャッシュで同じ切り抜きとみなすハッシュのハミング距離を指定します。負の値ならキャッシュを使いません。
+     */
+    void setInferenceCacheTolerance(int bits) {
+        inferenceCache = new InferenceCache(bits < 0 ? 0 : INFERENCE_CACHE_SIZE, bits);
+    }
+
+    void run() {
+        final AreaInfo[] areas = new AreaInfo[4];
+        final Point[] point = LEGACY_POINTS.clone();
+        final Quaternion[] quaternion = LEGACY_QUATERNIONS.clone();
+        int[] ids = { 101, 102, 103, 104 };
+        // カメラの歪み補正パラメータ
+        double[][] matrix = api.getNavCamIntrinsics();
+        cameraMatrix = new Mat(3, 3, CvType.CV_64F);
+        cameraMatrix.put(0, 0, matrix[0][0], matrix[0][1], matrix[0][2], matrix[0][3], matrix[0][4], matrix[0][5],
+                matrix[0][6], matrix[0][7], matrix[0][8]);
+        distCoeffs = new Mat(1, 5, CvType.CV_64F);
+        distCoeffs.put(0, 0, matrix[1][0], matrix[1][1], matrix[1][2], matrix[1][3], matrix[1][4]);
+        // 補正マップの作成と初回の呼び出しは最初の移動中にバックグラウンドで済ませる
+        MissionLog.i("runPlan1", "aruco: " + arucoConfig);
+        final FramePreprocessor preprocessor = new FramePreprocessor(cameraMatrix, distCoeffs, arucoConfig);
+        frameQuality = new FrameQualityGate(FRAME_MIN_SHARPNESS, FRAME_MIN_SHARPNESS_RATIO, FRAME_MIN_CONTRAST,
+                FRAME_MAX_MOTION);
+        final int warmUpId = ids[0];
+        StartupTask<FramePreprocessor> vision = new StartupTask<>("vision", new Callable<FramePreprocessor>() {
+            @Override
+            public FramePreprocessor call() {
+                preprocessor.warmUp(NAVCAM_SIZE, warmUpId, VISION_WARM_UP_ITERATIONS);
+                return preprocessor;
+            }
+        });
+        imageSink = new DebugImageSink(new DebugImageSink.Writer() {
+            @Override
+            public void write(Mat image, String name) {
+                api.saveMatImage(image, name);
+            }
+        }, DebugImageSink.Level.DETAIL, 64L * 1024 * 1024, DebugImageSink.DropPolicy.DROP_NEWEST);
+
+        // 推論の集計・報告は次の移動中に進める
+        MissionScheduler scheduler = new MissionScheduler();
+        List<Future<Void>> areaTasks = new ArrayList<>();
+        List<String> areaTaskNames = new ArrayList<>();
+
+        api.startMission();
+
+        try {
+            RoutePlanner.Plan plan = planRoute(point, quaternion);
+            for (RoutePlanner.Stop stop : plan.getStops()) {
+                final int[] stopAreas = stop.getAreas();
+                int[] stopIds = new int[stopAreas.length];
+                String name = "area";
+                for (int k = 0; k < stopAreas.length; k++) {
+                    stopIds[k] = ids[stopAreas[k]];
+                    name += (k > 0 ? "+" : "") + (stopAreas[k] + 1);
+                }
+                phaseTimer.start(name);
+                // 前の停止点の報告はここ (ミッションのスレッド) で送る
+                scheduler.runPosted();
+                moveTo(stop.getPosition(), stop.getOrientation(), false);
+                framePreprocessor = vision.get();
+
+                // この停止点から見えるエリアは同じフレームでまとめて撮影する
+                final Kinematics kinematics = api.getRobotKinematics();
+                Mat frame = grabFrame();
+                final StopRecognition recognition = captureAreas(frame, kinematics, stopIds);
+                imageSink.save(frame, name + ".png", DebugImageSink.Level.SUMMARY);
+                frame.release();
+
+                // 撮影が終われば次へ移動できるので、推論の集計は移動中に行い、報告は次の移動の前に送る
+                areaTaskNames.add(name);
+                areaTasks.add(scheduler.submit(name, new Callable<Void>() {
+                    @Override
+                    public Void call() {
+                        AreaInfo[] recognized = recognition.finish();
+                        // エリアの位置はワールド座標で求まっているので、そこから 0.6 m 手前を戻り先にする
+                        Vec3 back = new Quat().set(kinematics.getOrientation()).rotate(new Vec3(-0.6, 0, 0),
+                                new Vec3());
+                        Vec3 comeback = new Vec3();
+                        for (int k = 0; k < stopAreas.length; k++) {
+                            int i = stopAreas[k];
+                            areas[i] = recognized[k];
+
+                            // ここに戻る時のため
+                            point[i] = comeback.set(areas[i].getAreaPoint()).add(comeback, back).toPoint();
+                            quaternion[i] = kinematics.getOrientation();
+
+                            final int areaId = i + 1;
+                            final ItemInfo landmark = areas[i].landmarkItem;
+                            scheduler.post(new Runnable() {
+                                @Override
+                                public void run() {
+                                    api.setAreaInfo(areaId, landmark.itemName, landmark.itemNumber);
+                                }
+                            });
+                        }
+                        return null;
+                    }
+                }));
+            }
+
+            phaseTimer.start("astronaut");
+            scheduler.runPosted();
+            moveTo(ASTRONAUT_POINT, ASTRONAUT_QUATERNION, false);
+            // 全エリアの報告が終わってから周回の完了を報告する
+            for (int t = 0; t < areaTasks.size(); t++) {
+                try {
+                    scheduler.await(areaTaskNames.get(t), areaTasks.get(t));
+                } catch (IllegalStateException e) {
+                    MissionLog.e("runPlan1", e.getMessage() + ": " + e.getCause());
+                }
+            }
+            // 集計に失敗したエリアは何も見つからなかったものとし、戻り先は決めておいた位置のままにする
+            for (int i = 0; i < areas.length; i++) {
+                if (areas[i] == null) {
+                    areas[i] = new AreaInfo(new ItemInfo(), new ItemInfo(), point[i]);
+                }
+            }
+            scheduler.runPosted();
+            api.reportRoundingCompletion();
+
+            phaseTimer.start("target");
+
+            // 撮影・前処理・推論を並行して行い、マーカーが見えた最初のフレームをそのまま認識する
+            TargetRecognitionPipeline<ItemInfo> pipeline = new TargetRecognitionPipeline<>(
+                    new TargetRecognitionPipeline.Capture() {
+                        @Override
+                        public Mat grab() {
+                            return grabFrame();
+                        }
+                    },
+                    new TargetRecognitionPipeline.Preprocess() {
+                        @Override
+                        public Mat process(Mat frame) {
+                            if (!acceptFrame(frame, "target")) {
+                                return null;
+                            }
+                            PreprocessReturnType result = preprocess(frame, 100);
+                            return result.isSuccess() ? result.getImage().clone() : null;
+                        }
+                    },
+                    new TargetRecognitionPipeline.Inference<ItemInfo>() {
+                        @Override
+                        public ItemInfo infer(Mat image) {
+                            return classify(detectObjects(image, 100), new Point()).treasureItem;
+                        }
+                    });
+            ItemInfo targetItem = pipeline.run(10000); // max 10 秒
+            if (targetItem == null) {
+                Mat targetFrame = grabFrame();
+                targetItem = recognizeArea(targetFrame, 100).treasureItem;
+                targetFrame.release();
+            }
+
+            int targetArea = 3;
+            for (int i = 0; i < 4; i++) {
+                if (areas[i].checkTreasureItem(targetItem)) {
+                    targetArea = i;
+                    break;
+                }
+            }
+            api.notifyRecognitionItem();
+
+            phaseTimer.start("comeback");
+            this.moveInKIZ(point[targetArea], quaternion[targetArea], false);
+
+            phaseTimer.start("alignment");
+
+            align(ids[targetArea]);
+
+            if (imageSink.isEnabled(DebugImageSink.Level.SUMMARY)) {
+                imageSink.saveOwned(grabFrame(), "last.png", DebugImageSink.Level.SUMMARY);
+            }
+        } catch (Exception e) {
+            MissionLog.e("runPlan1", "Error during object detection: " + e);
+            e.printStackTrace();
+        }
+        phaseTimer.start("finish");
+        scheduler.shutdown();
+        imageSink.close(3000);
+        api.takeTargetItemSnapshot();
+        phaseTimer.stop();
+        // ウォームアップに失敗していても、ここで例外を投げずに残りの集計を出す
+        try {
+            framePreprocessor = vision.get();
+            MissionLog.i("runPlan1", "marker search: " + framePreprocessor.getTrackingSummary() + ", "
+                    + framePreprocessor.getRemapSummary());
+        } catch (IllegalStateException e) {
+            MissionLog.e("runPlan1", e.getMessage() + ": " + e.getCause());
+        }
+        MissionLog.i("runPlan1", inferenceCache.getSummary());
+        MissionLog.i("runPlan1", frameQuality.getSummary());
+        MissionLog.i("runPlan1", "waited " + scheduler.getWaitedMillis() + " ms for area recognition");
+        MissionLog.i("runPlan1", "phase timing\n" + phaseTimer.report());
+        MissionLog.i("runPlan1", "span timing\n" + MissionMetrics.summary());
+        if (metricsFile != null) {
+            MissionMetrics.writeSummary(metricsFile, phaseTimer);
+        }
+        preprocessor.release();
+        frameQuality.release();
+    }
+
+    PhaseTimer getPhaseTimer() {
+        return phaseTimer;
+    }
+
+    /**
+     * ターゲットのエリアに NavCam を向ける (ビジュアルサーボ)
+     * 撮影したフレームから順にエリアの方向を推定し、数フレーム続けて一致した時点で
+     * 収束したか、平滑化した方向へ向き直すかを決める
+     */
+    private void align(int id) {
+        AlignmentController controller = new AlignmentController(ALIGN_TOLERANCE_DEGREES, ALIGN_FRAMES,
+                ALIGN_SMOOTHING, ALIGN_AGREEMENT_DEGREES, ALIGN_MAX_CORRECTIONS, ALIGN_TIMEOUT_MILLIS);
+        controller.start(System.currentTimeMillis());
+        while (!controller.isFinished(System.currentTimeMillis())) {
+            Mat frame = grabFrame();
+            if (!acceptFrame(frame, "align")) {
+                frame.release();
+                continue;
+            }
+            framePreprocessor.detectRawMarkers(frame, id);
+            int index = framePreprocessor.findMarker(id);
+            AlignmentController.Action action;
+            if (index >= 0) {
+                double[] tvec = framePreprocessor.locateArea(index);
+                action = controller.update(tvec[2], tvec[0], tvec[1]); // astrobee は x が前
+            } else {
+                action = controller.miss();
+            }
+            frame.release();
+
+            if (action == AlignmentController.Action.CORRECT) {
+                MissionLog.i("align", "adjust orientation: " + controller.getErrorDegrees() + " deg");
+                Kinematics kinematics = api.getRobotKinematics();
+                Quat orientation = new Quat().set(kinematics.getOrientation());
+                Vec3 bearing = orientation.rotate(controller.getBearing(), new Vec3()); // ワールド座標
+                moveInKIZ(kinematics.getPosition(), new Quat().fromXDirection(bearing).toQuaternion(), false);
+                controller.corrected();
+            }
+        }
+        MissionLog.i("align", controller.getState() + ": error " + controller.getErrorDegrees() + " deg, "
+                + controller.getFrames() + " frames (" + controller.getMisses() + " missed), "
+                + controller.getCorrections() + " corrections");
+    }
+
+    /**
+     * 現在の位置から4つのエリアを回って宇宙飛行士の前に行く経路を決める
+     * 従来の順序 (エリアごとに決めた位置へ順に移動) と比べた見積もりもログに残す
+     */
+    private RoutePlanner.Plan planRoute(Point[] legacyPoints, Quaternion[] legacyQuaternions) {
+        Kinematics kinematics = api.getRobotKinematics();
+        RoutePlanner planner = new RoutePlanner(KIZ_MIN, KIZ_MAX, MotionCostModel.SIMULATOR, ROUTE_STANDOFF,
+                ROUTE_MAX_DISTANCE, ROUTE_MAX_OFF_AXIS_DEGREES);
+        RoutePlanner.Plan plan = planner.plan(kinematics.getPosition(), kinematics.getOrientation(),
+                ASTRONAUT_POINT, ASTRONAUT_QUATERNION, AREAS);
+
+        RoutePlanner.Stop[] legacyStops = new RoutePlanner.Stop[legacyPoints.length];
+        for (int i = 0; i < legacyStops.length; i++) {
+            legacyStops[i] = new RoutePlanner.Stop(legacyPoints[i], legacyQuaternions[i], i);
+        }
+        RoutePlanner.Plan legacy = planner.evaluate(kinematics.getPosition(), kinematics.getOrientation(),
+                ASTRONAUT_POINT, ASTRONAUT_QUATERNION, legacyStops);
+        MissionLog.i("route", "planned " + plan.describe() + ", legacy " + legacy.describe() + ", saves "
+                + (legacy.getEstimatedMillis() - plan.getEstimatedMillis()) + " ms");
+        return plan;
+    }
+
+    private boolean moveTo(Point point, Quaternion quaternion, boolean log) {
+        long start = MissionMetrics.start();
+        boolean succeeded = api.moveTo(point, quaternion, log);
+        MissionMetrics.stop(MissionMetrics.Span.MOVE_TO, start);
+        // 視点が変わったので、フレームの品質は新しく比べ直す
+        frameQuality.reset();
+        // 前の視点でのマーカー位置・姿勢・合成マップは ROI 探索と solvePnP の初期値に使えないので捨てる
+        // (最初の移動ではまだウォームアップ中で、ウォームアップの最後に同じく捨てる)
+        if (framePreprocessor != null) {
+            framePreprocessor.resetTracking();
+        }
+        return succeeded;
+    }
+
+    private Mat grabFrame() {
+        long start = MissionMetrics.start();
+        Mat frame = api.getMatNavCam();
+        MissionMetrics.stop(MissionMetrics.Span.FRAME_GRAB, start);
+        return frame;
+    }
+
+    /**
+     * マーカー検出や推論に使えるフレームか ({@link FrameQualityGate}) を判定し、使えなければ理由をログに残す
+     */
+    private boolean acceptFrame(Mat frame, String tag) {
+        FrameQualityGate.Score score = frameQuality.evaluate(frame);
+        if (!score.isAccepted()) {
+            MissionLog.i("quality", tag + " frame rejected, " + score);
+        }
+        return score.isAccepted();
+    }
+
+    private void moveInKIZ(Point point, Quaternion quaternion, boolean log) {
+        Point min = KIZ_MIN;
+        Point max = KIZ_MAX;
+
+        double x = point.getX(), y = point.getY(), z = point.getZ();
+        if (x < min.getX()) {
+            x = min.getX();
+        } else if (x > max.getX()) {
+            x = max.getX();
+        }
+        if (y < min.getY()) {
+            y = min.getY();
+        } else if (y > max.getY()) {
+            y = max.getY();
+        }
+        if (z < min.getZ()) {
+            z = min.getZ();
+        } else if (z > max.getZ()) {
+            z = max.getZ();
+        }
+
+        moveTo(new Point(x, y, z), quaternion, log);
+    }
+
+    private static class AreaInfo {
+        private ItemInfo landmarkItem;
+        private ItemInfo treasureItem;
+        private Point areaPoint;
+
+        public AreaInfo() {
+            areaPoint = new Point(0, 0, 0);
+        }
+
+        public AreaInfo(ItemInfo landmark, ItemInfo treasure, Point point) {
+            this.landmarkItem = landmark;
+            this.treasureItem = treasure;
+            this.areaPoint = point;
+        }
+
+        public boolean checkTreasureItem(ItemInfo targetItem) {
+            return treasureItem.checkTreasureItem(targetItem);
+        }
+
+        public Point getAreaPoint() {
+            return areaPoint;
+        }
+    }
+
+    private static class ItemInfo {
+        private String itemName;
+        private int itemNumber;
+
+        public ItemInfo() {
+            itemName = "nothing";
+            itemNumber = 0;
+        }
+
+        public ItemInfo(String name, int number) {
+            this.itemName = name;
+            this.itemNumber = number;
+        }
+
+        public String getItemName() {
+            return itemName;
+        }
+
+        public int getItemNumber() {
+            return itemNumber;
+        }
+
+        public boolean checkTreasureItem(ItemInfo targetItem) {
+            if (this.itemName == "nothing") {
+                return false;
+            }
+            return this.itemName == targetItem.itemName;
+        }
+    }
+
+    private static class PreprocessReturnType {
+        private Mat image;
+        private Point position;
+        private boolean success;
+
+        public PreprocessReturnType(Mat image, Point position, boolean success) {
+            this.image = image;
+            this.position = position;
+            this.success = success;
+        }
+
+        Mat getImage() {
+            return image;
+        }
+
+        Point getPosition() {
+            return position;
+        }
+
+        boolean isSuccess() {
+            return success;
+        }
+    }
+
+    /**
+     * エリア認識処理
+     */
+    private AreaInfo recognizeArea(Mat img, int id) {
+        PreprocessReturnType tmp = preprocess(img, id);
+        Point point = tmp.getPosition();
+
+        Mat pre = tmp.getImage();
+        return classify(detectObjects(pre, id), point);
+    }
+
+    /**
+     * 物体検出器のプール
+     * 準備に失敗していれば null を返し、推論は何も検出しなかったものとしてミッションを続ける
+     */
+    private RecognizePool recognizePool() {
+        if (recognizeFailed) {
+            return null;
+        }
+        try {
+            return recognizeTask.get();
+        } catch (IllegalStateException e) {
+            MissionLog.e("recognize", "model is not available: " + e.getCause());
+            recognizeFailed = true;
+            return null;
+        }
+    }
+
+    /**
+     * 切り抜きの推論
+     * 同じマーカーの見た目が変わらない切り抜きを推論済みなら、推論せずにその結果を返す
+     */
+    private Recognize.Result[] detectObjects(Mat crop, int id) {
+        long hash = InferenceCache.hash(crop);
+        Recognize.Result[] results = inferenceCache.get(id, hash);
+        if (results == null) {
+            RecognizePool pool = recognizePool();
+            if (pool == null) {
+                return new Recognize.Result[0];
+            }
+            results = RecognizePool.get(pool.submit(crop), null);
+            if (results == null) {
+                return pool.emptyResults(); // 失敗した推論は覚えない
+            }
+            inferenceCache.put(id, hash, results);
+        }
+        return results;
+    }
+
+    /**
+     * 複数フレームの多数決によるエリア認識 (停止点での撮影)
+     * 最初のフレームは引数で受け取り、以降は NavCam から撮影する。
+     * 同じフレームに写る複数のエリアは1回の前処理で切り抜き、まとめて推論に回す
+     * 推論の結果は待たずに次のフレームを撮影し、完了した結果でエリアごとの安定を判定する
+     * 全て安定するか最大枚数に達したら撮影をやめる。残りの推論と集計は {@link StopRecognition#finish} で行う
+     */
+    private StopRecognition captureAreas(Mat firstFrame, Kinematics firstKinematics, int[] targetIds) {
+        int n = targetIds.length;
+        StopRecognition recognition = new StopRecognition(targetIds);
+        long lastCapture = 0;
+        for (int f = 0; f < AREA_VOTE_MAX_FRAMES; f++) {
+            if (f > 0) {
+                // 同じ画像を何度も数えないよう、撮影の間隔をあける
+                long wait = lastCapture + AREA_VOTE_FRAME_INTERVAL_MILLIS - System.currentTimeMillis();
+                if (wait > 0) {
+                    try {
+                        Thread.sleep(wait);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        break;
+                    }
+                }
+            }
+            recognition.collect(false);
+            int pending = 0;
+            for (int i = 0; i < n; i++) {
+                pending += recognition.stable[i] ? 0 : 1;
+            }
+            if (pending == 0) {
+                break;
+            }
+            int[] areas = new int[pending];
+            int[] pendingIds = new int[pending];
+            for (int i = 0, k = 0; i < n; i++) {
+                if (!recognition.stable[i]) {
+                    areas[k] = i;
+                    pendingIds[k++] = targetIds[i];
+                }
+            }
+
+            Mat frame = firstFrame;
+            Kinematics kinematics = firstKinematics;
+            if (f > 0) {
+                kinematics = api.getRobotKinematics();
+                frame = grabFrame();
+            }
+            lastCapture = System.currentTimeMillis();
+            // ぶれたフレームは前処理も推論もせずに捨てる (1枚も使えなければ下の1フレームの認識になる)
+            if (acceptFrame(frame, "area")) {
+                recognition.add(kinematics, areas, preprocess(frame, pendingIds, f == 0 ? "" : "_" + f));
+            }
+            if (f > 0) {
+                frame.release();
+            }
+        }
+
+        Pose pose = new Pose().set(firstKinematics.getPosition(), firstKinematics.getOrientation());
+        Vec3 areaPoint = new Vec3();
+        for (int i = 0; i < n; i++) {
+            if (recognition.found[i] == 0) {
+                // マーカーが一度も見つからなかった場合は従来どおり1フレームで認識する
+                AreaInfo area = recognizeArea(firstFrame, targetIds[i]);
+                recognition.fallbacks[i] = new AreaInfo(area.landmarkItem, area.treasureItem,
+                        pose.transform(areaPoint.set(area.getAreaPoint()), areaPoint).toPoint());
+            }
+        }
+        recognition.poseSummary = framePreprocessor.getPoseSummary();
+        return recognition;
+    }
+
+    /**
+     * 1つの停止点で撮影したフレームの推論と集計の途中経過
+     * 撮影 ({@link #captureAreas}) はミッションのスレッドで、{@link #finish} は次の移動中にバックグラウンドで呼ぶ
+     * エリアの位置は各フレームの推定と撮影時の自己位置を合わせたワールド座標で返す
+     */
+    private class StopRecognition {
+        private final int[] targetIds;
+        private final AreaVoteAggregator[] aggregators;
+        private final AreaPoseFilter[] filters;
+        private final boolean[] stable;
+        private final int[] found;
+        private final AreaInfo[] fallbacks;
+        private final List<Future<Recognize.Result[][]>> futures = new ArrayList<>();
+        private final List<int[]> owners = new ArrayList<>();
+        private final List<long[]> hashes = new ArrayList<>();
+        private final List<PreprocessReturnType[]> crops = new ArrayList<>();
+        private int collected = 0;
+        private String poseSummary = "";
+
+        StopRecognition(int[] targetIds) {
+            int n = targetIds.length;
+            this.targetIds = targetIds;
+            aggregators = new AreaVoteAggregator[n];
+            filters = new AreaPoseFilter[n];
+            stable = new boolean[n];
+            found = new int[n];
+            fallbacks = new AreaInfo[n];
+            for (int i = 0; i < n; i++) {
+                aggregators[i] = new AreaVoteAggregator(labels.length);
+                filters[i] = new AreaPoseFilter(AREA_LATERAL_SIGMA, AREA_DEPTH_SIGMA, AREA_LOCALIZATION_SIGMA,
+                        AREA_GATE);
+            }
+        }
+
+        /**
+         * 1フレーム分の切り抜きを推論に回す。切り抜きは {@link #finish} で解放する
+         * 推論済みの切り抜きと見た目が変わらないものは、推論せずにその結果をこのフレームの票として集計する
+         */
+        void add(Kinematics kinematics, int[] areas, PreprocessReturnType[] frameCrops) {
+            List<Mat> images = new ArrayList<>();
+            List<Integer> frameOwners = new ArrayList<>();
+            List<Long> frameHashes = new ArrayList<>();
+            for (int k = 0; k < frameCrops.length; k++) {
+                int i = areas[k];
+                if (frameCrops[k].isSuccess()) {
+                    filters[i].add(kinematics, frameCrops[k].getPosition());
+                    found[i]++;
+                    long hash = InferenceCache.hash(frameCrops[k].getImage());
+                    if (!aggregators[i].offer(targetIds[i], hash, inferenceCache)) {
+                        continue;
+                    }
+                    images.add(frameCrops[k].getImage());
+                    frameOwners.add(i);
+                    frameHashes.add(hash);
+                }
+            }
+            crops.add(frameCrops);
+            RecognizePool pool = recognizePool();
+            if (images.isEmpty() || pool == null) {
+                return;
+            }
+            int[] owner = new int[frameOwners.size()];
+            long[] hash = new long[owner.length];
+            for (int k = 0; k < owner.length; k++) {
+                owner[k] = frameOwners.get(k);
+                hash[k] = frameHashes.get(k);
+            }
+            futures.add(pool.submit(images.toArray(new Mat[0])));
+            owners.add(owner);
+            hashes.add(hash);
+        }
+
+        /**
+         * 終わった推論の結果を撮影順に集計し、安定したエリアを更新する
+         *
+         * @param wait true なら全ての推論を待つ。
+         */
+        void collect(boolean wait) {
+            while (collected < futures.size() && (wait || futures.get(collected).isDone())) {
+                Recognize.Result[][] results = RecognizePool.get(futures.get(collected), null);
+                int[] owner = owners.get(collected);
+                long[] hash = hashes.get(collected++);
+                for (int k = 0; results != null && k < results.length; k++) {
+                    aggregators[owner[k]].add(results[k]);
+                    inferenceCache.put(targetIds[owner[k]], hash[k], results[k]);
+                }
+            }
+            for (int i = 0; i < stable.length; i++) {
+                stable[i] = stable[i] || aggregators[i].isStable(AREA_VOTE_MIN_FRAMES, AREA_VOTE_STABILITY,
+                        LANDMARK_CLASSES, TREASURE_CLASSES);
+            }
+        }
+
+        /**
+         * 残りの推論を待って集計し、エリアごとの認識結果を返す
+         */
+        AreaInfo[] finish() {
+            collect(true);
+            for (PreprocessReturnType[] frameCrops : crops) {
+                for (PreprocessReturnType crop : frameCrops) {
+                    crop.getImage().release();
+                }
+            }
+            AreaInfo[] areas = new AreaInfo[targetIds.length];
+            for (int i = 0; i < areas.length; i++) {
+                areas[i] = fallbacks[i] != null ? fallbacks[i]
+                        : summarizeVote(targetIds[i], aggregators[i], filters[i], poseSummary);
+            }
+            return areas;
+        }
+    }
+
+    /**
+     * 集計結果からエリアの認識結果を作る
+     */
+    private AreaInfo summarizeVote(int id, AreaVoteAggregator aggregator, AreaPoseFilter filter,
+            String poseSummary) {
+        int frames = aggregator.getFrames();
+        ItemInfo landmark = new ItemInfo(), treasure = new ItemInfo();
+        int landmarkClass = aggregator.best(LANDMARK_CLASSES);
+        if (landmarkClass >= 0) {
+            landmark = new ItemInfo(labels[landmarkClass], aggregator.consensusCount(landmarkClass));
+        }
+        int treasureClass = aggregator.best(TREASURE_CLASSES);
+        if (treasureClass >= 0) {
+            treasure = new ItemInfo(labels[treasureClass], aggregator.consensusCount(treasureClass));
+        }
+        MissionLog.i("recognizeArea", "area " + id + ": " + frames + " frames, landmark " + landmark.getItemName()
+                + " (" + aggregator.stability(LANDMARK_CLASSES) + "), treasure " + treasure.getItemName()
+                + " (" + aggregator.stability(TREASURE_CLASSES) + ")");
+        MissionLog.i("recognizeArea", String.format("area %d: position sigma %.1f mm (%d used, %d rejected), %s", id,
+                filter.getSigma() * 1000, filter.getAccepted(), filter.getRejected(), poseSummary));
+        return new AreaInfo(landmark, treasure, filter.getPosition());
+    }
+
+    /**
+     * 認識結果から、最も確信度の高いランドマークとトレジャーを選ぶ
+     */
+    private AreaInfo classify(Recognize.Result[] result, Point point) {
+        ItemInfo landmark = new ItemInfo(), treasure = new ItemInfo();
+
+        double maxLandmarkConfidence = 0;
+        double maxTreasureConfidence = 0;
+        for (int i = 0; i < result.length; i++) {
+            if (result[i].n > 0) {
+                if (TREASURE_CLASSES[i]) { // crystal, diamond, emerald
+                    if (result[i].confidence > maxTreasureConfidence) {
+                        treasure = new ItemInfo(labels[i], result[i].n);
+                        maxTreasureConfidence = result[i].confidence;
+                    }
+                } else { // coin, compass, coral, fossil, key, letter, shell, treasure_box
+                    if (result[i].confidence > maxLandmarkConfidence) {
+                        landmark = new ItemInfo(labels[i], result[i].n);
+                        maxLandmarkConfidence = result[i].confidence;
+                    }
+                }
+            }
+        }
+        return new AreaInfo(landmark, treasure, point);
+    }
+
+    /**
+     * 前処理
+     * 切り抜き・変形と2値化を行う
+     * Areaの正確な位置もここで検出する
+     */
+    private PreprocessReturnType preprocess(Mat image, int id) {
+        return preprocess(image, id, "");
+    }
+
+    /**
+     * 1フレームから複数のエリアを切り抜く
+     * マーカー検出は1回だけ行い、見つかったエリアごとに切り抜きと位置推定を行う
+     * 返す画像は全て新しい Mat なので、呼び出し側で解放する
+     */
+    private PreprocessReturnType[] preprocess(Mat image, int[] targetIds, String file_tag) {
+        PreprocessReturnType[] results = new PreprocessReturnType[targetIds.length];
+        if (targetIds.length == 1) {
+            // 1つだけなら ROI の追跡が使える従来の処理
+            PreprocessReturnType tmp = preprocess(image, targetIds[0], file_tag);
+            results[0] = new PreprocessReturnType(tmp.isSuccess() ? tmp.getImage().clone() : new Mat(),
+                    tmp.getPosition(), tmp.isSuccess());
+            return results;
+        }
+
+        final String TAG = "Preprocess";
+        String label = "";
+        for (int k = 0; k < targetIds.length; k++) {
+            label += (k > 0 ? "_" : "") + targetIds[k];
+        }
+        if (MissionLog.isDebugEnabled()) {
+            MissionLog.d(TAG, "preprocess " + label + file_tag);
+        }
+
+        int detected = framePreprocessor.detectRawMarkers(image, -1);
+        if (imageSink.isEnabled(DebugImageSink.Level.DETAIL)) {
+            Mat image1 = image.clone();
+            if (detected > 0) {
+                Aruco.drawDetectedMarkers(image1, framePreprocessor.getRawCorners(), framePreprocessor.getIds(),
+                        new Scalar(0, 255, 0));
+            }
+            imageSink.saveOwned(image1, "marker_detect" + label + file_tag + ".png", DebugImageSink.Level.DETAIL);
+        }
+
+        for (int k = 0; k < targetIds.length; k++) {
+            int index = framePreprocessor.findMarker(targetIds[k]);
+            if (index < 0) {
+                results[k] = new PreprocessReturnType(new Mat(), new Point(), false);
+                continue;
+            }
+            // 切り抜きは次のエリアで上書きされるので複製しておく
+            Mat completed = framePreprocessor.warpArea(index).clone();
+            double[] tvec = framePreprocessor.estimateAreaPosition();
+            Point point = new Point(tvec[2], tvec[0], tvec[1]); // astrobee は x が前
+            imageSink.save(completed, "preprocess" + targetIds[k] + file_tag + ".png", DebugImageSink.Level.DETAIL);
+            results[k] = new PreprocessReturnType(completed, point, true);
+        }
+        return results;
+    }
+
+    private PreprocessReturnType preprocess(Mat image, int id, String file_tag) {
+        final String TAG = "Preprocess";
+        if (MissionLog.isDebugEnabled()) {
+            MissionLog.d(TAG, "preprocess " + id + file_tag);
+        }
+        Mat completed = image;
+        Point point = new Point();
+
+        // 歪み補正は画像全体ではなく、マーカーの4隅と切り抜き (warpArea) だけで行う
+        // グレースケール変換 は不要
+        int detected = framePreprocessor.detectRawMarkers(image, id);
+        // kLog.i(TAG, "detect marker");
+
+        if (imageSink.isEnabled(DebugImageSink.Level.DETAIL)) {
+            Mat image1 = image.clone();
+            if (detected > 0) {
+                Aruco.drawDetectedMarkers(image1, framePreprocessor.getRawCorners(), framePreprocessor.getIds(),
+                        new Scalar(0, 255, 0));
+            }
+            imageSink.saveOwned(image1, "marker_detect" + id + file_tag + ".png", DebugImageSink.Level.DETAIL);
+        }
+        // Log.i(TAG, "save image of detected marker");
+
+        boolean success = false;
+
+        int index = framePreprocessor.findMarker(id);
+        if (index >= 0) {
+            completed = framePreprocessor.warpArea(index);
+
+            double[] tvec = framePreprocessor.estimateAreaPosition();
+            point = new Point(tvec[2], tvec[0], tvec[1]); // astrobee は x が前
+
+            success = true;
+        }
+
+        imageSink.save(completed, "preprocess" + id + file_tag + ".png", DebugImageSink.Level.DETAIL);
+        return new PreprocessReturnType(completed, point, success);
+    }
+}
@@ -0,0 +1,34 @@
+package jp.jaxa.iss.kibo.rpc.defaultapk;
+
+import org.opencv.core.Mat;
+
+import gov.nasa.arc.astrobee.Kinematics;
+import gov.nasa.arc.astrobee.types.Point;
+import gov.nasa.arc.astrobee.types.Quaternion;
+
+/**
+ * ミッションが使う Kibo-RPC API の操作。
+ * ロボット上では {@link KiboMissionApi} が KiboRpcApi に委譲し、
+ * ロボット外では {@link ReplayMissionApi} が記録したデータを返します。
+ */
+interface MissionApi {
+    boolean startMission();
+
+    boolean moveTo(Point point, Quaternion quaternion, boolean printRobotPosition);
+
+    Kinematics getRobotKinematics();
+
+    Mat getMatNavCam();
+
+    double[][] getNavCamIntrinsics();
+
+    void saveMatImage(Mat image, String imageName);
+
+    void setAreaInfo(int areaId, String itemName, int number);
+
+    boolean reportRoundingCompletion();
+
+    void notifyRecognitionItem();
+
+    void takeTargetItemSnapshot();
+}
@@ -0,0 +1,96 @@
+package jp.jaxa.iss.kibo.rpc.defaultapk;
+
+/**
+ * ミッションのログ出力先を切り替えるためのクラス。
+ * ロボット上では {@link AndroidLogSink} (android.util.Log) に、ロボット外 (リプレイ・ベンチマーク) では標準出力に書き出します。
+ * このクラス自体は Android に依存しません。
+ *
+ * 処理の途中で頻繁に出すログは {@link #d} を使い、文字列を組み立てる前に {@link #isDebugEnabled} で確認してください。
+ * 既定のレベル (INFO) ではこれらのログは文字列の連結も含めて何も行いません。
+ */
+final class MissionLog {
+    /**
+     * ログの出力先。
+     */
+    interface Sink {
+        void d(String tag, String message);
+
+        void i(String tag, String message);
+
+        void w(String tag, String message);
+
+        void e(String tag, String message);
+    }
+
+    /**
+     * 出力するログの下限。
+     */
+    enum Level {
+        DEBUG, INFO, WARN, ERROR
+    }
+
+    /**
+     * 標準出力・標準エラーに書き出す出力先。
+     */
+    static class ConsoleSink implements Sink {
+        @Override
+        public void d(String tag, String message) {
+            System.out.println("D/" + tag + ": " + message);
+        }
+
+        @Override
+        public void i(String tag, String message) {
+            System.out.println("I/" + tag + ": " + message);
+        }
+
+        @Override
+        public void w(String tag, String message) {
+            System.err.println("W/" + tag + ": " + message);
+        }
+
+        @Override
+        public void e(String tag, String message) {
+            System.err.println("E/" + tag + ": " + message);
+        }
+    }
+
+    private static volatile Sink sink = new ConsoleSink();
+    private static volatile Level level = Level.INFO;
+
+    private MissionLog() {
+    }
+
+    static void setSink(Sink newSink) {
+        sink = newSink;
+    }
+
+    static void setLevel(Level newLevel) {
+        level = newLevel;
+    }
+
+    static boolean isDebugEnabled() {
+        return level == Level.DEBUG;
+    }
+
+    static void d(String tag, String message) {
+        if (level.ordinal() <= Level.DEBUG.ordinal()) {
+            sink.d(tag, message);
+        }
+    }
+
+    static void i(String tag, String message) {
+        if (level.ordinal() <= Level.INFO.ordinal()) {
+            sink.i(tag, message);
+        }
+    }
+
+    static void w(String tag, String message) {
+        if (level.ordinal() <= Level.WARN.ordinal()) {
+            sink.w(tag, message);
+        }
+    }
+
+    static void e(String tag, String message) {
+        sink.e(tag, message);
+    }
+}
@@ -0,0 +1,120 @@
+package jp.jaxa.iss.kibo.rpc.defaultapk;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+
+/**
+ * ミッション中の処理ごとの所要時間を集計するクラス。
+ *
+ * <pre>
+ * long start = MissionMetrics.start();
+ * ...
+ * MissionMetrics.stop(MissionMetrics.Span.UNDISTORT, start);
+ * </pre>
+ *
+ * 時刻は System.nanoTime で測り、{@link LatencyHistogram} に記録するため、計測のたびにオブジェクトは作りません。
+ * ミッション終了時に {@link #writeSummary} で p50/p95/max を1つのファイルに書き出します。
+ */
+final class MissionMetrics {
+    private static final String TAG = "MissionMetrics";
+
+    /**
+     * 計測する処理。
+     */
+    enum Span {
+        MOVE_TO, FRAME_GRAB, FRAME_QUALITY, UNDISTORT, ARUCO_DETECT, WARP_THRESHOLD, SOLVE_PNP, TENSOR_CONVERT,
+        INTERPRETER_RUN, POST_PROCESS, NMS
+    }
+
+    private static final LatencyHistogram[] HISTOGRAMS = new LatencyHistogram[Span.values().length];
+
+    static {
+        for (int i = 0; i < HISTOGRAMS.length; i++) {
+            HISTOGRAMS[i] = new LatencyHistogram();
+        }
+    }
+
+    private MissionMetrics() {
+    }
+
+    /**
+     * 計測の開始時刻を返します。
+     */
+    static long start() {
+        return System.nanoTime();
+    }
+
+    /**
+     * start からの経過時間を記録します。
+     *
+     * @return 記録した時間 [ns]。
+     */
+    static long stop(Span span, long start) {
+        long nanos = System.nanoTime() - start;
+        HISTOGRAMS[span.ordinal()].record(nanos);
+        return nanos;
+    }
+
+    static LatencyHistogram get(Span span) {
+        return HISTOGRAMS[span.ordinal()];
+    }
+
+    static void reset() {
+        for (LatencyHistogram histogram : HISTOGRAMS) {
+            histogram.reset();
+        }
+    }
+
+    /**
+     * 指定した処理の記録だけを消します。ウォームアップの計測をミッション中の集計から除くのに使います
+     * (ウォームアップは別のスレッドで最初の移動と並べて実行するため、全てを消すと移動の記録も消えます)。
+     */
+    static void reset(Span... spans) {
+        for (Span span : spans) {
+            HISTOGRAMS[span.ordinal()].reset();
+        }
+    }
+
+    /**
+     * 処理ごとの集計を CSV 形式で返します (span,count,p50_ms,p95_ms,max_ms,total_ms)。
+     */
+    static String summary() {
+        StringBuilder builder = new StringBuilder("span,count,p50_ms,p95_ms,max_ms,total_ms\n");
+        for (Span span : Span.values()) {
+            LatencyHistogram histogram = HISTOGRAMS[span.ordinal()];
+            builder.append(span.name().toLowerCase()).append(',').append(histogram.getCount()).append(',')
+                    .append(millis(histogram.percentileNanos(0.5))).append(',')
+                    .append(millis(histogram.percentileNanos(0.95))).append(',')
+                    .append(millis(histogram.getMaxNanos())).append(',')
+                    .append(millis(histogram.getTotalNanos())).append('\n');
+        }
+        return builder.toString();
+    }
+
+    private static String millis(long nanos) {
+        return String.format("%.3f", nanos / 1e6);
+    }
+
+    /**
+     * 集計とフェーズごとの所要時間をファイルに書き出します。
+     *
+     * @param file       出力先。
+     * @param phaseTimer フェーズの所要時間 (null なら省略)。
+     */
+    static void writeSummary(File file, PhaseTimer phaseTimer) {
+        try (Writer writer = new OutputStreamWriter(new FileOutputStream(file), "UTF-8")) {
+            writer.write(summary());
+            if (phaseTimer != null) {
+                writer.write("\n");
+                writer.write(phaseTimer.report());
+                writer.write("\n");
+            }
+            MissionLog.i(TAG, "metrics written to " + file);
+        } catch (IOException e) {
+            MissionLog.w(TAG, "Failed to write metrics: " + e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,113 @@
+package jp.jaxa.iss.kibo.rpc.defaultapk;
+
+import java.util.Queue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * ロボットの移動中に進められる処理 (認識結果の集計・ログなど) を実行するクラス。
+ * 処理は1つのスレッドで渡された順に実行するため、報告の順序は変わりません。
+ * ミッションのスレッドは結果が必要になった時点で {@link #await} で待ちます。待った時間はログに残します。
+ * Kibo-RPC API はミッションのスレッドからだけ呼ぶため、処理の中での API の呼び出し (報告など) は {@link #post} で登録し、
+ * ミッションのスレッドが移動の合間に {@link #runPosted} で実行します。
+ */
+class MissionScheduler {
+    private static final String TAG = "MissionScheduler";
+
+    private final ExecutorService executor;
+    private final Queue<Runnable> posted = new ConcurrentLinkedQueue<>();
+    private long waitedNanos = 0;
+
+    MissionScheduler() {
+        executor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, TAG);
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    /**
+     * 処理をバックグラウンドで実行します。
+     *
+     * @param name ログに出す名前。
+     */
+    <T> Future<T> submit(final String name, final Callable<T> callable) {
+        return executor.submit(new Callable<T>() {
+            @Override
+            public T call() throws Exception {
+                long start = System.nanoTime();
+                try {
+                    return callable.call();
+                } finally {
+                    MissionLog.i(TAG, name + " done in " + (System.nanoTime() - start) / 1000000 + " ms");
+                }
+            }
+        });
+    }
+
+    /**
+     * 処理の結果を待ちます。
+     *
+     * @throws IllegalStateException 処理に失敗した場合。
+     */
+    <T> T await(String name, Future<T> future) {
+        long start = System.nanoTime();
+        boolean ready = future.isDone();
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException(name + " interrupted", e);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException(name + " failed", e.getCause());
+        } finally {
+            long waited = System.nanoTime() - start;
+            waitedNanos += waited;
+            if (!ready) {
+                MissionLog.i(TAG, "waited " + waited / 1000000 + " ms for " + name);
+            }
+        }
+    }
+
+    /**
+     * ミッションのスレッドで実行する処理を登録します。次に {@link #runPosted} を呼んだ時点で、登録した順に実行します。
+     */
+    void post(Runnable runnable) {
+        posted.add(runnable);
+    }
+
+    /**
+     * 登録された処理を、呼び出したスレッド (ミッションのスレッド) で全て実行します。
+     */
+    void runPosted() {
+        Runnable runnable;
+        while ((runnable = posted.poll()) != null) {
+            runnable.run();
+        }
+    }
+
+    /**
+     * ミッションのスレッドが結果を待った時間の合計 [ms]。
+     */
+    long getWaitedMillis() {
+        return waitedNanos / 1000000;
+    }
+
+    void shutdown() {
+        executor.shutdown();
+        try {
+            executor.awaitTermination(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,62 @@
+package jp.jaxa.iss.kibo.rpc.defaultapk;
+
+import gov.nasa.arc.astrobee.types.Point;
+import gov.nasa.arc.astrobee.types.Quaternion;
+
+/**
+ * moveTo 1回の所要時間の見積もり。
+ * 移動距離と回転角をそれぞれの速度で割った時間に、1回あたりの固定の時間を足します。
+ * {@link RoutePlanner} の経路の評価と、{@link ReplayMissionApi} の待ち時間に使います。
+ */
+class MotionCostModel {
+    /** シミュレータでの移動速度の目安 */
+    static final MotionCostModel SIMULATOR = new MotionCostModel(0.2, 0.35, 2000);
+
+    private final double linearSpeed;
+    private final double angularSpeed;
+    private final long overheadMillis;
+
+    /**
+     * @param linearSpeed    移動速度 [m/s]。
+     * @param angularSpeed   回転速度 [rad/s]。
+     * @param overheadMillis moveTo 1回あたりの固定の時間 [ms]。
+     */
+    MotionCostModel(double linearSpeed, double angularSpeed, long overheadMillis) {
+        this.linearSpeed = linearSpeed;
+        this.angularSpeed = angularSpeed;
+        this.overheadMillis = overheadMillis;
+    }
+
+    /**
+     * from から to への moveTo の所要時間 [ms]。
+     */
+    long estimateMillis(Point fromPoint, Quaternion fromQuaternion, Point toPoint, Quaternion toQuaternion) {
+        double dx = toPoint.getX() - fromPoint.getX();
+        double dy = toPoint.getY() - fromPoint.getY();
+        double dz = toPoint.getZ() - fromPoint.getZ();
+        return estimateMillis(Math.sqrt(dx * dx + dy * dy + dz * dz), angle(fromQuaternion, toQuaternion));
+    }
+
+    /**
+     * {@link #estimateMillis(Point, Quaternion, Point, Quaternion)} と同じ見積もり (経路の探索用, オブジェクトを作りません)。
+     */
+    long estimateMillis(Vec3 fromPoint, Quat fromQuaternion, Vec3 toPoint, Quat toQuaternion) {
+        return estimateMillis(Vec3.distance(fromPoint, toPoint), Quat.angle(fromQuaternion, toQuaternion));
+    }
+
+    private long estimateMillis(double distance, double angle) {
+        return (long) ((distance / linearSpeed + angle / angularSpeed) * 1000) + overheadMillis;
+    }
+
+    /**
+     * 2つの姿勢の間の回転角 [rad]。
+     */
+    static double angle(Quaternion q1, Quaternion q2) {
+        return Quat.angle(q1.getX(), q1.getY(), q1.getZ(), q1.getW(), q2.getX(), q2.getY(), q2.getZ(), q2.getW());
+    }
+
+    @Override
+    public String toString() {
+        return "MotionCostModel(" + linearSpeed + " m/s, " + angularSpeed + " rad/s, " + overheadMillis + " ms)";
+    }
+}
@@ -0,0 +1,114 @@
+package jp.jaxa.iss.kibo.rpc.defaultapk;
+
+import java.util.Arrays;
+
+/**
+ * YOLO の候補に非最大抑制 (NMS) をかけるクラス。
+ * 作業用の配列は使い回すため、1つのインスタンスを複数スレッドから同時に使わないでください。
+ */
+class NMSProcessor {
+    private long[] order;
+    private int[] remaining;
+    private float[] areas;
+    private int[] keep;
+
+    /**
+     * @param capacity 一度に扱う候補数の目安 (超えた場合は拡張します)。
+     */
+    NMSProcessor(int capacity) {
+        allocate(Math.max(capacity, 1));
+    }
+
+    private void allocate(int capacity) {
+        order = new long[capacity];
+        remaining = new int[capacity];
+        areas = new float[capacity];
+        keep = new int[capacity];
+    }
+
+    /**
+     * 非最大抑制（NMS）
+     * 候補は並列配列で受け取り、スコア順のソートは一度だけ行います。
+     * 採用した候補ごとに、抑制されなかった候補だけを前に詰めるため、抑制済みの候補を何度も調べません。
+     *
+     * @param classIds      候補のクラス
+     * @param scores        候補のスコア
+     * @param x1            候補の左上 x
+     * @param y1            候補の左上 y
+     * @param x2            候補の右下 x
+     * @param y2            候補の右下 y
+     * @param count         候補の数
+     * @param iouThreshold  除外するIoUの閾値（例: 0.5f）
+     * @param classAware    true なら同じクラス同士のみ抑制する
+     * @param maxDetections 残す検出数の上限 (0 以下なら上限なし)
+     * @return 残った検出の数。インデックスは {@link #getKeep()} にスコア降順で格納される
+     */
+    int nonMaxSuppression(int[] classIds, float[] scores, float[] x1, float[] y1, float[] x2, float[] y2,
+            int count, float iouThreshold, boolean classAware, int maxDetections) {
+        if (count > order.length) {
+            allocate(count);
+        }
+
+        // 1. スコアで降順にソート
+        // 上位 32bit に順序を保つよう変換したスコア、下位 32bit に反転したインデックスを詰める。
+        // 昇順ソートして末尾から読むと、同点の場合は元の順序が保たれる
+        for (int i = 0; i < count; i++) {
+            int bits = Float.floatToIntBits(scores[i]);
+            bits ^= (bits >> 31) & 0x7FFFFFFF;
+            order[i] = ((long) bits << 32) | (Integer.MAX_VALUE - i);
+            areas[i] = (x2[i] - x1[i]) * (y2[i] - y1[i]);
+        }
+        Arrays.sort(order, 0, count);
+
+        for (int k = 0; k < count; k++) {
+            remaining[k] = Integer.MAX_VALUE - (int) order[count - 1 - k];
+        }
+
+        // 2. 最も高いスコアのものから採用し、重複を抑制
+        int limit = maxDetections > 0 ? maxDetections : count;
+        int kept = 0;
+        int size = count;
+        for (int pos = 0; pos < size && kept < limit; pos++) {
+            int best = remaining[pos];
+            keep[kept++] = best;
+
+            // 抑制されない候補だけをスコア順のまま前に詰める
+            int write = pos + 1;
+            for (int m = pos + 1; m < size; m++) {
+                int other = remaining[m];
+                if ((classAware && classIds[other] != classIds[best])
+                        || !(iou(x1, y1, x2, y2, best, other) > iouThreshold)) {
+                    remaining[write++] = other;
+                }
+            }
+            size = write;
+        }
+        return kept;
+    }
+
+    /**
+     * 直前の {@link #nonMaxSuppression} で残った候補のインデックス。
+     */
+    int[] getKeep() {
+        return keep;
+    }
+
+    /**
+     * 2つのバウンディングボックス間のIntersection over Union（IoU）を計算
+     */
+    private float iou(float[] bx1, float[] by1, float[] bx2, float[] by2, int a, int b) {
+        float x1 = Math.max(bx1[a], bx1[b]);
+        float y1 = Math.max(by1[a], by1[b]);
+        float x2 = Math.min(bx2[a], bx2[b]);
+        float y2 = Math.min(by2[a], by2[b]);
+
+        float intersectionWidth = x2 - x1;
+        float intersectionHeight = y2 - y1;
+        float intersectionArea = 0;
+        if (intersectionWidth > 0 && intersectionHeight > 0) {
+            intersectionArea = intersectionWidth * intersectionHeight;
+        }
+
+        return intersectionArea / (areas[a] + areas[b] - intersectionArea);
+    }
+}
@@ -0,0 +1,48 @@
+package jp.jaxa.iss.kibo.rpc.defaultapk;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * ミッションの各フェーズ (エリア訪問・ターゲット認識・位置合わせなど) の所要時間を記録するクラス。
+ */
+class PhaseTimer {
+    private final List<String> names = new ArrayList<>();
+    private final List<Long> nanos = new ArrayList<>();
+    private final long missionStart = System.nanoTime();
+    private String current = null;
+    private long currentStart = 0;
+
+    /**
+     * フェーズを開始します。実行中のフェーズがあれば終了します。
+     */
+    void start(String phase) {
+        stop();
+        current = phase;
+        currentStart = System.nanoTime();
+    }
+
+    /**
+     * 実行中のフェーズを終了します。
+     */
+    void stop() {
+        if (current == null) {
+            return;
+        }
+        names.add(current);
+        nanos.add(System.nanoTime() - currentStart);
+        current = null;
+    }
+
+    /**
+     * フェーズごとの所要時間をまとめた文字列を返します。
+     */
+    String report() {
+        StringBuilder builder = new StringBuilder();
+        for (int i = 0; i < names.size(); i++) {
+            builder.append(names.get(i)).append(": ").append(nanos.get(i) / 1000000).append(" ms\n");
+        }
+        builder.append("total: ").append((System.nanoTime() - missionStart) / 1000000).append(" ms");
+        return builder.toString();
+    }
+}
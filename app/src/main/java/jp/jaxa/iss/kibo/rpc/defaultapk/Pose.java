@@ -0,0 +1,66 @@
+package jp.jaxa.iss.kibo.rpc.defaultapk;
+
+import gov.nasa.arc.astrobee.types.Point;
+import gov.nasa.arc.astrobee.types.Quaternion;
+
+/**
+ * 変更できる位置と姿勢の組。ロボット座標系 (x が前) とワールド座標系の間の変換に使います。
+ * 点の列は x, y, z を並べた double[] でまとめて変換でき、途中でオブジェクトを作りません。
+ */
+final class Pose {
+    final Vec3 position = new Vec3();
+    final Quat orientation = new Quat();
+
+    Pose set(Point position, Quaternion orientation) {
+        this.position.set(position);
+        this.orientation.set(orientation);
+        return this;
+    }
+
+    Pose set(Pose pose) {
+        position.set(pose.position);
+        orientation.set(pose.orientation);
+        return this;
+    }
+
+    /**
+     * out = ロボット座標系の local をワールド座標系に変換した点。out に local を渡せます。
+     */
+    Vec3 transform(Vec3 local, Vec3 out) {
+        return orientation.rotate(local, out).add(out, position);
+    }
+
+    /**
+     * out = ワールド座標系の world をロボット座標系に変換した点。out に world を渡せます。
+     */
+    Vec3 inverseTransform(Vec3 world, Vec3 out) {
+        return orientation.rotateInverse(out.sub(world, position), out);
+    }
+
+    /**
+     * local[offset..] の count 個の点 (x, y, z の順) をワールド座標系に変換して out に書き込みます。
+     * out に local を渡せます。
+     */
+    void transform(double[] local, double[] out, int offset, int count) {
+        transform(new double[9], local, out, offset, count);
+    }
+
+    /**
+     * {@link #transform(double[], double[], int, int)} と同じですが、回転行列の作業領域 (9要素) を渡せます。
+     */
+    void transform(double[] rotation, double[] local, double[] out, int offset, int count) {
+        orientation.toRotationMatrix(rotation);
+        double px = position.x, py = position.y, pz = position.z;
+        for (int i = offset, end = offset + 3 * count; i < end; i += 3) {
+            double lx = local[i], ly = local[i + 1], lz = local[i + 2];
+            out[i] = px + rotation[0] * lx + rotation[1] * ly + rotation[2] * lz;
+            out[i + 1] = py + rotation[3] * lx + rotation[4] * ly + rotation[5] * lz;
+            out[i + 2] = pz + rotation[6] * lx + rotation[7] * ly + rotation[8] * lz;
+        }
+    }
+
+    @Override
+    public String toString() {
+        return position + " " + orientation;
+    }
+}
@@ -0,0 +1,153 @@
+package jp.jaxa.iss.kibo.rpc.defaultapk;
+
+import gov.nasa.arc.astrobee.types.Quaternion;
+
+/**
+ * 変更できるクォータニオン (double, x, y, z, w の順)。
+ * {@link Vec3} と同じく結果を this (または out) に書き込み、引数に this を渡しても正しく計算します。
+ * 計算は全て double で行い、{@link Quaternion} (float) には API に渡すときだけ変換します。
+ */
+final class Quat {
+    private static final double EPS = 1e-6;
+
+    double x;
+    double y;
+    double z;
+    double w = 1;
+
+    Quat() {
+    }
+
+    Quat(double x, double y, double z, double w) {
+        set(x, y, z, w);
+    }
+
+    Quat set(double x, double y, double z, double w) {
+        this.x = x;
+        this.y = y;
+        this.z = z;
+        this.w = w;
+        return this;
+    }
+
+    Quat set(Quat q) {
+        return set(q.x, q.y, q.z, q.w);
+    }
+
+    Quat set(Quaternion q) {
+        return set(q.getX(), q.getY(), q.getZ(), q.getW());
+    }
+
+    Quat identity() {
+        return set(0, 0, 0, 1);
+    }
+
+    /**
+     * this = a * b (b の回転の後に a の回転)
+     */
+    Quat mul(Quat a, Quat b) {
+        return set(a.w * b.x + a.x * b.w + a.y * b.z - a.z * b.y,
+                a.w * b.y - a.x * b.z + a.y * b.w + a.z * b.x,
+                a.w * b.z + a.x * b.y - a.y * b.x + a.z * b.w,
+                a.w * b.w - a.x * b.x - a.y * b.y - a.z * b.z);
+    }
+
+    /**
+     * this = a の共役 (単位クォータニオンなら逆回転)
+     */
+    Quat conjugate(Quat a) {
+        return set(-a.x, -a.y, -a.z, a.w);
+    }
+
+    /**
+     * out = this v this* (v を回転したベクトル)。out に v を渡せます。
+     */
+    Vec3 rotate(Vec3 v, Vec3 out) {
+        return rotate(x, y, z, w, v, out);
+    }
+
+    /**
+     * out = this* v this (逆回転したベクトル)。out に v を渡せます。
+     */
+    Vec3 rotateInverse(Vec3 v, Vec3 out) {
+        return rotate(-x, -y, -z, w, v, out);
+    }
+
+    private static Vec3 rotate(double x, double y, double z, double w, Vec3 v, Vec3 out) {
+        // q * (v, 0)
+        double qx = w * v.x + y * v.z - z * v.y;
+        double qy = w * v.y + z * v.x - x * v.z;
+        double qz = w * v.z + x * v.y - y * v.x;
+        double qw = -x * v.x - y * v.y - z * v.z;
+        // (q * v) * q*
+        return out.set(-qw * x + qx * w - qy * z + qz * y,
+                -qw * y + qy * w - qz * x + qx * z,
+                -qw * z + qz * w - qx * y + qy * x);
+    }
+
+    /**
+     * X+ 方向 (1, 0, 0) を v の方向に向ける最小の回転にします。
+     * v が0ベクトル、または X+ とほぼ同じ向きなら回転なし、ほぼ逆向きなら Y 軸まわりの 180 度回転です。
+     */
+    Quat fromXDirection(Vec3 v) {
+        double len = v.length();
+        if (len < EPS) {
+            return identity();
+        }
+        double dot = v.x / len;
+        if (dot < -1.0 + EPS) {
+            return set(0, 1, 0, 0);
+        }
+        if (dot > 1.0 - EPS) {
+            return identity();
+        }
+        // 回転軸 = X × v = (0, -vz, vy)
+        double ay = -v.z / len;
+        double az = v.y / len;
+        double axisLen = Math.sqrt(ay * ay + az * az);
+        double half = Math.acos(dot) / 2.0;
+        double s = Math.sin(half) / axisLen;
+        return set(0, ay * s, az * s, Math.cos(half));
+    }
+
+    /**
+     * 回転行列 (行優先の 3x3) を out に書き込みます。正規化してから計算します。
+     */
+    double[] toRotationMatrix(double[] out) {
+        double n = Math.sqrt(x * x + y * y + z * z + w * w);
+        double x = this.x / n, y = this.y / n, z = this.z / n, w = this.w / n;
+        out[0] = 1 - 2 * (y * y + z * z);
+        out[1] = 2 * (x * y - z * w);
+        out[2] = 2 * (x * z + y * w);
+        out[3] = 2 * (x * y + z * w);
+        out[4] = 1 - 2 * (x * x + z * z);
+        out[5] = 2 * (y * z - x * w);
+        out[6] = 2 * (x * z - y * w);
+        out[7] = 2 * (y * z + x * w);
+        out[8] = 1 - 2 * (x * x + y * y);
+        return out;
+    }
+
+    /**
+     * 2つの姿勢の間の回転角 [rad]。正規化してから計算するので、float から変換した誤差の影響を受けません。
+     */
+    static double angle(Quat a, Quat b) {
+        return angle(a.x, a.y, a.z, a.w, b.x, b.y, b.z, b.w);
+    }
+
+    static double angle(double x1, double y1, double z1, double w1, double x2, double y2, double z2, double w2) {
+        double n1 = Math.sqrt(x1 * x1 + y1 * y1 + z1 * z1 + w1 * w1);
+        double n2 = Math.sqrt(x2 * x2 + y2 * y2 + z2 * z2 + w2 * w2);
+        double dot = Math.abs(x1 * x2 + y1 * y2 + z1 * z2 + w1 * w2) / (n1 * n2);
+        return 2 * Math.acos(Math.min(1, dot));
+    }
+
+    Quaternion toQuaternion() {
+        return new Quaternion((float) x, (float) y, (float) z, (float) w);
+    }
+
+    @Override
+    public String toString() {
+        return "(" + x + ", " + y + ", " + z + ", " + w + ")";
+    }
+}
@@ -1,40 +1,26 @@
 package jp.jaxa.iss.kibo.rpc.defaultapk;
 
 import android.content.Context;
-import android.graphics.Bitmap;
-import android.provider.ContactsContract;
-import android.renderscript.ScriptGroup;
-import android.util.Log;
 
+import org.opencv.core.CvType;
 import org.opencv.core.Mat;
-import org.opencv.android.Utils; // OpenCV Mat と Bitmap 間の変換に必要
+import org.opencv.core.MatOfByte;
+import org.opencv.imgcodecs.Imgcodecs;
 
 import org.tensorflow.lite.DataType;
 import org.tensorflow.lite.Interpreter;
+import org.tensorflow.lite.Tensor;
 import org.tensorflow.lite.support.common.FileUtil;
-import org.tensorflow.lite.support.common.ops.CastOp;
-import org.tensorflow.lite.support.common.ops.NormalizeOp;
-import org.tensorflow.lite.support.image.ImageProcessor;
-import org.tensorflow.lite.support.image.TensorImage;
-import org.tensorflow.lite.support.tensorbuffer.TensorBuffer;
-import java.io.BufferedReader;
-import java.io.IOException;
-import java.io.InputStream;
-import java.io.InputStreamReader;
 
+import java.io.ByteArrayOutputStream;
+import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
 import java.nio.ByteBuffer;
-import java.util.ArrayList;
-import java.util.Collections;
-import java.util.Comparator;
-import java.util.HashMap;
-import java.util.Iterator;
-import java.util.List;
+import java.nio.channels.FileChannel;
 import java.util.Map;
 
-import android.content.res.AssetManager;
-import android.graphics.BitmapFactory;
-
 /**
  * TensorFlow Lite を使用して YOLO モデルでオブジェクト検出を実行するクラス。
  * OpenCV Mat 形式の画像を入力として受け取り、検出されたオブジェクトの種類と数を返します。
@@ -45,7 +31,16 @@ public class Recognize {
     private DataType INPUT_IMAGE_TYPE = DataType.FLOAT32;
     private DataType OUTPUT_IMAGE_TYPE = DataType.FLOAT32;
     private final float CONFIDENCE_THRESHOLD = 0.01F;
+    private final float SCORE_THRESHOLD = 0.25F;
     private final float IOU_THRESHOLD = 0.7F;
+    private final boolean CLASS_AWARE_NMS = false; // 異なるクラスの重なりも同一物体として抑制する
+    // 残す検出数の上限 (0 なら上限なし)。上限を設けると以前の実装と個数が変わりうるため、既定では設けない
+    private final int MAX_DETECTIONS = 0;
+    // バックエンド選択時の計測回数
+    private final int BENCHMARK_RUNS = 3;
+    // バックエンド選択時に同じ検出とみなす確信度の差と、枠の IoU
+    static final float SAME_SCORE_TOLERANCE = 0.05F;
+    static final float SAME_BOX_IOU = 0.9F;
 
     private static final String TAG = "Recognize";
     private final Context context;
@@ -66,29 +61,22 @@ public class Recognize {
     private int tensorHeight = 0;
     private int numChannel = 0;
     private int numElements = 0;
-    private ImageProcessor imageProcessor = new ImageProcessor.Builder()
-            .add(new NormalizeOp(INPUT_MEAN, INPUT_STANDARD_DEVIATION))
-            .add(new CastOp(INPUT_IMAGE_TYPE))
-            .build(); // preprocess input
-    private Interpreter.Options options;
+    private int[] inputShape;
+    // 現在の入力のバッチサイズと、モデルがバッチの変更に対応しているか
+    private int batch = 1;
+    private boolean batchSupported = true;
+    private TensorInputConverter inputConverter;
+    private ByteBuffer model;
+    private InferenceBackend backend = InferenceBackend.DEFAULT;
+    // Interpreter 1つあたりのスレッド数 (0 なら全コア)
+    private final int threads;
     private Interpreter interpreter;
+    private YoloPostProcessor postProcessor;
+    private NMSProcessor nmsProcessor;
+    // 直前に collect した画像で残った検出の数
+    private int lastKept = 0;
 
-    public static class Detection {
-        public final int classId;
-        public final float confidence;
-        public final float x1, y1, x2, y2;
-
-        public Detection(int classId, float confidence, float x1, float y1, float x2, float y2) {
-            this.classId = classId;
-            this.confidence = confidence;
-            this.x1 = x1;
-            this.y1 = y1;
-            this.x2 = x2;
-            this.y2 = y2;
-        }
-    }
-
-    public class Result {
+    public static class Result {
         public int n;
         public double confidence;
 
@@ -113,6 +101,35 @@ public class Recognize {
     public Recognize(Context context, String modelPath) {
         this.context = context;
         this.modelPath = modelPath;
+        this.threads = 0;
+        initializeObjectDetector();
+    }
+
+    /**
+     * モデルファイルを直接指定して初期化します (ロボット外でのリプレイ用)。
+     *
+     * @param modelFile TensorFlow Lite モデルファイル。
+     */
+    public Recognize(File modelFile) {
+        this.context = null;
+        this.modelPath = modelFile.getPath();
+        this.threads = 0;
+        initializeObjectDetector();
+    }
+
+    /**
+     * source と同じモデルのバッファと実行方法を使う、別の Interpreter を持つインスタンスを作ります ({@link RecognizePool} 用)。
+     * モデルは読み直さず、入出力のバッファはそれぞれが持ちます。
+     *
+     * @param source  読み込み済みのインスタンス。
+     * @param threads Interpreter が使うスレッド数 (0 なら全コア)。
+     */
+    Recognize(Recognize source, int threads) {
+        this.context = source.context;
+        this.modelPath = source.modelPath;
+        this.model = source.model;
+        this.backend = source.backend;
+        this.threads = threads;
         initializeObjectDetector();
     }
 
@@ -122,25 +139,232 @@ public class Recognize {
      */
     private void initializeObjectDetector() {
         try {
-            Log.i("Recognize", "load_model" + modelPath);
-            this.options = new Interpreter.Options();
-            this.interpreter = new Interpreter(FileUtil.loadMappedFile(context, modelPath), this.options);
-
-            int[] inputShape = interpreter.getInputTensor(0).shape();
-            int[] outputShape = interpreter.getOutputTensor(0).shape();
+            MissionLog.i("Recognize", "load_model" + modelPath);
+            if (model == null) {
+                this.model = context != null ? FileUtil.loadMappedFile(context, modelPath) : loadMappedFile(modelPath);
+            }
+            this.interpreter = new Interpreter(model, backend.createOptions(threads));
+
+            Tensor inputTensor = interpreter.getInputTensor(0);
+            Tensor outputTensor = interpreter.getOutputTensor(0);
+            inputShape = inputTensor.shape();
+            int[] outputShape = outputTensor.shape();
+            INPUT_IMAGE_TYPE = inputTensor.dataType();
+            OUTPUT_IMAGE_TYPE = outputTensor.dataType();
+            Tensor.QuantizationParams inputQuantization = inputTensor.quantizationParams();
+            Tensor.QuantizationParams outputQuantization = outputTensor.quantizationParams();
+            MissionLog.i(TAG, "input " + INPUT_IMAGE_TYPE + " (scale " + inputQuantization.getScale() + ", zero point "
+                    + inputQuantization.getZeroPoint() + "), output " + OUTPUT_IMAGE_TYPE + " (scale "
+                    + outputQuantization.getScale() + ", zero point " + outputQuantization.getZeroPoint() + ")");
 
             tensorWidth = inputShape[1];
             tensorHeight = inputShape[2];
             numChannel = outputShape[1];
             numElements = outputShape[2];
+            if (INPUT_IMAGE_TYPE == DataType.FLOAT32) {
+                inputConverter = new TensorInputConverter(tensorWidth, tensorHeight, inputShape[3],
+                        INPUT_IMAGE_TYPE, INPUT_MEAN, INPUT_STANDARD_DEVIATION);
+            } else {
+                inputConverter = new TensorInputConverter(tensorWidth, tensorHeight, inputShape[3],
+                        INPUT_IMAGE_TYPE, INPUT_MEAN, INPUT_STANDARD_DEVIATION, inputQuantization.getScale(),
+                        inputQuantization.getZeroPoint());
+            }
+            postProcessor = new YoloPostProcessor(numChannel, numElements, SCORE_THRESHOLD, OUTPUT_IMAGE_TYPE,
+                    outputQuantization.getScale(), outputQuantization.getZeroPoint());
+            nmsProcessor = new NMSProcessor(numElements);
 
-            Log.i(TAG, "TensorFlow Lite ObjectDetector initialized successfully.");
-        } catch (IOException e) {
-            Log.e(TAG, "Failed to initialize TensorFlow Lite ObjectDetector: " + e.getMessage());
+            MissionLog.i(TAG, "TensorFlow Lite ObjectDetector initialized successfully.");
+        } catch (IOException | IllegalArgumentException e) {
+            MissionLog.e(TAG, "Failed to initialize TensorFlow Lite ObjectDetector: " + e.getMessage());
             // エラー処理: 例えば、ユーザーにエラーメッセージを表示するなど
         }
     }
 
+    private static ByteBuffer loadMappedFile(String path) throws IOException {
+        try (RandomAccessFile file = new RandomAccessFile(path, "r")) {
+            FileChannel channel = file.getChannel();
+            return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+    }
+
+    /**
+     * 候補の実行方法を順に試し、最も速く、かつ現在と同じ検出結果を返すものに切り替えます。
+     * 各候補はサンプル画像で一度推論してから、推論時間を計測します。
+     * 検出結果は個数だけでなく、クラス・確信度・枠を {@link #sameDetections} で比べます。
+     *
+     * @param sample     計測に使う画像 ({@link #loadSampleImage} など)。
+     * @param candidates 試す実行方法。
+     * @return 選ばれた実行方法。
+     */
+    public InferenceBackend selectBackend(Mat sample, InferenceBackend... candidates) {
+        if (interpreter == null) {
+            return backend;
+        }
+        resizeBatch(1);
+        float[] reference = detectBoxes(sample);
+        if (reference.length == 0) {
+            MissionLog.w(TAG, "sample image has no detections; backends are compared on empty results");
+        }
+        long bestNanos = benchmark(sample);
+        MissionLog.i(TAG, "backend " + backend + ": " + bestNanos / 1000 + " us");
+
+        for (InferenceBackend candidate : candidates) {
+            if (candidate == backend) {
+                continue;
+            }
+            Interpreter current = interpreter;
+            try {
+                interpreter = new Interpreter(model, candidate.createOptions(threads));
+            } catch (Exception e) {
+                MissionLog.w(TAG, "backend " + candidate + " is not available: " + e);
+                interpreter = current;
+                continue;
+            }
+
+            long nanos = Long.MAX_VALUE;
+            boolean same = false;
+            try {
+                same = sameDetections(reference, detectBoxes(sample));
+                nanos = benchmark(sample);
+            } catch (Exception e) {
+                MissionLog.w(TAG, "backend " + candidate + " failed: " + e);
+            }
+            MissionLog.i(TAG, "backend " + candidate + ": " + nanos / 1000 + " us"
+                    + (same ? "" : " (different detections)"));
+
+            if (same && nanos < bestNanos) {
+                current.close();
+                backend = candidate;
+                bestNanos = nanos;
+            } else {
+                interpreter.close();
+                interpreter = current;
+            }
+        }
+        MissionLog.i(TAG, "selected backend " + backend);
+        return backend;
+    }
+
+    public InferenceBackend getBackend() {
+        return backend;
+    }
+
+    /**
+     * 推論 (interpreter.run) のみの平均時間を計測します。
+     */
+    private long benchmark(Mat sample) {
+        resizeBatch(1);
+        ByteBuffer input = inputConverter.convert(sample);
+        long total = 0;
+        for (int i = 0; i < BENCHMARK_RUNS; i++) {
+            input.rewind();
+            long start = System.nanoTime();
+            interpreter.run(input, postProcessor.getOutputBuffer());
+            total += System.nanoTime() - start;
+        }
+        return total / BENCHMARK_RUNS;
+    }
+
+    /**
+     * 画像を推論し、残った検出を {クラス, 確信度, x1, y1, x2, y2} の順に並べて返します。
+     */
+    private float[] detectBoxes(Mat image) {
+        lastKept = 0;
+        detectObjects(image);
+        int[] keep = nmsProcessor.getKeep();
+        float[] boxes = new float[lastKept * 6];
+        for (int i = 0; i < lastKept; i++) {
+            int k = keep[i];
+            boxes[i * 6] = postProcessor.getClassIds()[k];
+            boxes[i * 6 + 1] = postProcessor.getScores()[k];
+            boxes[i * 6 + 2] = postProcessor.getX1()[k];
+            boxes[i * 6 + 3] = postProcessor.getY1()[k];
+            boxes[i * 6 + 4] = postProcessor.getX2()[k];
+            boxes[i * 6 + 5] = postProcessor.getY2()[k];
+        }
+        return boxes;
+    }
+
+    /**
+     * 2つの検出結果 ({@link #detectBoxes} の形式) が同じかを調べます。
+     * 検出の数が等しく、a のそれぞれに、同じクラスで確信度の差が SAME_SCORE_TOLERANCE 以下、
+     * 枠の IoU が SAME_BOX_IOU 以上の検出が b に1つずつ対応すれば同じとみなします。
+     * 実行方法によって確信度がわずかに変わり、並び順が入れ替わることがあるため、順番は問いません。
+     */
+    static boolean sameDetections(float[] a, float[] b) {
+        if (a.length != b.length) {
+            return false;
+        }
+        boolean[] used = new boolean[b.length / 6];
+        for (int i = 0; i < a.length; i += 6) {
+            int match = -1;
+            for (int j = 0; j < used.length && match < 0; j++) {
+                int o = j * 6;
+                if (!used[j] && a[i] == b[o] && Math.abs(a[i + 1] - b[o + 1]) <= SAME_SCORE_TOLERANCE
+                        && iou(a, i, b, o) >= SAME_BOX_IOU) {
+                    match = j;
+                }
+            }
+            if (match < 0) {
+                return false;
+            }
+            used[match] = true;
+        }
+        return true;
+    }
+
+    private static float iou(float[] a, int i, float[] b, int j) {
+        float w = Math.min(a[i + 4], b[j + 4]) - Math.max(a[i + 2], b[j + 2]);
+        float h = Math.min(a[i + 5], b[j + 5]) - Math.max(a[i + 3], b[j + 3]);
+        float intersection = w > 0 && h > 0 ? w * h : 0;
+        float areaA = (a[i + 4] - a[i + 2]) * (a[i + 5] - a[i + 3]);
+        float areaB = (b[j + 4] - b[j + 2]) * (b[j + 5] - b[j + 3]);
+        return intersection / (areaA + areaB - intersection);
+    }
+
+    /**
+     * assets の画像を読み込みます。読み込めない場合は入力サイズの黒画像を返します。
+     * コンテキストがない場合 (リプレイ) は {@link #loadSampleImage(File)} を使ってください。
+     *
+     * @param assetPath assets フォルダ内の画像ファイルへのパス (例: "sample.png")。
+     */
+    public Mat loadSampleImage(String assetPath) {
+        if (context == null) {
+            return Mat.zeros(tensorHeight, tensorWidth, CvType.CV_8UC1);
+        }
+        try (InputStream in = context.getAssets().open(assetPath)) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[16 * 1024];
+            int read;
+            while ((read = in.read(buffer)) > 0) {
+                out.write(buffer, 0, read);
+            }
+            MatOfByte encoded = new MatOfByte(out.toByteArray());
+            Mat image = Imgcodecs.imdecode(encoded, Imgcodecs.IMREAD_UNCHANGED);
+            encoded.release();
+            if (!image.empty()) {
+                return image;
+            }
+        } catch (IOException e) {
+            MissionLog.w(TAG, "sample image " + assetPath + " is not available: " + e.getMessage());
+        }
+        return Mat.zeros(tensorHeight, tensorWidth, CvType.CV_8UC1);
+    }
+
+    /**
+     * 画像ファイルを読み込みます (ロボット外でのリプレイ用)。読み込めない場合は入力サイズの黒画像を返します。
+     *
+     * @param file 画像ファイル (例: app/src/main/assets/sample.png)。
+     */
+    public Mat loadSampleImage(File file) {
+        Mat image = Imgcodecs.imread(file.getPath(), Imgcodecs.IMREAD_UNCHANGED);
+        if (!image.empty()) {
+            return image;
+        }
+        MissionLog.w(TAG, "sample image " + file + " is not available");
+        return Mat.zeros(tensorHeight, tensorWidth, CvType.CV_8UC1);
+    }
+
     /**
      * OpenCV Mat 形式の画像からオブジェクトを検出し、その種類と数を集計します。
      *
@@ -149,170 +373,168 @@ public class Recognize {
      *         検出に失敗した場合は空の Map を返します。
      */
     public Result[] detectObjects(Mat imageMat) {
-        Result[] detectionCounts = new Result[11];
-        for (int i = 0; i < detectionCounts.length; i++) {
-            detectionCounts[i] = new Result();
-        }
+        Result[] detectionCounts = emptyResults();
 
         if (imageMat == null || imageMat.empty()) {
-            Log.e(TAG, "Input image Mat is null or empty.");
+            MissionLog.e(TAG, "Input image Mat is null or empty.");
             return detectionCounts;
         }
 
         try {
-            Log.i(TAG, "image: " + imageMat.cols() + " * " + imageMat.rows() + "tensor: " + tensorWidth + "*"
-                    + tensorHeight);
-            // OpenCV Mat を Android Bitmap に変換
-            Bitmap bitmap = Bitmap.createBitmap(imageMat.cols(), imageMat.rows(), Bitmap.Config.ARGB_8888);
-            Utils.matToBitmap(imageMat, bitmap);
-            // Bitmap bitmap =
-            // BitmapFactory.decodeStream(context.getAssets().open("sample.png")); //
-            // ファイルから読み取りバージョン
-
-            Bitmap resizedBitmap = Bitmap.createScaledBitmap(bitmap, tensorWidth, tensorHeight, false);
-
-            // Bitmap を TensorImage に変換
-            TensorImage tensorImage = TensorImage.fromBitmap(resizedBitmap);
-
-            Log.i(TAG, "conversion finished");
-
-            // オブジェクト検出を実行
-            TensorImage processedImage = imageProcessor.process(tensorImage);
-            ByteBuffer imageBuffer = processedImage.getBuffer();
-
-            Log.i(TAG, "image buffer setting finished");
-
-            int[] shape = { 1, numChannel, numElements };
-            TensorBuffer output = TensorBuffer.createFixedSize(shape, DataType.FLOAT32);
-            Log.i(TAG, "output buffer setting finished");
-            interpreter.run(imageBuffer, output.getBuffer());
-            Log.i(TAG, "interpreter finished");
-
-            float[] array = output.getFloatArray();
-            // 検出結果を集計
-            List<Detection> detections = new ArrayList<>();
-            for (int i = 0; i < 8400; i++) {
-                // クラススコアの最大値とそのインデックスを取得
-                int classId = -1;
-                float maxScore = -Float.MAX_VALUE;
-                for (int j = 4; j < 15; j++) {
-                    if (array[i + 8400 * j] > maxScore) {
-                        maxScore = array[i + 8400 * j];
-                        classId = j - 4;
-                    }
-                }
-
-                if (maxScore >= 0.25f) {
-                    float xCenter = array[i + 8400 * 0];
-                    float yCenter = array[i + 8400 * 1];
-                    float width = array[i + 8400 * 2];
-                    float height = array[i + 8400 * 3];
+            if (MissionLog.isDebugEnabled()) {
+                MissionLog.d(TAG, "image: " + imageMat.cols() + " * " + imageMat.rows() + "tensor: " + tensorWidth
+                        + "*" + tensorHeight);
+            }
+            // OpenCV Mat から入力テンソルへ直接変換
+            resizeBatch(1);
+            long start = MissionMetrics.start();
+            ByteBuffer imageBuffer = inputConverter.convert(imageMat);
+            MissionMetrics.stop(MissionMetrics.Span.TENSOR_CONVERT, start);
 
-                    float x1 = xCenter - width / 2;
-                    float y1 = yCenter - height / 2;
-                    float x2 = xCenter + width / 2;
-                    float y2 = yCenter + height / 2;
+            start = MissionMetrics.start();
+            interpreter.run(imageBuffer, postProcessor.getOutputBuffer());
+            MissionMetrics.stop(MissionMetrics.Span.INTERPRETER_RUN, start);
 
-                    detections.add(new Detection(classId, maxScore, x1, y1, x2, y2));
-                }
-            }
-            Log.i(TAG, detections.size() + " objects were detected");
-            for (int i = 0; i < 20 && i < detections.size(); i++) {
-                Detection detected = detections.get(i);
-                Log.i(TAG,
-                        "detected : " + detected.confidence + ":" + labels[detected.classId] + "["
-                                + detected.classId + "]" + ",(" + detected.x1 + ","
-                                + detected.y1 + ")-(" + detected.x2 + "," + detected.y2 + ")");
-            }
-            List<Detection> finalDetections = NMSProcessor.nonMaxSuppression(detections, IOU_THRESHOLD);
-            Log.i(TAG, "NMS applied");
-            Log.i(TAG, finalDetections.size() + " objects were detected");
-            for (int i = 0; i < 20 && i < finalDetections.size(); i++) {
-                Detection detected = finalDetections.get(i);
-                Log.i(TAG,
-                        "detected : " + detected.confidence + ":" + labels[detected.classId] + "["
-                                + detected.classId + "]" + ",(" + detected.x1 + ","
-                                + detected.y1 + ")-(" + detected.x2 + "," + detected.y2 + ")");
-                detectionCounts[detected.classId].n++;
-                if (detected.confidence > detectionCounts[detected.classId].confidence) {
-                    detectionCounts[detected.classId].confidence = detected.confidence;
-                }
-            }
+            collect(0, detectionCounts);
         } catch (Exception e) {
-            Log.e(TAG, "Error during object detection: " + e);
+            MissionLog.e(TAG, "Error during object detection: " + e);
             e.printStackTrace();
         }
         return detectionCounts;
     }
-}
-
-class NMSProcessor {
 
     /**
-     * 非最大抑制（NMS）
+     * 複数の画像をまとめて1回の interpreter.run で推論し、画像ごとに集計します。
+     * モデルがバッチの変更に対応していない場合は1枚ずつ推論します。
      *
-     * @param detections   元の検出リスト（YoloPostProcessor.Detection）
-     * @param iouThreshold 除外するIoUの閾値（例: 0.5f）
-     * @return NMS適用後の検出リスト
+     * @param images 検出を実行する画像 (エリアの切り抜きなど)。
+     * @return images と同じ順の集計結果。
      */
-    public static List<Recognize.Detection> nonMaxSuppression(
-            List<Recognize.Detection> detections, float iouThreshold) {
-
-        // 1. スコアで降順にソート
-        List<Recognize.Detection> sortedDetections = new ArrayList<Recognize.Detection>(detections);
-        Collections.sort(sortedDetections, new Comparator<Recognize.Detection>() {
-            @Override
-            public int compare(Recognize.Detection d1, Recognize.Detection d2) {
-                // 降順：d2 - d1
-                if (d2.confidence > d1.confidence)
-                    return 1;
-                else if (d2.confidence < d1.confidence)
-                    return -1;
-                else
-                    return 0;
+    public Result[][] detectObjects(Mat[] images) {
+        Result[][] results = new Result[images.length][];
+        boolean batched = images.length > 1 && batchSupported && interpreter != null;
+        for (Mat image : images) {
+            batched &= image != null && !image.empty();
+        }
+        if (batched) {
+            try {
+                resizeBatch(images.length);
+            } catch (Exception e) {
+                MissionLog.w(TAG, "batch inference is not available: " + e);
+                batchSupported = false;
+                batch = 0; // 次の1枚の推論で入力の形を戻す
+                batched = false;
             }
-        });
-
-        List<Recognize.Detection> result = new ArrayList<Recognize.Detection>();
-
-        // 2. 最も高いスコアのものを拾い、重複を除去
-        while (!sortedDetections.isEmpty()) {
-            // 最初の要素（最高スコア）を取り出す
-            Recognize.Detection best = sortedDetections.remove(0);
-            result.add(best);
-
-            // IoUが閾値以上のものをリストから削除
-            Iterator<Recognize.Detection> it = sortedDetections.iterator();
-            while (it.hasNext()) {
-                Recognize.Detection other = it.next();
-                if (iou(best, other) > iouThreshold) {
-                    it.remove();
-                }
+        }
+        if (!batched) {
+            for (int i = 0; i < images.length; i++) {
+                results[i] = detectObjects(images[i]);
+            }
+            return results;
+        }
+
+        for (int i = 0; i < images.length; i++) {
+            results[i] = emptyResults();
+        }
+        try {
+            long start = MissionMetrics.start();
+            ByteBuffer imageBuffer = inputConverter.convert(images, images.length);
+            MissionMetrics.stop(MissionMetrics.Span.TENSOR_CONVERT, start);
+
+            start = MissionMetrics.start();
+            interpreter.run(imageBuffer, postProcessor.getOutputBuffer(images.length));
+            MissionMetrics.stop(MissionMetrics.Span.INTERPRETER_RUN, start);
+
+            for (int i = 0; i < images.length; i++) {
+                collect(i, results[i]);
             }
+        } catch (Exception e) {
+            MissionLog.e(TAG, "Error during batch object detection: " + e);
+            e.printStackTrace();
+        }
+        return results;
+    }
+
+    /**
+     * 何も検出しなかった場合の集計結果を返します。
+     */
+    Result[] emptyResults() {
+        Result[] detectionCounts = new Result[labels.length];
+        for (int i = 0; i < detectionCounts.length; i++) {
+            detectionCounts[i] = new Result();
         }
+        return detectionCounts;
+    }
 
-        return result;
+    /**
+     * Interpreter を閉じます。
+     */
+    void close() {
+        if (interpreter != null) {
+            interpreter.close();
+            interpreter = null;
+        }
+        if (inputConverter != null) {
+            inputConverter.release();
+        }
     }
 
     /**
-     * 2つのバウンディングボックス間のIntersection over Union（IoU）を計算
+     * 入力のバッチサイズを変えます。同じサイズなら何もしません。
      */
-    private static float iou(Recognize.Detection d1, Recognize.Detection d2) {
-        float x1 = Math.max(d1.x1, d2.x1);
-        float y1 = Math.max(d1.y1, d2.y1);
-        float x2 = Math.min(d1.x2, d2.x2);
-        float y2 = Math.min(d1.y2, d2.y2);
-
-        float intersectionWidth = x2 - x1;
-        float intersectionHeight = y2 - y1;
-        float intersectionArea = 0;
-        if (intersectionWidth > 0 && intersectionHeight > 0) {
-            intersectionArea = intersectionWidth * intersectionHeight;
+    private void resizeBatch(int size) {
+        if (interpreter == null || batch == size) {
+            return;
         }
+        int[] shape = inputShape.clone();
+        shape[0] = size;
+        interpreter.resizeInput(0, shape);
+        interpreter.allocateTensors();
+        batch = size;
+    }
 
-        float area1 = (d1.x2 - d1.x1) * (d1.y2 - d1.y1);
-        float area2 = (d2.x2 - d2.x1) * (d2.y2 - d2.y1);
+    /**
+     * 出力のバッチの index 枚目を後処理し、クラスごとの個数と最大の確信度を detectionCounts に集計します。
+     */
+    private void collect(int index, Result[] detectionCounts) {
+        // 検出結果を集計
+        long start = MissionMetrics.start();
+        int count = postProcessor.decode(index);
+        MissionMetrics.stop(MissionMetrics.Span.POST_PROCESS, start);
+        int[] classIds = postProcessor.getClassIds();
+        float[] scores = postProcessor.getScores();
+        float[] x1 = postProcessor.getX1();
+        float[] y1 = postProcessor.getY1();
+        float[] x2 = postProcessor.getX2();
+        float[] y2 = postProcessor.getY2();
+        if (MissionLog.isDebugEnabled()) {
+            MissionLog.d(TAG, count + " candidates");
+            for (int i = 0; i < 20 && i < count; i++) {
+                MissionLog.d(TAG, "candidate : " + scores[i] + ":" + labels[classIds[i]] + "[" + classIds[i]
+                        + "]" + ",(" + x1[i] + "," + y1[i] + ")-(" + x2[i] + "," + y2[i] + ")");
+            }
+        }
 
-        return intersectionArea / (area1 + area2 - intersectionArea);
+        start = MissionMetrics.start();
+        int kept = nmsProcessor.nonMaxSuppression(classIds, scores, x1, y1, x2, y2, count,
+                IOU_THRESHOLD, CLASS_AWARE_NMS, MAX_DETECTIONS);
+        MissionMetrics.stop(MissionMetrics.Span.NMS, start);
+        int[] keep = nmsProcessor.getKeep();
+        lastKept = kept;
+        for (int i = 0; i < kept; i++) {
+            int k = keep[i];
+            detectionCounts[classIds[k]].n++;
+            if (scores[k] > detectionCounts[classIds[k]].confidence) {
+                detectionCounts[classIds[k]].confidence = scores[k];
+            }
+        }
+        if (MissionLog.isDebugEnabled()) {
+            for (int i = 0; i < 20 && i < kept; i++) {
+                int k = keep[i];
+                MissionLog.d(TAG, "detected : " + scores[k] + ":" + labels[classIds[k]] + "[" + classIds[k]
+                        + "]" + ",(" + x1[k] + "," + y1[k] + ")-(" + x2[k] + "," + y2[k] + ")");
+            }
+            MissionLog.d(TAG, kept + " objects were detected");
+        }
     }
 }
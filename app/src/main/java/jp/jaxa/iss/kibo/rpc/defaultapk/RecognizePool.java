@@ -0,0 +1,245 @@
+package jp.jaxa.iss.kibo.rpc.defaultapk;
+
+import org.opencv.core.Mat;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * 複数の {@link Recognize} を使い回し、推論を並列に実行するプール。
+ * Interpreter はスレッドセーフではないため、1つの推論は空いている Recognize を1つ借りて実行します。
+ * モデルのバッファは全ての Recognize で共有し、入出力のバッファはそれぞれが持ちます。
+ * CPU のコアは Interpreter の間で分け合います。
+ *
+ * submit に渡した画像は、Future が完了するまで解放・変更しないでください。
+ */
+class RecognizePool {
+    private static final String TAG = "RecognizePool";
+
+    private final Recognize[] members;
+    private final BlockingQueue<Recognize> idle;
+    private final ExecutorService executor;
+
+    /**
+     * @param source 読み込み済みの Recognize。モデルと実行方法 ({@link Recognize#selectBackend}) を引き継ぎます。
+     * @param size   並列に動かす Interpreter の数。
+     */
+    RecognizePool(Recognize source, int size) {
+        int cores = Runtime.getRuntime().availableProcessors();
+        int threads = Math.max(1, cores / size);
+        members = new Recognize[size];
+        idle = new ArrayBlockingQueue<>(size);
+        for (int i = 0; i < size; i++) {
+            members[i] = new Recognize(source, threads);
+            idle.add(members[i]);
+        }
+        executor = Executors.newFixedThreadPool(size, new ThreadFactory() {
+            private int count = 0;
+
+            @Override
+            public synchronized Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, TAG + "-" + count++);
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        MissionLog.i(TAG, size + " interpreters (" + source.getBackend() + ", " + threads + " threads each)");
+    }
+
+    /**
+     * 端末のコア数に合わせた既定のプールの大きさ (2 コアごとに 1 つ、最大 4)。
+     */
+    static int defaultSize() {
+        return Math.max(1, Math.min(4, Runtime.getRuntime().availableProcessors() / 2));
+    }
+
+    int getSize() {
+        return members.length;
+    }
+
+    /**
+     * 全ての Interpreter で一度ずつ推論し、最初の推論の遅さ (メモリ確保・カーネルの準備) を先に済ませます。
+     */
+    void warmUp(Mat sample) {
+        long start = System.nanoTime();
+        List<Future<Recognize.Result[]>> futures = new ArrayList<>();
+        for (int i = 0; i < members.length; i++) {
+            final Recognize member = members[i];
+            final Mat image = sample;
+            futures.add(executor.submit(new Callable<Recognize.Result[]>() {
+                @Override
+                public Recognize.Result[] call() {
+                    return member.detectObjects(image);
+                }
+            }));
+        }
+        for (Future<Recognize.Result[]> future : futures) {
+            get(future, null);
+        }
+        // ウォームアップ (と実行方法の選択) の推論はミッション中の集計に含めない
+        MissionMetrics.reset(MissionMetrics.Span.TENSOR_CONVERT, MissionMetrics.Span.INTERPRETER_RUN,
+                MissionMetrics.Span.POST_PROCESS, MissionMetrics.Span.NMS);
+        MissionLog.i(TAG, "warm-up " + (System.nanoTime() - start) / 1000000 + " ms");
+    }
+
+    /**
+     * 1枚の推論を空いている Interpreter で実行します。
+     */
+    Future<Recognize.Result[]> submit(final Mat image) {
+        return executor.submit(new Callable<Recognize.Result[]>() {
+            @Override
+            public Recognize.Result[] call() throws InterruptedException {
+                Recognize member = idle.take();
+                try {
+                    return member.detectObjects(image);
+                } finally {
+                    idle.add(member);
+                }
+            }
+        });
+    }
+
+    /**
+     * 複数枚の推論を実行します。
+     * プールが1つならバッチ推論 ({@link Recognize#detectObjects(Mat[])}) で、そうでなければ1枚ずつ並列に実行します。
+     */
+    Future<Recognize.Result[][]> submit(final Mat[] images) {
+        if (members.length == 1 || images.length == 1) {
+            return executor.submit(new Callable<Recognize.Result[][]>() {
+                @Override
+                public Recognize.Result[][] call() throws InterruptedException {
+                    Recognize member = idle.take();
+                    try {
+                        return member.detectObjects(images);
+                    } finally {
+                        idle.add(member);
+                    }
+                }
+            });
+        }
+        final List<Future<Recognize.Result[]>> futures = new ArrayList<>();
+        for (Mat image : images) {
+            futures.add(submit(image));
+        }
+        return new Future<Recognize.Result[][]>() {
+            @Override
+            public boolean cancel(boolean mayInterruptIfRunning) {
+                boolean cancelled = false;
+                for (Future<Recognize.Result[]> future : futures) {
+                    cancelled |= future.cancel(mayInterruptIfRunning);
+                }
+                return cancelled;
+            }
+
+            @Override
+            public boolean isCancelled() {
+                return futures.get(0).isCancelled();
+            }
+
+            @Override
+            public boolean isDone() {
+                for (Future<Recognize.Result[]> future : futures) {
+                    if (!future.isDone()) {
+                        return false;
+                    }
+                }
+                return true;
+            }
+
+            @Override
+            public Recognize.Result[][] get() throws InterruptedException, ExecutionException {
+                Recognize.Result[][] results = new Recognize.Result[futures.size()][];
+                for (int i = 0; i < results.length; i++) {
+                    results[i] = futures.get(i).get();
+                }
+                return results;
+            }
+
+            @Override
+            public Recognize.Result[][] get(long timeout, TimeUnit unit)
+                    throws InterruptedException, ExecutionException, TimeoutException {
+                long deadline = System.nanoTime() + unit.toNanos(timeout);
+                Recognize.Result[][] results = new Recognize.Result[futures.size()][];
+                for (int i = 0; i < results.length; i++) {
+                    results[i] = futures.get(i).get(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+                }
+                return results;
+            }
+        };
+    }
+
+    /**
+     * 1枚の推論を実行し、結果を待ちます。失敗した場合は何も検出しなかった結果を返します。
+     */
+    Recognize.Result[] detectObjects(Mat image) {
+        return get(submit(image), emptyResults());
+    }
+
+    /**
+     * 複数枚の推論を実行し、結果を待ちます。失敗した画像は何も検出しなかった結果になります。
+     */
+    Recognize.Result[][] detectObjects(Mat[] images) {
+        Recognize.Result[][] empty = new Recognize.Result[images.length][];
+        for (int i = 0; i < empty.length; i++) {
+            empty[i] = emptyResults();
+        }
+        return get(submit(images), empty);
+    }
+
+    /**
+     * 何も検出しなかった推論結果。
+     */
+    Recognize.Result[] emptyResults() {
+        return members[0].emptyResults();
+    }
+
+    /**
+     * Future の結果を待ちます。失敗した場合は fallback を返します。
+     */
+    static <T> T get(Future<T> future, T fallback) {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            MissionLog.e(TAG, "Error during inference: " + e.getCause());
+        }
+        return fallback;
+    }
+
+    /**
+     * 実行中の推論を待ってから Interpreter を閉じます。
+     */
+    void shutdown() {
+        executor.shutdown();
+        try {
+            executor.awaitTermination(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        for (Recognize member : members) {
+            member.close();
+        }
+    }
+
+    /**
+     * 準備したプールを閉じます。準備に失敗していれば何もしません (ミッションの終了処理から呼ぶため、例外を投げません)。
+     */
+    static void shutdown(StartupTask<RecognizePool> task) {
+        try {
+            task.get().shutdown();
+        } catch (IllegalStateException e) {
+            MissionLog.e(TAG, "model was not loaded: " + e.getCause());
+        }
+    }
+}
@@ -0,0 +1,87 @@
+package jp.jaxa.iss.kibo.rpc.defaultapk;
+
+import org.opencv.core.Core;
+import org.opencv.core.Mat;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.Callable;
+
+/**
+ * 記録したデータでミッションを再生するエントリーポイント (ロボット外の JVM 用)。
+ *
+ * <pre>
+ * java -cp ... -Djava.library.path=(OpenCV / TFLite のネイティブライブラリ) \
+ *     jp.jaxa.iss.kibo.rpc.defaultapk.ReplayMain 記録ディレクトリ モデルファイル [出力ディレクトリ]
+ * </pre>
+ *
+ * 推論に使う Interpreter の数は -Drecognize.pool=N で変えられます。
+ * ウォームアップに使う画像は -Drecognize.sample=(画像ファイル) で変えられます (既定は assets の sample.png)。
+ * マーカー検出の設定は -Daruco.config=(ArucoTuner が書き出したファイル) で指定できます。
+ * 推論結果のキャッシュのハミング距離は -Dinference.cache.tolerance=N で変えられます (負の値で無効)。
+ */
+public class ReplayMain {
+    public static void main(String[] args) throws IOException {
+        if (args.length < 2) {
+            System.err.println("usage: ReplayMain <recording dir> <model file> [output dir]");
+            System.exit(2);
+        }
+        System.loadLibrary(Core.NATIVE_LIBRARY_NAME);
+        MissionLog.setSink(new MissionLog.ConsoleSink());
+
+        File output = args.length > 2 ? new File(args[2]) : null;
+        if (output != null && !output.isDirectory() && !output.mkdirs()) {
+            throw new IOException("cannot create " + output);
+        }
+        ReplayMissionApi api = new ReplayMissionApi(new File(args[0]), output, MotionCostModel.SIMULATOR);
+        final File modelFile = new File(args[1]);
+        StartupTask<RecognizePool> model = new StartupTask<>("model", new Callable<RecognizePool>() {
+            @Override
+            public RecognizePool call() {
+                Recognize recognize = new Recognize(modelFile);
+                Mat sample = recognize.loadSampleImage(new File(System.getProperty("recognize.sample",
+                        "app/src/main/assets/sample.png")));
+                recognize.selectBackend(sample, InferenceBackend.values());
+                // 選んだ実行方法で Interpreter を並べる (YourService と同じ)
+                RecognizePool pool = new RecognizePool(recognize, Integer.getInteger("recognize.pool",
+                        RecognizePool.defaultSize()));
+                recognize.close();
+                pool.warmUp(sample);
+                sample.release();
+                return pool;
+            }
+        });
+
+        Mission mission = new Mission(api, model);
+        if (output != null) {
+            mission.setMetricsFile(new File(output, "metrics.csv"));
+        }
+        String arucoConfig = System.getProperty("aruco.config");
+        if (arucoConfig != null) {
+            try (InputStream in = new FileInputStream(arucoConfig)) {
+                mission.setArucoConfig(ArucoConfig.load(in));
+            }
+        }
+        Integer tolerance = Integer.getInteger("inference.cache.tolerance");
+        if (tolerance != null) {
+            mission.setInferenceCacheTolerance(tolerance);
+        }
+        try {
+            mission.run();
+
+            System.out.println("=== reports ===");
+            for (String report : api.getReports()) {
+                System.out.println(report);
+            }
+            System.out.println("=== timing ===");
+            System.out.println(mission.getPhaseTimer().report());
+            System.out.println(MissionMetrics.summary());
+            System.out.println("simulated moveTo: " + api.getMoveMillis() + " ms, frames: "
+                    + api.getCapturedFrames());
+        } finally {
+            RecognizePool.shutdown(model);
+        }
+    }
+}
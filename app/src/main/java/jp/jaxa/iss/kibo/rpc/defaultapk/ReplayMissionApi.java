@@ -0,0 +1,287 @@
+package jp.jaxa.iss.kibo.rpc.defaultapk;
+
+import org.opencv.core.Mat;
+import org.opencv.imgcodecs.Imgcodecs;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import gov.nasa.arc.astrobee.Kinematics;
+import gov.nasa.arc.astrobee.types.Point;
+import gov.nasa.arc.astrobee.types.Quaternion;
+import gov.nasa.arc.astrobee.types.Vec3d;
+
+/**
+ * 記録した NavCam 画像と姿勢を返す {@link MissionApi}。ロボット外での計測・回帰テスト用です。
+ *
+ * 記録ディレクトリの構成:
+ * <pre>
+ * intrinsics.csv  1行目: カメラ行列 (9 値), 2行目: 歪み係数 (5 値)
+ * frames.csv      stop,image,px,py,pz,qx,qy,qz,qw
+ *                 stop はそのフレームを撮影した時点で完了していた moveTo の回数
+ * (画像ファイル)   frames.csv の image で指定した NavCam 画像
+ * </pre>
+ *
+ * moveTo は移動距離と回転角から所要時間を見積もって待ち、移動先に最も近い姿勢で記録された stop のフレームに切り替えます。
+ * 記録したときと経路 (moveTo の回数や順序) が変わっても、同じ場所のフレームを返せます。
+ * 同じ stop のフレームは撮影のたびに順に返し、最後のフレームに達したらそれを返し続けます。
+ */
+class ReplayMissionApi implements MissionApi {
+    private static final String TAG = "ReplayMissionApi";
+
+    private static class Frame {
+        final File image;
+        final double[] pose;
+
+        Frame(File image, double[] pose) {
+            this.image = image;
+            this.pose = pose;
+        }
+    }
+
+    private static class ReplayKinematics implements Kinematics {
+        private final Point position;
+        private final Quaternion orientation;
+
+        ReplayKinematics(Point position, Quaternion orientation) {
+            this.position = position;
+            this.orientation = orientation;
+        }
+
+        @Override
+        public Confidence getConfidence() {
+            return Confidence.GOOD;
+        }
+
+        @Override
+        public Point getPosition() {
+            return position;
+        }
+
+        @Override
+        public Quaternion getOrientation() {
+            return orientation;
+        }
+
+        @Override
+        public Vec3d getLinearVelocity() {
+            return new Vec3d(0, 0, 0);
+        }
+
+        @Override
+        public Vec3d getAngularVelocity() {
+            return new Vec3d(0, 0, 0);
+        }
+
+        @Override
+        public Vec3d getLinearAcceleration() {
+            return new Vec3d(0, 0, 0);
+        }
+    }
+
+    private final File outputDirectory;
+    private final MotionCostModel costModel;
+    private final double[][] intrinsics;
+    private final Map<Integer, List<Frame>> frames = new HashMap<>();
+    private final List<String> reports = new ArrayList<>();
+
+    private int stop = 0;
+    private int cursor = 0;
+    private Point position = new Point(9.815, -9.806, 4.293); // ドッキングステーション付近
+    private Quaternion orientation = new Quaternion(1, 0, 0, 0);
+    private long moveMillis = 0;
+    private int captured = 0;
+
+    /**
+     * @param recording          記録ディレクトリ。
+     * @param outputDirectory    saveMatImage の保存先。
+     * @param costModel          moveTo の待ち時間の見積もり。
+     */
+    ReplayMissionApi(File recording, File outputDirectory, MotionCostModel costModel) throws IOException {
+        this.outputDirectory = outputDirectory;
+        this.costModel = costModel;
+
+        List<double[]> rows = readCsv(new File(recording, "intrinsics.csv"), 0);
+        if (rows.size() < 2) {
+            throw new IOException("intrinsics.csv needs 2 rows");
+        }
+        intrinsics = new double[][] { rows.get(0), rows.get(1) };
+
+        try (BufferedReader reader = new BufferedReader(new FileReader(new File(recording, "frames.csv")))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                String[] cols = line.trim().split(",");
+                if (cols.length < 9 || cols[0].equals("stop")) {
+                    continue;
+                }
+                double[] pose = new double[7];
+                for (int i = 0; i < 7; i++) {
+                    pose[i] = Double.parseDouble(cols[i + 2]);
+                }
+                int index = Integer.parseInt(cols[0]);
+                List<Frame> list = frames.get(index);
+                if (list == null) {
+                    list = new ArrayList<>();
+                    frames.put(index, list);
+                }
+                list.add(new Frame(new File(recording, cols[1]), pose));
+            }
+        }
+    }
+
+    private static List<double[]> readCsv(File file, int skip) throws IOException {
+        List<double[]> rows = new ArrayList<>();
+        try (BufferedReader reader = new BufferedReader(new FileReader(file))) {
+            String line;
+            int n = 0;
+            while ((line = reader.readLine()) != null) {
+                if (n++ < skip || line.trim().isEmpty()) {
+                    continue;
+                }
+                String[] cols = line.trim().split(",");
+                double[] row = new double[cols.length];
+                for (int i = 0; i < cols.length; i++) {
+                    row[i] = Double.parseDouble(cols[i]);
+                }
+                rows.add(row);
+            }
+        }
+        return rows;
+    }
+
+    @Override
+    public synchronized boolean startMission() {
+        MissionLog.i(TAG, "startMission");
+        return true;
+    }
+
+    @Override
+    public boolean moveTo(Point point, Quaternion quaternion, boolean printRobotPosition) {
+        long millis;
+        synchronized (this) {
+            millis = costModel.estimateMillis(position, orientation, point, quaternion);
+
+            position = point;
+            orientation = quaternion;
+            stop = nearestStop(point, quaternion);
+            cursor = 0;
+            moveMillis += millis;
+        }
+        if (printRobotPosition) {
+            MissionLog.i(TAG, "moveTo " + point + " (" + millis + " ms)");
+        }
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        return true;
+    }
+
+    /**
+     * 最初のフレームの姿勢が移動先に最も近い stop。同じ近さなら今の stop より後のものを選びます。
+     */
+    private int nearestStop(Point point, Quaternion quaternion) {
+        int best = stop + 1;
+        double bestCost = Double.MAX_VALUE;
+        Vec3 target = new Vec3().set(point);
+        Vec3 p = new Vec3();
+        for (Map.Entry<Integer, List<Frame>> entry : frames.entrySet()) {
+            double[] pose = entry.getValue().get(0).pose;
+            Quaternion q = new Quaternion((float) pose[3], (float) pose[4], (float) pose[5], (float) pose[6]);
+            // 1 rad の回転を 0.2 m の移動と同じくらいの違いとみなす
+            double cost = Vec3.distance(p.set(pose[0], pose[1], pose[2]), target)
+                    + 0.2 * MotionCostModel.angle(q, quaternion);
+            int s = entry.getKey();
+            boolean closer = cost < bestCost - 1e-6;
+            boolean tieAfter = Math.abs(cost - bestCost) <= 1e-6 && s > stop && (best <= stop || s < best);
+            if (closer || tieAfter) {
+                best = s;
+                bestCost = cost;
+            }
+        }
+        return best;
+    }
+
+    @Override
+    public synchronized Kinematics getRobotKinematics() {
+        return new ReplayKinematics(position, orientation);
+    }
+
+    @Override
+    public synchronized Mat getMatNavCam() {
+        // この stop のフレームがなければ、それ以前で最後に記録された stop のフレームを使う
+        List<Frame> list = null;
+        for (int s = stop; s >= 0 && list == null; s--) {
+            list = frames.get(s);
+        }
+        if (list == null || list.isEmpty()) {
+            MissionLog.w(TAG, "no frame for stop " + stop);
+            return new Mat();
+        }
+        Frame frame = list.get(Math.min(cursor, list.size() - 1));
+        cursor++;
+        captured++;
+        position = new Point(frame.pose[0], frame.pose[1], frame.pose[2]);
+        orientation = new Quaternion((float) frame.pose[3], (float) frame.pose[4], (float) frame.pose[5],
+                (float) frame.pose[6]);
+        return Imgcodecs.imread(frame.image.getPath(), Imgcodecs.IMREAD_GRAYSCALE);
+    }
+
+    @Override
+    public double[][] getNavCamIntrinsics() {
+        return intrinsics;
+    }
+
+    @Override
+    public void saveMatImage(Mat image, String imageName) {
+        if (outputDirectory != null) {
+            Imgcodecs.imwrite(new File(outputDirectory, imageName).getPath(), image);
+        }
+    }
+
+    @Override
+    public synchronized void setAreaInfo(int areaId, String itemName, int number) {
+        reports.add("area " + areaId + ": " + itemName + " x " + number);
+    }
+
+    @Override
+    public synchronized boolean reportRoundingCompletion() {
+        reports.add("rounding completed");
+        return true;
+    }
+
+    @Override
+    public synchronized void notifyRecognitionItem() {
+        reports.add("recognition item notified");
+    }
+
+    @Override
+    public synchronized void takeTargetItemSnapshot() {
+        reports.add("snapshot at " + position + " " + orientation);
+    }
+
+    /**
+     * setAreaInfo などで報告された内容。
+     */
+    synchronized List<String> getReports() {
+        return new ArrayList<>(reports);
+    }
+
+    /**
+     * moveTo で待った時間の合計 [ms]。
+     */
+    synchronized long getMoveMillis() {
+        return moveMillis;
+    }
+
+    synchronized int getCapturedFrames() {
+        return captured;
+    }
+}
@@ -0,0 +1,355 @@
+package jp.jaxa.iss.kibo.rpc.defaultapk;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+import gov.nasa.arc.astrobee.types.Point;
+import gov.nasa.arc.astrobee.types.Quaternion;
+
+/**
+ * エリアを巡回する経路を決めるクラス。
+ *
+ * エリアごとに、観測する姿勢が同じエリアの組み合わせから撮影位置 (停止点) の候補を作ります。
+ * 候補の位置は、全てのエリアが視野の中心から決めた角度以内・決めた距離以内に入り、かつ KIZ の中にあるものに限ります。
+ * その中から全てのエリアを1回ずつ含む停止点の組と順序を全て試し、{@link MotionCostModel} で見積もった
+ * 開始位置 → 停止点 → 終了位置 の所要時間が最も短いものを選びます。
+ *
+ * 停止点の候補は KIZ・エリア・距離と角度の条件ごとに、計画は加えて移動時間の見積もり・終了位置と、
+ * 開始位置を {@link #START_POSITION_STEP} m・開始時の姿勢を {@link #START_ORIENTATION_STEP} 刻みに丸めたものごとに
+ * キャッシュします。開始位置はミッションごとに少しずつ違うので、丸めた開始位置が同じなら停止点の組と順序を使い回し、
+ * 所要時間だけを実際の開始位置から見積もり直します。
+ */
+class RoutePlanner {
+    private static final double STANDOFF_STEP = 0.05;
+    private static final double SAME_ORIENTATION_RADIANS = Math.toRadians(1);
+
+    // 開始位置・姿勢 (クォータニオンの成分) を丸める刻み
+    static final double START_POSITION_STEP = 0.1;
+    static final double START_ORIENTATION_STEP = 0.05;
+
+    private static final Map<String, List<Stop>> candidateCache = new HashMap<>();
+    private static final Map<String, Plan> planCache = new HashMap<>();
+
+    /**
+     * 観測するエリア。
+     */
+    static class Area {
+        private final int index;
+        private final Point center;
+        private final Quaternion orientation;
+        private final Vec3 centerVec;
+
+        /**
+         * @param index       エリアの番号 (0 始まり)。
+         * @param center      エリアの中心 (ワールド座標)。
+         * @param orientation エリアを観測するときの姿勢 (X+ がエリアに向く)。
+         */
+        Area(int index, Point center, Quaternion orientation) {
+            this.index = index;
+            this.center = center;
+            this.orientation = orientation;
+            this.centerVec = new Vec3().set(center);
+        }
+
+        int getIndex() {
+            return index;
+        }
+
+        Point getCenter() {
+            return center;
+        }
+
+        Quaternion getOrientation() {
+            return orientation;
+        }
+    }
+
+    /**
+     * 停止点。1回の moveTo で、ここから areas のエリアを全て観測します。
+     */
+    static class Stop {
+        private final Point position;
+        private final Quaternion orientation;
+        private final int[] areas;
+        // 経路の探索で使う double の値
+        private final Vec3 positionVec;
+        private final Quat orientationQuat;
+
+        Stop(Point position, Quaternion orientation, int... areas) {
+            this.position = position;
+            this.orientation = orientation;
+            this.areas = areas;
+            this.positionVec = new Vec3().set(position);
+            this.orientationQuat = new Quat().set(orientation);
+        }
+
+        Point getPosition() {
+            return position;
+        }
+
+        Quaternion getOrientation() {
+            return orientation;
+        }
+
+        int[] getAreas() {
+            return areas;
+        }
+    }
+
+    /**
+     * 巡回の計画と見積もった所要時間。
+     */
+    static class Plan {
+        private final Stop[] stops;
+        private final long estimatedMillis;
+
+        Plan(Stop[] stops, long estimatedMillis) {
+            this.stops = stops;
+            this.estimatedMillis = estimatedMillis;
+        }
+
+        Stop[] getStops() {
+            return stops;
+        }
+
+        /**
+         * 開始位置から全ての停止点を回って終了位置に着くまでの移動時間の見積もり [ms]。
+         */
+        long getEstimatedMillis() {
+            return estimatedMillis;
+        }
+
+        String describe() {
+            StringBuilder sb = new StringBuilder();
+            for (Stop stop : stops) {
+                sb.append('[');
+                for (int i = 0; i < stop.areas.length; i++) {
+                    sb.append(i > 0 ? "+" : "").append(stop.areas[i] + 1);
+                }
+                sb.append(String.format(Locale.US, " @ (%.3f, %.3f, %.3f)] ", stop.position.getX(),
+                        stop.position.getY(), stop.position.getZ()));
+            }
+            return sb.append(estimatedMillis).append(" ms").toString();
+        }
+    }
+
+    private final Point kizMin;
+    private final Point kizMax;
+    private final MotionCostModel costModel;
+    private final double standoff;
+    private final double maxDistance;
+    private final double maxOffAxisRadians;
+
+    /**
+     * @param kizMin            KIZ の最小の角。
+     * @param kizMax            KIZ の最大の角。
+     * @param costModel         移動時間の見積もり。
+     * @param standoff          エリアから停止点までの基本の距離 [m]。
+     * @param maxDistance       エリアから停止点までの最大の距離 [m]。
+     * @param maxOffAxisDegrees 視野の中心からエリアまでの最大の角度 [deg]。
+     */
+    RoutePlanner(Point kizMin, Point kizMax, MotionCostModel costModel, double standoff, double maxDistance,
+            double maxOffAxisDegrees) {
+        this.kizMin = kizMin;
+        this.kizMax = kizMax;
+        this.costModel = costModel;
+        this.standoff = standoff;
+        this.maxDistance = maxDistance;
+        this.maxOffAxisRadians = Math.toRadians(maxOffAxisDegrees);
+    }
+
+    /**
+     * 全てのエリアを回る最も速い計画を返します。
+     *
+     * @param start      開始位置。
+     * @param startQ     開始時の姿勢。
+     * @param end        最後に向かう位置。
+     * @param endQ       最後に向かう姿勢。
+     * @param areas      観測するエリア。
+     */
+    Plan plan(Point start, Quaternion startQ, Point end, Quaternion endQ, Area[] areas) {
+        String areaKey = areaKey(areas);
+        String key = areaKey + costModel + end + endQ + startKey(start, startQ);
+        synchronized (planCache) {
+            Plan plan = planCache.get(key);
+            if (plan != null) {
+                return evaluate(start, startQ, end, endQ, plan.stops);
+            }
+            plan = search(start, startQ, end, endQ, areas, areaKey);
+            planCache.put(key, plan);
+            return plan;
+        }
+    }
+
+    /**
+     * 決まった順序の停止点を回る場合の所要時間を見積もります。
+     */
+    Plan evaluate(Point start, Quaternion startQ, Point end, Quaternion endQ, Stop[] stops) {
+        return new Plan(stops, cost(new Stop(start, startQ), new Stop(end, endQ), stops, stops.length));
+    }
+
+    private Plan search(Point start, Quaternion startQ, Point end, Quaternion endQ, Area[] areas, String areaKey) {
+        List<Stop> candidates;
+        synchronized (candidateCache) {
+            candidates = candidateCache.get(areaKey);
+            if (candidates == null) {
+                candidates = candidates(areas);
+                candidateCache.put(areaKey, candidates);
+            }
+        }
+        Plan[] best = new Plan[1];
+        searchRoute(new Stop(start, startQ), new Stop(end, endQ), areas, candidates, new Stop[areas.length], 0, 0,
+                best);
+        if (best[0] == null) {
+            throw new IllegalStateException("no feasible route");
+        }
+        return best[0];
+    }
+
+    /**
+     * まだ観測していないエリアだけを含む停止点を順に足していき、全て覆った経路の中で最も速いものを best に残します。
+     */
+    private void searchRoute(Stop start, Stop end, Area[] areas, List<Stop> candidates, Stop[] route, int length,
+            int covered, Plan[] best) {
+        if (covered == (1 << areas.length) - 1) {
+            long cost = cost(start, end, route, length);
+            if (best[0] == null || cost < best[0].estimatedMillis) {
+                best[0] = new Plan(Arrays.copyOf(route, length), cost);
+            }
+            return;
+        }
+        for (Stop stop : candidates) {
+            int mask = mask(stop, areas);
+            if ((mask & covered) != 0) {
+                continue;
+            }
+            route[length] = stop;
+            searchRoute(start, end, areas, candidates, route, length + 1, covered | mask, best);
+        }
+    }
+
+    /**
+     * start → stops → end の所要時間。start と end は位置と姿勢だけを使います。
+     */
+    private long cost(Stop start, Stop end, Stop[] stops, int length) {
+        long total = 0;
+        Stop from = start;
+        for (int i = 0; i < length; i++) {
+            total += costModel.estimateMillis(from.positionVec, from.orientationQuat, stops[i].positionVec,
+                    stops[i].orientationQuat);
+            from = stops[i];
+        }
+        return total + costModel.estimateMillis(from.positionVec, from.orientationQuat, end.positionVec,
+                end.orientationQuat);
+    }
+
+    /**
+     * 観測する姿勢が同じエリアの組み合わせごとに、停止点の候補を作ります。
+     */
+    private List<Stop> candidates(Area[] areas) {
+        List<Stop> candidates = new ArrayList<>();
+        for (int subset = 1; subset < 1 << areas.length; subset++) {
+            List<Area> members = new ArrayList<>();
+            for (int i = 0; i < areas.length; i++) {
+                if ((subset & 1 << i) != 0) {
+                    members.add(areas[i]);
+                }
+            }
+            Stop stop = candidate(members);
+            if (stop != null) {
+                candidates.add(stop);
+            }
+        }
+        return candidates;
+    }
+
+    private Stop candidate(List<Area> members) {
+        Quaternion orientation = members.get(0).orientation;
+        Vec3 center = new Vec3();
+        for (Area area : members) {
+            if (MotionCostModel.angle(orientation, area.orientation) > SAME_ORIENTATION_RADIANS) {
+                return null;
+            }
+            center.add(center, area.centerVec);
+        }
+        center.scale(1.0 / members.size(), center);
+        Vec3 direction = new Quat().set(orientation).rotate(new Vec3(1, 0, 0), new Vec3());
+        Vec3 position = new Vec3();
+        Vec3 toArea = new Vec3();
+
+        // 全てのエリアが視野に入るまで離れる
+        for (double d = standoff; d <= maxDistance; d += STANDOFF_STEP) {
+            clamp(position.addScaled(center, -d, direction));
+            if (observable(position, direction, members, toArea)) {
+                int[] indices = new int[members.size()];
+                for (int i = 0; i < indices.length; i++) {
+                    indices[i] = members.get(i).index;
+                }
+                return new Stop(position.toPoint(), orientation, indices);
+            }
+        }
+        return null;
+    }
+
+    private boolean observable(Vec3 position, Vec3 direction, List<Area> members, Vec3 toArea) {
+        for (Area area : members) {
+            toArea.sub(area.centerVec, position);
+            if (toArea.length() > maxDistance) {
+                return false;
+            }
+            if (Vec3.angle(toArea, direction) > maxOffAxisRadians) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private Vec3 clamp(Vec3 p) {
+        return p.set(Math.max(kizMin.getX(), Math.min(kizMax.getX(), p.x)),
+                Math.max(kizMin.getY(), Math.min(kizMax.getY(), p.y)),
+                Math.max(kizMin.getZ(), Math.min(kizMax.getZ(), p.z)));
+    }
+
+    private static int mask(Stop stop, Area[] areas) {
+        int mask = 0;
+        for (int index : stop.areas) {
+            for (int i = 0; i < areas.length; i++) {
+                if (areas[i].index == index) {
+                    mask |= 1 << i;
+                }
+            }
+        }
+        return mask;
+    }
+
+    /**
+     * 停止点の候補を決める入力 (KIZ, 距離と角度の条件, エリア) のキー。
+     */
+    private String areaKey(Area[] areas) {
+        StringBuilder sb = new StringBuilder();
+        sb.append(kizMin).append(kizMax).append(standoff).append(',').append(maxDistance).append(',')
+                .append(maxOffAxisRadians);
+        for (Area area : areas) {
+            sb.append(area.index).append(area.center).append(area.orientation);
+        }
+        return sb.toString();
+    }
+
+    /**
+     * 丸めた開始位置・姿勢のキー。q と -q は同じ姿勢なので、w が負なら符号を反転してから丸めます。
+     */
+    private static String startKey(Point start, Quaternion startQ) {
+        double sign = startQ.getW() < 0 ? -1 : 1;
+        return "@" + Math.round(start.getX() / START_POSITION_STEP) + ','
+                + Math.round(start.getY() / START_POSITION_STEP) + ','
+                + Math.round(start.getZ() / START_POSITION_STEP) + ','
+                + Math.round(sign * startQ.getX() / START_ORIENTATION_STEP) + ','
+                + Math.round(sign * startQ.getY() / START_ORIENTATION_STEP) + ','
+                + Math.round(sign * startQ.getZ() / START_ORIENTATION_STEP) + ','
+                + Math.round(sign * startQ.getW() / START_ORIENTATION_STEP);
+    }
+}
@@ -0,0 +1,86 @@
+package jp.jaxa.iss.kibo.rpc.defaultapk;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+
+/**
+ * ミッション開始前の準備 (モデルの読み込み・ウォームアップなど) をバックグラウンドで実行するタスク。
+ * 作った時点で専用のスレッドで実行を始め、ミッションのスレッドは結果が必要になった時点で {@link #get()} で待ちます。
+ * 待った時間はログに残すため、準備が間に合っていない箇所が分かります。
+ *
+ * @param <T> 準備したもの。
+ */
+class StartupTask<T> {
+    private static final String TAG = "StartupTask";
+
+    private final String name;
+    private final FutureTask<T> task;
+    private final long startNanos;
+    private volatile long readyNanos = 0;
+    private boolean waited = false;
+
+    /**
+     * @param name     ログに出す名前。
+     * @param callable 準備の処理。
+     */
+    StartupTask(String name, final Callable<T> callable) {
+        this.name = name;
+        this.startNanos = System.nanoTime();
+        this.task = new FutureTask<>(new Callable<T>() {
+            @Override
+            public T call() throws Exception {
+                try {
+                    return callable.call();
+                } finally {
+                    readyNanos = System.nanoTime();
+                }
+            }
+        });
+        Thread thread = new Thread(task, TAG + "-" + name);
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * すでに準備したものを包みます (準備が不要な場合用)。
+     */
+    static <T> StartupTask<T> of(String name, final T value) {
+        return new StartupTask<>(name, new Callable<T>() {
+            @Override
+            public T call() {
+                return value;
+            }
+        });
+    }
+
+    boolean isReady() {
+        return task.isDone();
+    }
+
+    /**
+     * 準備が終わるまで待ち、結果を返します。
+     *
+     * @throws IllegalStateException 準備に失敗した場合。
+     */
+    T get() {
+        long start = System.nanoTime();
+        boolean ready = task.isDone();
+        try {
+            T value = task.get();
+            synchronized (this) {
+                if (!waited) {
+                    waited = true;
+                    MissionLog.i(TAG, name + " ready in " + (readyNanos - startNanos) / 1000000 + " ms"
+                            + (ready ? "" : ", blocked " + (System.nanoTime() - start) / 1000000 + " ms"));
+                }
+            }
+            return value;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException(name + " interrupted", e);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException(name + " failed", e.getCause());
+        }
+    }
+}
@@ -0,0 +1,197 @@
+package jp.jaxa.iss.kibo.rpc.defaultapk;
+
+import org.opencv.core.Mat;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 撮影 → 前処理 → 推論 をそれぞれ別スレッドで実行するパイプライン。
+ * 各段は小さな有界キューでつながっており、前処理中に次のフレームを撮影できます。
+ * 前処理でマーカーが見つかった最初のフレームをそのまま推論に回し、結果が出たら停止します。
+ *
+ * 各段のオブジェクトは実行中このクラスのスレッドだけが使うため、呼び出し側は run の間それらに触れないでください。
+ *
+ * @param <T> 推論結果の型。
+ */
+class TargetRecognitionPipeline<T> {
+    private static final String TAG = "TargetPipeline";
+    private static final long POLL_MILLIS = 50;
+
+    /**
+     * フレームを撮影する段。返した Mat の所有権はパイプラインに移ります。
+     */
+    interface Capture {
+        Mat grab();
+    }
+
+    /**
+     * 前処理の段。対象が見つからなければ null を、見つかれば推論に渡す画像 (呼び出し側が解放してよい新しい Mat) を返します。
+     */
+    interface Preprocess {
+        Mat process(Mat frame);
+    }
+
+    /**
+     * 推論の段。
+     */
+    interface Inference<T> {
+        T infer(Mat image);
+    }
+
+    private final Capture capture;
+    private final Preprocess preprocess;
+    private final Inference<T> inference;
+
+    private final BlockingQueue<Mat> frames = new ArrayBlockingQueue<>(2);
+    private final BlockingQueue<Mat> crops = new ArrayBlockingQueue<>(1);
+    private final CountDownLatch finished = new CountDownLatch(1);
+    private volatile boolean stopped = false;
+    private volatile T result = null;
+    private volatile int capturedFrames = 0;
+    private volatile int processedFrames = 0;
+
+    TargetRecognitionPipeline(Capture capture, Preprocess preprocess, Inference<T> inference) {
+        this.capture = capture;
+        this.preprocess = preprocess;
+        this.inference = inference;
+    }
+
+    /**
+     * パイプラインを実行し、推論結果を待ちます。
+     *
+     * @param timeoutMillis 最大の待ち時間。
+     * @return 推論結果。時間内に対象が見つからなかった場合は null。
+     */
+    T run(long timeoutMillis) {
+        long start = System.nanoTime();
+        Thread[] threads = {
+                new Thread(new Runnable() {
+                    @Override
+                    public void run() {
+                        captureLoop();
+                    }
+                }, TAG + "-capture"),
+                new Thread(new Runnable() {
+                    @Override
+                    public void run() {
+                        preprocessLoop();
+                    }
+                }, TAG + "-preprocess"),
+                new Thread(new Runnable() {
+                    @Override
+                    public void run() {
+                        inferenceLoop();
+                    }
+                }, TAG + "-inference") };
+        for (Thread thread : threads) {
+            thread.start();
+        }
+
+        try {
+            finished.await(timeoutMillis, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        stopped = true;
+        for (Thread thread : threads) {
+            thread.interrupt();
+        }
+        for (Thread thread : threads) {
+            try {
+                thread.join(1000);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+        drain(frames);
+        drain(crops);
+
+        long elapsed = (System.nanoTime() - start) / 1000000;
+        MissionLog.i(TAG, (result != null ? "recognized" : "timed out") + " in " + elapsed + " ms (captured "
+                + capturedFrames + ", preprocessed " + processedFrames + ")");
+        return result;
+    }
+
+    private void captureLoop() {
+        try {
+            while (!stopped) {
+                Mat frame = capture.grab();
+                if (frame == null) {
+                    continue;
+                }
+                capturedFrames++;
+                // 前処理が追いつくまで待つ (古いフレームを溜めない)
+                while (!stopped && !frames.offer(frame, POLL_MILLIS, TimeUnit.MILLISECONDS)) {
+                    // retry
+                }
+                if (stopped) {
+                    frame.release();
+                }
+            }
+        } catch (InterruptedException e) {
+            // 停止
+        } catch (Exception e) {
+            MissionLog.e(TAG, "Error during capture: " + e);
+        }
+    }
+
+    private void preprocessLoop() {
+        try {
+            while (!stopped) {
+                Mat frame = frames.poll(POLL_MILLIS, TimeUnit.MILLISECONDS);
+                if (frame == null) {
+                    continue;
+                }
+                Mat crop = null;
+                try {
+                    crop = preprocess.process(frame);
+                    processedFrames++;
+                } catch (Exception e) {
+                    MissionLog.e(TAG, "Error during preprocess: " + e);
+                } finally {
+                    frame.release();
+                }
+                if (crop != null) {
+                    crops.put(crop);
+                    return;
+                }
+            }
+        } catch (InterruptedException e) {
+            // 停止
+        }
+    }
+
+    private void inferenceLoop() {
+        try {
+            Mat crop = null;
+            while (!stopped && crop == null) {
+                crop = crops.poll(POLL_MILLIS, TimeUnit.MILLISECONDS);
+            }
+            if (crop == null) {
+                return;
+            }
+            try {
+                result = inference.infer(crop);
+            } catch (Exception e) {
+                MissionLog.e(TAG, "Error during inference: " + e);
+            } finally {
+                crop.release();
+                finished.countDown();
+            }
+        } catch (InterruptedException e) {
+            // 停止
+        }
+    }
+
+    private static void drain(BlockingQueue<Mat> queue) {
+        Mat mat;
+        while ((mat = queue.poll()) != null) {
+            mat.release();
+        }
+    }
+}
@@ -0,0 +1,213 @@
+package jp.jaxa.iss.kibo.rpc.defaultapk;
+
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.core.Size;
+import org.opencv.imgproc.Imgproc;
+
+import org.tensorflow.lite.DataType;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+
+/**
+ * OpenCV Mat を TensorFlow Lite の入力テンソルへ直接書き込むクラス。
+ * Bitmap を経由せず、リサイズ用の Mat と入力バッファを使い回します。
+ *
+ * 出力は [1, height, width, channels] の RGB 順です。
+ * 1 チャンネルの画像は各チャンネルに同じ値を複製し、4 チャンネルの画像はアルファを捨てます。
+ * 量子化 (UINT8 / INT8) の入力には、正規化と量子化を済ませた 256 段の変換表で画素値を直接書き込みます。
+ * 複数枚をまとめて推論する場合は {@link #convert(Mat[], int)} で [batch, height, width, channels] に並べます。
+ */
+class TensorInputConverter {
+    private final int width;
+    private final int height;
+    private final int channels;
+    private final DataType dataType;
+    private final float mean;
+    private final float std;
+
+    private final ByteBuffer inputBuffer;
+    private final FloatBuffer floatView;
+    // バッチ用 (必要になった時点で作り、足りなくなったら作り直す)
+    private ByteBuffer batchBuffer;
+    private FloatBuffer batchFloatView;
+    private int batchCapacity = 0;
+    private final Size size;
+    private final Mat resized = new Mat();
+
+    private byte[] pixels = new byte[0];
+    private float[] floatValues;
+    private byte[] byteValues;
+    // 画素値 -> 量子化値
+    private byte[] quantizeTable;
+
+    /**
+     * FLOAT32 入力用。
+     *
+     * @param width    入力テンソルの幅。
+     * @param height   入力テンソルの高さ。
+     * @param channels 入力テンソルのチャンネル数 (通常 3)。
+     * @param dataType 入力テンソルの型 (FLOAT32, UINT8, INT8)。
+     * @param mean     正規化で引く値。
+     * @param std      正規化で割る値。
+     */
+    TensorInputConverter(int width, int height, int channels, DataType dataType, float mean, float std) {
+        this(width, height, channels, dataType, mean, std, 1f / 255, dataType == DataType.INT8 ? -128 : 0);
+    }
+
+    /**
+     * @param width     入力テンソルの幅。
+     * @param height    入力テンソルの高さ。
+     * @param channels  入力テンソルのチャンネル数 (通常 3)。
+     * @param dataType  入力テンソルの型 (FLOAT32, UINT8, INT8)。
+     * @param mean      正規化で引く値。
+     * @param std       正規化で割る値。
+     * @param scale     入力の量子化スケール (FLOAT32 では無視)。
+     * @param zeroPoint 入力の量子化ゼロ点 (FLOAT32 では無視)。
+     */
+    TensorInputConverter(int width, int height, int channels, DataType dataType, float mean, float std,
+            float scale, int zeroPoint) {
+        this.width = width;
+        this.height = height;
+        this.channels = channels;
+        this.dataType = dataType;
+        this.mean = mean;
+        this.std = std;
+        this.size = new Size(width, height);
+
+        int values = width * height * channels;
+        if (dataType == DataType.FLOAT32) {
+            inputBuffer = ByteBuffer.allocateDirect(values * 4).order(ByteOrder.nativeOrder());
+            floatView = inputBuffer.asFloatBuffer();
+            floatValues = new float[values];
+        } else if (dataType == DataType.UINT8 || dataType == DataType.INT8) {
+            inputBuffer = ByteBuffer.allocateDirect(values).order(ByteOrder.nativeOrder());
+            floatView = null;
+            byteValues = new byte[values];
+            quantizeTable = createQuantizeTable(dataType == DataType.INT8, scale, zeroPoint);
+        } else {
+            throw new IllegalArgumentException("unsupported input type: " + dataType);
+        }
+    }
+
+    /**
+     * 画像をリサイズして入力バッファへ書き込みます。
+     * 返すバッファは次の呼び出しで上書きされます。
+     *
+     * @param image CV_8UC1, CV_8UC3 (RGB), CV_8UC4 (RGBA) のいずれか。
+     * @return interpreter.run に渡す入力バッファ。
+     */
+    ByteBuffer convert(Mat image) {
+        inputBuffer.rewind();
+        if (floatView != null) {
+            floatView.rewind();
+            write(image, floatView, inputBuffer);
+        } else {
+            write(image, null, inputBuffer);
+            inputBuffer.rewind();
+        }
+        return inputBuffer;
+    }
+
+    /**
+     * images の先頭 batch 枚をリサイズして、1つの入力バッファに順に書き込みます。
+     * 返すバッファは次の呼び出しで上書きされます。
+     *
+     * @return batch 枚分の入力を持つバッファ。
+     */
+    ByteBuffer convert(Mat[] images, int batch) {
+        int bytes = width * height * channels * (floatView != null ? 4 : 1);
+        if (batch > batchCapacity) {
+            batchBuffer = ByteBuffer.allocateDirect(batch * bytes).order(ByteOrder.nativeOrder());
+            batchFloatView = floatView != null ? batchBuffer.asFloatBuffer() : null;
+            batchCapacity = batch;
+        }
+        batchBuffer.clear();
+        if (batchFloatView != null) {
+            batchFloatView.clear();
+        }
+        for (int i = 0; i < batch; i++) {
+            write(images[i], batchFloatView, batchBuffer);
+        }
+        batchBuffer.rewind();
+        batchBuffer.limit(batch * bytes);
+        return batchBuffer;
+    }
+
+    /**
+     * 1枚をリサイズし、floatTarget (FLOAT32) または byteTarget (量子化) の現在位置に書き込みます。
+     */
+    private void write(Mat image, FloatBuffer floatTarget, ByteBuffer byteTarget) {
+        if (image.depth() != CvType.CV_8U) {
+            throw new IllegalArgumentException("unsupported image type: " + CvType.typeToString(image.type()));
+        }
+
+        // Bitmap.createScaledBitmap(filter = false) と同じく、出力画素の中心に最も近い入力画素を取る。
+        // INTER_NEAREST は中心をずらさずに取るため、以前の経路と違う画素を選ぶ
+        Mat source = image;
+        if (image.cols() != width || image.rows() != height) {
+            Imgproc.resize(image, resized, size, 0, 0, Imgproc.INTER_NEAREST_EXACT);
+            source = resized;
+        } else if (!image.isContinuous()) {
+            image.copyTo(resized);
+            source = resized;
+        }
+
+        int srcChannels = source.channels();
+        int length = width * height * srcChannels;
+        if (pixels.length != length) {
+            pixels = new byte[length];
+        }
+        source.get(0, 0, pixels);
+
+        if (floatTarget != null) {
+            writeFloat(srcChannels);
+            floatTarget.put(floatValues);
+        } else {
+            writeByte(srcChannels);
+            byteTarget.put(byteValues);
+        }
+    }
+
+    private void writeFloat(int srcChannels) {
+        int dst = 0;
+        for (int src = 0; src < pixels.length; src += srcChannels) {
+            for (int c = 0; c < channels; c++) {
+                int v = pixels[src + (srcChannels == 1 ? 0 : c)] & 0xFF;
+                floatValues[dst++] = (v - mean) / std;
+            }
+        }
+    }
+
+    private void writeByte(int srcChannels) {
+        int dst = 0;
+        for (int src = 0; src < pixels.length; src += srcChannels) {
+            for (int c = 0; c < channels; c++) {
+                byteValues[dst++] = quantizeTable[pixels[src + (srcChannels == 1 ? 0 : c)] & 0xFF];
+            }
+        }
+    }
+
+    private byte[] createQuantizeTable(boolean signed, float scale, int zeroPoint) {
+        if (scale <= 0) {
+            throw new IllegalArgumentException("invalid quantization scale: " + scale);
+        }
+        int min = signed ? -128 : 0;
+        int max = signed ? 127 : 255;
+        byte[] table = new byte[256];
+        for (int v = 0; v < 256; v++) {
+            int q = Math.round((v - mean) / std / scale) + zeroPoint;
+            table[v] = (byte) Math.max(min, Math.min(max, q));
+        }
+        return table;
+    }
+
+    /**
+     * ネイティブメモリを解放します。
+     */
+    void release() {
+        resized.release();
+    }
+}
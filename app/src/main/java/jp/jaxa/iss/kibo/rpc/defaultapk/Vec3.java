@@ -0,0 +1,119 @@
+package jp.jaxa.iss.kibo.rpc.defaultapk;
+
+import gov.nasa.arc.astrobee.types.Point;
+
+/**
+ * 変更できる3次元ベクトル (double)。
+ * 演算は結果を this に書き込んで this を返すので、作業用のインスタンスを使い回せば計算中にオブジェクトを作りません。
+ * 引数に this を渡しても正しく計算します。Astrobee の {@link Point} との変換は API との境界でだけ行います。
+ */
+final class Vec3 {
+    double x;
+    double y;
+    double z;
+
+    Vec3() {
+    }
+
+    Vec3(double x, double y, double z) {
+        set(x, y, z);
+    }
+
+    Vec3 set(double x, double y, double z) {
+        this.x = x;
+        this.y = y;
+        this.z = z;
+        return this;
+    }
+
+    Vec3 set(Vec3 v) {
+        return set(v.x, v.y, v.z);
+    }
+
+    Vec3 set(Point p) {
+        return set(p.getX(), p.getY(), p.getZ());
+    }
+
+    /**
+     * this = a + b
+     */
+    Vec3 add(Vec3 a, Vec3 b) {
+        return set(a.x + b.x, a.y + b.y, a.z + b.z);
+    }
+
+    /**
+     * this = a - b
+     */
+    Vec3 sub(Vec3 a, Vec3 b) {
+        return set(a.x - b.x, a.y - b.y, a.z - b.z);
+    }
+
+    /**
+     * this = a + s * b
+     */
+    Vec3 addScaled(Vec3 a, double s, Vec3 b) {
+        return set(a.x + s * b.x, a.y + s * b.y, a.z + s * b.z);
+    }
+
+    /**
+     * this = s * a
+     */
+    Vec3 scale(double s, Vec3 a) {
+        return set(s * a.x, s * a.y, s * a.z);
+    }
+
+    /**
+     * this = -a
+     */
+    Vec3 negate(Vec3 a) {
+        return set(-a.x, -a.y, -a.z);
+    }
+
+    /**
+     * this = a / |a|。a が0ベクトルなら (0, 0, 0) になります。
+     */
+    Vec3 normalize(Vec3 a) {
+        double len = a.length();
+        return len == 0 ? set(0, 0, 0) : set(a.x / len, a.y / len, a.z / len);
+    }
+
+    /**
+     * this = (1 - t) * a + t * b
+     */
+    Vec3 lerp(Vec3 a, Vec3 b, double t) {
+        return set(a.x + t * (b.x - a.x), a.y + t * (b.y - a.y), a.z + t * (b.z - a.z));
+    }
+
+    double dot(Vec3 v) {
+        return x * v.x + y * v.y + z * v.z;
+    }
+
+    double length() {
+        return Math.sqrt(x * x + y * y + z * z);
+    }
+
+    static double distance(Vec3 a, Vec3 b) {
+        double dx = a.x - b.x, dy = a.y - b.y, dz = a.z - b.z;
+        return Math.sqrt(dx * dx + dy * dy + dz * dz);
+    }
+
+    /**
+     * 2つのベクトルのなす角 [rad]。どちらかが0ベクトルなら 0 を返します。
+     */
+    static double angle(Vec3 a, Vec3 b) {
+        double len = a.length() * b.length();
+        if (len == 0) {
+            return 0;
+        }
+        return Math.acos(Math.max(-1, Math.min(1, a.dot(b) / len)));
+    }
+
+    Point toPoint() {
+        return new Point(x, y, z);
+    }
+
+    @Override
+    public String toString() {
+        return "(" + x + ", " + y + ", " + z + ")";
+    }
+}
@@ -0,0 +1,305 @@
+package jp.jaxa.iss.kibo.rpc.defaultapk;
+
+import org.tensorflow.lite.DataType;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.util.Arrays;
+
+/**
+ * YOLO モデルの出力テンソルを後処理するクラス。
+ * 出力バッファと候補の配列を使い回し、推論ごとのオブジェクト生成を行いません。
+ *
+ * 出力テンソルはチャンネル優先 [1, numChannel, numElements] で、
+ * チャンネル 0-3 が (xCenter, yCenter, width, height)、4 以降が各クラスのスコアです。
+ *
+ * 量子化 (UINT8 / INT8) された出力はそのまま受け取り、スコアの比較と閾値判定は量子化値のまま行います。
+ * 逆量子化は閾値を超えたアンカーの値だけに行います。
+ *
+ * 複数枚をまとめて推論する場合は {@link #getOutputBuffer(int)} で [batch, numChannel, numElements] のバッファを受け取り、
+ * {@link #decode(int)} で1枚ずつ候補を取り出します。
+ */
+class YoloPostProcessor {
+    private static final int BOX_CHANNELS = 4;
+
+    private final int numChannel;
+    private final int numElements;
+    private final float scoreThreshold;
+
+    // 量子化パラメータ (FLOAT32 の場合は使わない)
+    private final DataType dataType;
+    private final float scale;
+    private final int zeroPoint;
+    // 閾値に相当する量子化値
+    private final int rawThreshold;
+
+    // interpreter.run の出力先 (使い回す。バッチが大きくなったときだけ作り直す)
+    private final int bytesPerValue;
+    private ByteBuffer outputBuffer;
+    private FloatBuffer output;
+    private int capacity = 1;
+
+    // アンカーごとの最大スコアとそのクラス (作業用)
+    private final float[] bestScores;
+    private final int[] bestRaw;
+    private final int[] bestClasses;
+
+    // 閾値を超えた候補 (並列配列)
+    private final int[] classIds;
+    private final float[] scores;
+    private final float[] x1s;
+    private final float[] y1s;
+    private final float[] x2s;
+    private final float[] y2s;
+    private int count = 0;
+
+    /**
+     * FLOAT32 出力用。
+     *
+     * @param numChannel     出力テンソルのチャンネル数 (4 + クラス数)。
+     * @param numElements    出力テンソルのアンカー数。
+     * @param scoreThreshold 候補として残す最小スコア。
+     */
+    YoloPostProcessor(int numChannel, int numElements, float scoreThreshold) {
+        this(numChannel, numElements, scoreThreshold, DataType.FLOAT32, 1f, 0);
+    }
+
+    /**
+     * @param numChannel     出力テンソルのチャンネル数 (4 + クラス数)。
+     * @param numElements    出力テンソルのアンカー数。
+     * @param scoreThreshold 候補として残す最小スコア。
+     * @param dataType       出力テンソルの型 (FLOAT32, UINT8, INT8)。
+     * @param scale          量子化のスケール (FLOAT32 では無視)。
+     * @param zeroPoint      量子化のゼロ点 (FLOAT32 では無視)。
+     */
+    YoloPostProcessor(int numChannel, int numElements, float scoreThreshold, DataType dataType, float scale,
+            int zeroPoint) {
+        if (numChannel <= BOX_CHANNELS || numElements <= 0) {
+            throw new IllegalArgumentException(
+                    "invalid output shape: " + numChannel + " * " + numElements);
+        }
+        this.numChannel = numChannel;
+        this.numElements = numElements;
+        this.scoreThreshold = scoreThreshold;
+        this.dataType = dataType;
+        this.scale = scale;
+        this.zeroPoint = zeroPoint;
+
+        if (dataType == DataType.FLOAT32) {
+            bytesPerValue = 4;
+            bestScores = new float[numElements];
+            bestRaw = null;
+            rawThreshold = 0;
+        } else if (dataType == DataType.UINT8 || dataType == DataType.INT8) {
+            if (scale <= 0) {
+                throw new IllegalArgumentException("invalid quantization scale: " + scale);
+            }
+            bytesPerValue = 1;
+            bestScores = null;
+            bestRaw = new int[numElements];
+            rawThreshold = rawThreshold(scoreThreshold, scale, zeroPoint);
+        } else {
+            throw new IllegalArgumentException("unsupported output type: " + dataType);
+        }
+        bestClasses = new int[numElements];
+        allocate(1);
+
+        classIds = new int[numElements];
+        scores = new float[numElements];
+        x1s = new float[numElements];
+        y1s = new float[numElements];
+        x2s = new float[numElements];
+        y2s = new float[numElements];
+    }
+
+    /**
+     * interpreter.run に渡す出力バッファを返します。
+     * 呼び出しのたびに先頭へ巻き戻します。
+     */
+    ByteBuffer getOutputBuffer() {
+        return getOutputBuffer(1);
+    }
+
+    /**
+     * batch 枚分の出力を受け取るバッファを返します。
+     * 呼び出しのたびに先頭へ巻き戻し、必要な大きさに制限します。
+     */
+    ByteBuffer getOutputBuffer(int batch) {
+        if (batch > capacity) {
+            allocate(batch);
+        }
+        outputBuffer.clear();
+        outputBuffer.limit(batch * numChannel * numElements * bytesPerValue);
+        return outputBuffer;
+    }
+
+    private void allocate(int batch) {
+        outputBuffer = ByteBuffer.allocateDirect(batch * numChannel * numElements * bytesPerValue)
+                .order(ByteOrder.nativeOrder());
+        output = dataType == DataType.FLOAT32 ? outputBuffer.asFloatBuffer() : null;
+        capacity = batch;
+    }
+
+    /**
+     * 出力バッファを読み取り、スコアが閾値以上のアンカーを候補配列に格納します。
+     *
+     * @return 候補の数。
+     */
+    int decode() {
+        return decode(0);
+    }
+
+    /**
+     * バッチの index 枚目の出力を読み取り、スコアが閾値以上のアンカーを候補配列に格納します。
+     * 候補配列は呼び出しのたびに上書きされます。
+     *
+     * @return 候補の数。
+     */
+    int decode(int index) {
+        int base = index * numChannel * numElements;
+        if (output == null) {
+            return decodeQuantized(base);
+        }
+        // チャンネル順に走査してメモリを連続的に読む
+        // 比較は ">" なので同点の場合は小さいクラス番号が残る
+        Arrays.fill(bestScores, -Float.MAX_VALUE);
+        Arrays.fill(bestClasses, -1);
+        for (int c = BOX_CHANNELS; c < numChannel; c++) {
+            int offset = base + c * numElements;
+            int classId = c - BOX_CHANNELS;
+            for (int i = 0; i < numElements; i++) {
+                float score = output.get(offset + i);
+                if (score > bestScores[i]) {
+                    bestScores[i] = score;
+                    bestClasses[i] = classId;
+                }
+            }
+        }
+
+        count = 0;
+        for (int i = 0; i < numElements; i++) {
+            if (bestScores[i] >= scoreThreshold) {
+                float xCenter = output.get(base + i);
+                float yCenter = output.get(base + i + numElements);
+                float width = output.get(base + i + numElements * 2);
+                float height = output.get(base + i + numElements * 3);
+
+                classIds[count] = bestClasses[i];
+                scores[count] = bestScores[i];
+                x1s[count] = xCenter - width / 2;
+                y1s[count] = yCenter - height / 2;
+                x2s[count] = xCenter + width / 2;
+                y2s[count] = yCenter + height / 2;
+                count++;
+            }
+        }
+        return count;
+    }
+
+    private int decodeQuantized(int base) {
+        boolean signed = dataType == DataType.INT8;
+        Arrays.fill(bestRaw, Integer.MIN_VALUE);
+        Arrays.fill(bestClasses, -1);
+        for (int c = BOX_CHANNELS; c < numChannel; c++) {
+            int offset = base + c * numElements;
+            int classId = c - BOX_CHANNELS;
+            for (int i = 0; i < numElements; i++) {
+                byte b = outputBuffer.get(offset + i);
+                int raw = signed ? b : b & 0xFF;
+                if (raw > bestRaw[i]) {
+                    bestRaw[i] = raw;
+                    bestClasses[i] = classId;
+                }
+            }
+        }
+
+        count = 0;
+        for (int i = 0; i < numElements; i++) {
+            if (bestRaw[i] < rawThreshold) {
+                continue;
+            }
+            float score = dequantize(bestRaw[i]);
+            if (score < scoreThreshold) {
+                continue;
+            }
+            float xCenter = dequantize(raw(base + i, signed));
+            float yCenter = dequantize(raw(base + i + numElements, signed));
+            float width = dequantize(raw(base + i + numElements * 2, signed));
+            float height = dequantize(raw(base + i + numElements * 3, signed));
+
+            classIds[count] = bestClasses[i];
+            scores[count] = score;
+            x1s[count] = xCenter - width / 2;
+            y1s[count] = yCenter - height / 2;
+            x2s[count] = xCenter + width / 2;
+            y2s[count] = yCenter + height / 2;
+            count++;
+        }
+        return count;
+    }
+
+    /**
+     * dequantize(q) >= scoreThreshold となる最小の q を返します。
+     * scoreThreshold / scale は float の丸めで境界の整数をわずかに超えることがあるため、
+     * 見積もった値の前後を逆量子化と同じ式で確かめ、閾値ちょうどの値を落とさないようにします。
+     */
+    private static int rawThreshold(float scoreThreshold, float scale, int zeroPoint) {
+        int q = (int) Math.ceil(scoreThreshold / scale + zeroPoint);
+        while ((q - 1 - zeroPoint) * scale >= scoreThreshold) {
+            q--;
+        }
+        while ((q - zeroPoint) * scale < scoreThreshold) {
+            q++;
+        }
+        return q;
+    }
+
+    private int raw(int index, boolean signed) {
+        byte b = outputBuffer.get(index);
+        return signed ? b : b & 0xFF;
+    }
+
+    private float dequantize(int raw) {
+        return (raw - zeroPoint) * scale;
+    }
+
+    /**
+     * 量子化出力でスコアの事前判定に使う閾値 (FLOAT32 では 0)。
+     */
+    int getRawThreshold() {
+        return rawThreshold;
+    }
+
+    int getCount() {
+        return count;
+    }
+
+    int getNumClasses() {
+        return numChannel - BOX_CHANNELS;
+    }
+
+    int[] getClassIds() {
+        return classIds;
+    }
+
+    float[] getScores() {
+        return scores;
+    }
+
+    float[] getX1() {
+        return x1s;
+    }
+
+    float[] getY1() {
+        return y1s;
+    }
+
+    float[] getX2() {
+        return x2s;
+    }
+
+    float[] getY2() {
+        return y2s;
+    }
+}
@@ -0,0 +1,107 @@
+package jp.jaxa.iss.kibo.rpc.defaultapk;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+/**
+ * {@link Mission} と同じパラメータの {@link AlignmentController} に、合成したエリアの方向の列を与えて確かめます。
+ */
+public class AlignmentControllerTest {
+    // 1フレームの間隔
+    private static final long FRAME_MILLIS = 300;
+    // 向き直したあとに残る誤差の割合 (移動の誤差)
+    private static final double RESIDUAL = 0.25;
+
+    @Test
+    public void convergingBearingsEndAligned() {
+        AlignmentController controller = controller();
+        long now = 0;
+        controller.start(now);
+        double error = 30;
+        AlignmentController.Action action = null;
+        while (!controller.isFinished(now) && controller.getFrames() < 4 * Mission.ALIGN_FRAMES) {
+            // ±0.5 度の揺れ
+            action = update(controller, error + (controller.getFrames() % 2 == 0 ? 0.5 : -0.5));
+            if (action == AlignmentController.Action.CORRECT) {
+                error *= RESIDUAL;
+                controller.corrected();
+            }
+            now += FRAME_MILLIS;
+        }
+        assertEquals(AlignmentController.Action.CONVERGED, action);
+        assertEquals(1, controller.getCorrections());
+        assertEquals(2 * Mission.ALIGN_FRAMES, controller.getFrames());
+        assertEquals(error, controller.getErrorDegrees(), 0.5);
+    }
+
+    @Test
+    public void noisyBearingsWaitForAgreement() {
+        AlignmentController controller = controller();
+        controller.start(0);
+        // 平滑化した方向から ALIGN_AGREEMENT_DEGREES より大きく揺れる間は判断しない
+        for (int i = 0; i < 10; i++) {
+            assertEquals(AlignmentController.Action.WAIT, update(controller, i % 2 == 0 ? 20 : 26));
+        }
+        // 見えなかったフレームでも数え直す
+        assertEquals(AlignmentController.Action.WAIT, update(controller, 20));
+        assertEquals(AlignmentController.Action.WAIT, update(controller, 21));
+        assertEquals(AlignmentController.Action.WAIT, controller.miss());
+        assertEquals(AlignmentController.Action.WAIT, update(controller, 20.5));
+        assertEquals(AlignmentController.Action.WAIT, update(controller, 21));
+        assertEquals(AlignmentController.Action.CORRECT, update(controller, 20));
+        assertEquals(20.5, controller.getErrorDegrees(), 1);
+    }
+
+    @Test
+    public void correctionsCapGivesUp() {
+        AlignmentController controller = controller();
+        long now = 0;
+        controller.start(now);
+        // 向き直しても誤差が減らない
+        AlignmentController.Action action = null;
+        while (!controller.isFinished(now)) {
+            action = update(controller, 40);
+            if (action == AlignmentController.Action.CORRECT) {
+                controller.corrected();
+            }
+            now += FRAME_MILLIS;
+        }
+        assertEquals(AlignmentController.Action.GIVE_UP, action);
+        assertEquals(Mission.ALIGN_MAX_CORRECTIONS, controller.getCorrections());
+        assertEquals((Mission.ALIGN_MAX_CORRECTIONS + 1) * Mission.ALIGN_FRAMES, controller.getFrames());
+    }
+
+    @Test
+    public void timeoutFinishesAlignment() {
+        AlignmentController controller = controller();
+        long start = 1000;
+        controller.start(start);
+        long now = start;
+        while (now < start + Mission.ALIGN_TIMEOUT_MILLIS) {
+            assertFalse(controller.isFinished(now));
+            controller.miss();
+            now += FRAME_MILLIS;
+        }
+        assertTrue(controller.isFinished(start + Mission.ALIGN_TIMEOUT_MILLIS));
+        assertEquals(AlignmentController.Action.TIMEOUT, controller.getState());
+        assertEquals(0, controller.getCorrections());
+    }
+
+    private static AlignmentController controller() {
+        return new AlignmentController(Mission.ALIGN_TOLERANCE_DEGREES, Mission.ALIGN_FRAMES,
+                Mission.ALIGN_SMOOTHING, Mission.ALIGN_AGREEMENT_DEGREES, Mission.ALIGN_MAX_CORRECTIONS,
+                Mission.ALIGN_TIMEOUT_MILLIS);
+    }
+
+    /**
+     * 正面 (x 軸) から degrees だけ、斜め (y と z の間) にずれた方向を与えます。
+     */
+    private static AlignmentController.Action update(AlignmentController controller, double degrees) {
+        double a = Math.toRadians(degrees);
+        double side = Math.sin(a) / Math.sqrt(2);
+        return controller.update(Math.cos(a), side, side);
+    }
+}
@@ -0,0 +1,97 @@
+package jp.jaxa.iss.kibo.rpc.defaultapk;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+/**
+ * {@link AreaVoteAggregator#offer} のテスト。見た目の似たフレームもそれぞれ1票として数え、
+ * キャッシュは推論を省くためだけに使います。
+ */
+public class AreaVoteAggregatorTest {
+    private static final int ID = 101;
+    // Mission と同じキャッシュ・安定の条件
+    private static final int CACHE_SIZE = 16;
+    private static final int CACHE_TOLERANCE = 4;
+    private static final int MIN_FRAMES = 3;
+    private static final double STABILITY = 0.99;
+    // クラス 0 がランドマーク、1 と 2 がトレジャー
+    private static final boolean[] LANDMARKS = { true, false, false };
+    private static final boolean[] TREASURES = { false, true, true };
+    private static final long VIEW = 0x5a5a_0f0f_3c3c_f0f0L;
+
+    @Test
+    public void similarCropsEachCountTowardStability() {
+        InferenceCache cache = new InferenceCache(CACHE_SIZE, CACHE_TOLERANCE);
+        AreaVoteAggregator aggregator = new AreaVoteAggregator(LANDMARKS.length);
+
+        assertTrue(aggregator.offer(ID, VIEW, cache));
+        Recognize.Result[] result = results(2, 1);
+        aggregator.add(result);
+        cache.put(ID, VIEW, result);
+        assertFalse(aggregator.isStable(MIN_FRAMES, STABILITY, LANDMARKS, TREASURES));
+
+        // 止まっている間の、ハッシュが数ビットだけ違うフレームは推論せずに1票ずつ数える
+        assertFalse(aggregator.offer(ID, VIEW ^ 0b11, cache));
+        assertFalse(aggregator.isStable(MIN_FRAMES, STABILITY, LANDMARKS, TREASURES));
+        assertFalse(aggregator.offer(ID, VIEW ^ 1L << 40, cache));
+        assertEquals(3, aggregator.getFrames());
+        assertTrue(aggregator.isStable(MIN_FRAMES, STABILITY, LANDMARKS, TREASURES));
+    }
+
+    @Test
+    public void sharpFramesOutvoteBlurryFirstFrame() {
+        InferenceCache cache = new InferenceCache(CACHE_SIZE, CACHE_TOLERANCE);
+        AreaVoteAggregator aggregator = new AreaVoteAggregator(LANDMARKS.length);
+
+        // ぼけた最初のフレームではトレジャーを見落とした
+        assertTrue(aggregator.offer(ID, VIEW, cache));
+        aggregator.add(results(2, 0));
+        // ハッシュの近い鮮明なフレームはまだキャッシュにない間に届き、推論に回る
+        long[] sharp = { VIEW ^ 0b1, VIEW ^ 0b10, VIEW ^ 0b100 };
+        for (long hash : sharp) {
+            assertTrue(aggregator.offer(ID, hash, cache));
+            aggregator.add(results(2, 1));
+        }
+        assertEquals(1 + sharp.length, aggregator.getFrames());
+        assertEquals(1, aggregator.best(TREASURES));
+    }
+
+    @Test
+    public void cachedResultFromEarlierStopCountsPerFrame() {
+        InferenceCache cache = new InferenceCache(CACHE_SIZE, CACHE_TOLERANCE);
+        // 前の停止点で推論した結果
+        cache.put(ID, VIEW, results(2, 1));
+
+        AreaVoteAggregator aggregator = new AreaVoteAggregator(LANDMARKS.length);
+        assertFalse(aggregator.offer(ID, VIEW ^ 1, cache));
+        assertFalse(aggregator.offer(ID, VIEW ^ 2, cache));
+        assertEquals(2, aggregator.getFrames());
+        // 別のマーカーの結果は使わない
+        assertTrue(new AreaVoteAggregator(LANDMARKS.length).offer(ID + 1, VIEW, cache));
+        // 見た目が違えば推論する
+        assertTrue(aggregator.offer(ID, ~VIEW, cache));
+        assertEquals(2, aggregator.getFrames());
+    }
+
+    @Test
+    public void disabledCacheOffersEveryFrame() {
+        InferenceCache cache = new InferenceCache(0, -1);
+        AreaVoteAggregator aggregator = new AreaVoteAggregator(LANDMARKS.length);
+        for (int f = 0; f < 5; f++) {
+            assertTrue(aggregator.offer(ID, VIEW, cache));
+            cache.put(ID, VIEW, results(2, 1));
+        }
+        assertEquals(0, aggregator.getFrames());
+    }
+
+    /**
+     * ランドマーク (クラス 0) が landmarks 個、トレジャー (クラス 1) が treasures 個の推論結果。
+     */
+    private static Recognize.Result[] results(int landmarks, int treasures) {
+        return new Recognize.Result[] { new Recognize.Result(landmarks, landmarks > 0 ? 0.9 : 0),
+                new Recognize.Result(treasures, treasures > 0 ? 0.8 : 0), new Recognize.Result() };
+    }
+}
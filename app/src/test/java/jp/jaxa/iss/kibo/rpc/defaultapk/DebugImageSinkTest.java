@@ -0,0 +1,203 @@
+package jp.jaxa.iss.kibo.rpc.defaultapk;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.BeforeClass;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.core.Scalar;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link DebugImageSink} のテスト。一時ディレクトリに PNG を書き出し、レベルによる絞り込み、
+ * 所有権を渡した画像の解放、キューが上限を超えたときの破棄、close の待ち時間を確かめます。
+ */
+public class DebugImageSinkTest {
+    private static final int SIDE = 8;
+    // 8x8 の 1 チャンネル画像 2枚分
+    private static final long BUDGET = 2 * SIDE * SIDE;
+    private static final long TIMEOUT_MILLIS = 5000;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @BeforeClass
+    public static void loadOpenCv() {
+        TestFixtures.loadOpenCv();
+    }
+
+    @Test
+    public void savesOnlyEnabledLevels() throws Exception {
+        File directory = folder.getRoot();
+        DebugImageSink sink = new DebugImageSink(new DebugImageSink.FileWriter(directory),
+                DebugImageSink.Level.SUMMARY, BUDGET, DebugImageSink.DropPolicy.DROP_NEWEST);
+        assertFalse(sink.isEnabled(DebugImageSink.Level.NONE));
+        assertTrue(sink.isEnabled(DebugImageSink.Level.SUMMARY));
+        assertFalse(sink.isEnabled(DebugImageSink.Level.DETAIL));
+
+        Mat image = image(1);
+        sink.save(image, "summary.png", DebugImageSink.Level.SUMMARY);
+        sink.save(image, "detail.png", DebugImageSink.Level.DETAIL);
+        sink.save(image, "none.png", DebugImageSink.Level.NONE);
+        // save は複製するので、呼び出し側の画像はそのまま使える
+        assertFalse(image.empty());
+        assertTrue(sink.flush(TIMEOUT_MILLIS));
+        assertEquals(Arrays.asList("summary.png"), names(directory));
+
+        sink.setLevel(DebugImageSink.Level.DETAIL);
+        sink.save(image, "detail.png", DebugImageSink.Level.DETAIL);
+        sink.close(TIMEOUT_MILLIS);
+        assertEquals(Arrays.asList("detail.png", "summary.png"), names(directory));
+        assertEquals(2, sink.getWritten());
+        assertEquals(0, sink.getDropped());
+        image.release();
+    }
+
+    @Test
+    public void saveOwnedReleasesImage() throws Exception {
+        File directory = folder.getRoot();
+        DebugImageSink sink = new DebugImageSink(new DebugImageSink.FileWriter(directory),
+                DebugImageSink.Level.SUMMARY, BUDGET, DebugImageSink.DropPolicy.DROP_NEWEST);
+
+        // 保存しないレベルでもすぐに解放する
+        Mat skipped = image(1);
+        sink.saveOwned(skipped, "detail.png", DebugImageSink.Level.DETAIL);
+        assertTrue(skipped.empty());
+
+        Mat owned = image(2);
+        sink.saveOwned(owned, "owned.png", DebugImageSink.Level.SUMMARY);
+        assertTrue(sink.flush(TIMEOUT_MILLIS));
+        assertTrue(owned.empty());
+        assertEquals(Arrays.asList("owned.png"), names(directory));
+        sink.close(TIMEOUT_MILLIS);
+    }
+
+    @Test
+    public void dropsNewestWhenFull() throws Exception {
+        File directory = folder.getRoot();
+        BlockingWriter writer = new BlockingWriter(directory);
+        DebugImageSink sink = new DebugImageSink(writer, DebugImageSink.Level.DETAIL, BUDGET,
+                DebugImageSink.DropPolicy.DROP_NEWEST);
+        fill(sink, writer);
+
+        writer.release();
+        assertTrue(sink.flush(TIMEOUT_MILLIS));
+        assertEquals(Arrays.asList("0.png", "1.png", "2.png"), names(directory));
+        assertEquals(3, sink.getWritten());
+        assertEquals(1, sink.getDropped());
+        sink.close(TIMEOUT_MILLIS);
+    }
+
+    @Test
+    public void dropsOldestWhenFull() throws Exception {
+        File directory = folder.getRoot();
+        BlockingWriter writer = new BlockingWriter(directory);
+        DebugImageSink sink = new DebugImageSink(writer, DebugImageSink.Level.DETAIL, BUDGET,
+                DebugImageSink.DropPolicy.DROP_OLDEST);
+        fill(sink, writer);
+
+        writer.release();
+        assertTrue(sink.flush(TIMEOUT_MILLIS));
+        assertEquals(Arrays.asList("0.png", "2.png", "3.png"), names(directory));
+        assertEquals(1, sink.getDropped());
+        sink.close(TIMEOUT_MILLIS);
+    }
+
+    @Test
+    public void closeGivesUpAfterTimeoutAndReleasesQueuedImages() throws Exception {
+        File directory = folder.getRoot();
+        BlockingWriter writer = new BlockingWriter(directory);
+        DebugImageSink sink = new DebugImageSink(writer, DebugImageSink.Level.DETAIL, BUDGET,
+                DebugImageSink.DropPolicy.DROP_NEWEST);
+        sink.saveOwned(image(0), "0.png", DebugImageSink.Level.DETAIL);
+        assertTrue(writer.awaitWriting());
+        Mat queued = image(1);
+        sink.saveOwned(queued, "1.png", DebugImageSink.Level.DETAIL);
+
+        // 保存が終わらなくても、待ち時間が過ぎたら戻る
+        long start = System.nanoTime();
+        sink.close(100);
+        long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        assertTrue(elapsed + " ms", elapsed >= 100 && elapsed < TIMEOUT_MILLIS);
+        assertTrue(queued.empty());
+
+        // 閉じたあとの画像は保存せずに解放する
+        Mat late = image(2);
+        sink.saveOwned(late, "2.png", DebugImageSink.Level.DETAIL);
+        assertTrue(late.empty());
+
+        writer.release();
+        assertTrue(writer.awaitWritten());
+        assertEquals(Arrays.asList("0.png"), names(directory));
+    }
+
+    /**
+     * 1枚目の保存中に3枚を積みます。上限は2枚分なので、1枚が捨てられます。
+     */
+    private static void fill(DebugImageSink sink, BlockingWriter writer) throws InterruptedException {
+        sink.saveOwned(image(0), "0.png", DebugImageSink.Level.DETAIL);
+        assertTrue(writer.awaitWriting());
+        for (int i = 1; i <= 3; i++) {
+            sink.saveOwned(image(i), i + ".png", DebugImageSink.Level.DETAIL);
+        }
+        assertEquals(1, sink.getDropped());
+    }
+
+    private static Mat image(int value) {
+        return new Mat(SIDE, SIDE, CvType.CV_8UC1, new Scalar(value * 40));
+    }
+
+    private static List<String> names(File directory) {
+        String[] names = directory.list();
+        Arrays.sort(names);
+        return Arrays.asList(names);
+    }
+
+    /**
+     * {@link #release} されるまで保存を止めておく Writer。
+     */
+    private static class BlockingWriter extends DebugImageSink.FileWriter {
+        private final CountDownLatch writing = new CountDownLatch(1);
+        private final CountDownLatch gate = new CountDownLatch(1);
+        private final CountDownLatch written = new CountDownLatch(1);
+
+        BlockingWriter(File directory) {
+            super(directory);
+        }
+
+        @Override
+        public void write(Mat image, String name) {
+            writing.countDown();
+            try {
+                gate.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+            super.write(image, name);
+            written.countDown();
+        }
+
+        boolean awaitWriting() throws InterruptedException {
+            return writing.await(TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+        }
+
+        boolean awaitWritten() throws InterruptedException {
+            return written.await(TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+        }
+
+        void release() {
+            gate.countDown();
+        }
+    }
+}
@@ -0,0 +1,137 @@
+package jp.jaxa.iss.kibo.rpc.defaultapk;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.opencv.core.Core;
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.core.Size;
+import org.opencv.imgproc.Imgproc;
+
+/**
+ * {@link FrameQualityGate} のテスト。NavCam と同じ大きさの合成画像 (鮮明・ぼけ・暗い・ずれた) で判定を確かめます。
+ */
+public class FrameQualityGateTest {
+    private static final int WIDTH = 1280;
+    private static final int HEIGHT = 960;
+    // Mission と同じしきい値
+    private static final double MIN_SHARPNESS = 20;
+    private static final double MIN_SHARPNESS_RATIO = 0.5;
+    private static final double MIN_CONTRAST = 20;
+    private static final double MAX_MOTION = 0.15;
+
+    @BeforeClass
+    public static void loadOpenCv() {
+        TestFixtures.loadOpenCv();
+    }
+
+    @Test
+    public void firstFrameAfterResetIsSettling() {
+        FrameQualityGate gate = gate();
+        Mat scene = scene(1);
+        FrameQualityGate.Score first = gate.evaluate(scene);
+        assertEquals("settling", first.rejection);
+        assertTrue(Double.isNaN(first.motion));
+        assertAccepted(gate.evaluate(scene));
+
+        // 視点が変わったら、また動きが分かるまで待つ
+        gate.reset();
+        assertEquals("settling", gate.evaluate(scene).rejection);
+        assertAccepted(gate.evaluate(scene));
+    }
+
+    @Test
+    public void blurredFrameIsRejected() {
+        FrameQualityGate gate = settled(scene(2));
+        Mat blurred = new Mat();
+        Imgproc.GaussianBlur(scene(2), blurred, new Size(0, 0), 4);
+        // ピントが少し外れた程度のぼけ (動きの判定は通る)
+        assertEquals("blur", gate.evaluate(blurred).rejection);
+    }
+
+    @Test
+    public void darkFrameIsRejected() {
+        FrameQualityGate gate = settled(scene(3));
+        Mat dark = new Mat();
+        scene(3).convertTo(dark, -1, 0.05, 0);
+        assertEquals("exposure", gate.evaluate(dark).rejection);
+    }
+
+    @Test
+    public void shiftedFrameIsRejected() {
+        Mat scene = scene(4);
+        FrameQualityGate gate = settled(scene);
+        assertEquals("motion", gate.evaluate(shifted(scene, 64)).rejection);
+    }
+
+    @Test
+    public void rejectedFramesDoNotRaiseSharpnessReference() {
+        Mat scene = scene(5);
+        FrameQualityGate gate = gate();
+        gate.evaluate(scene);
+        FrameQualityGate.Score accepted = gate.evaluate(scene);
+        assertAccepted(accepted);
+        // ノイズだらけのフレームは、ラプラシアンの分散が鮮明なフレームの2倍を超えるが、動きで捨てる
+        Mat noise = new Mat(HEIGHT, WIDTH, CvType.CV_8UC1);
+        Core.randu(noise, 0, 256);
+        FrameQualityGate.Score noisy = gate.evaluate(noise);
+        assertEquals("motion", noisy.rejection);
+        assertTrue(noisy.toString(), noisy.sharpness > accepted.sharpness / MIN_SHARPNESS_RATIO);
+
+        // ノイズの次のフレームはまだ動きで捨てるが、止まった後の鮮明なフレームはノイズを基準にして捨てられない
+        assertEquals("motion", gate.evaluate(scene).rejection);
+        FrameQualityGate.Score after = gate.evaluate(scene);
+        assertAccepted(after);
+        assertEquals(accepted.maxSharpness, after.maxSharpness, 1e-9);
+    }
+
+    private static void assertAccepted(FrameQualityGate.Score score) {
+        assertNull(score.toString(), score.rejection);
+    }
+
+    private static FrameQualityGate gate() {
+        return new FrameQualityGate(MIN_SHARPNESS, MIN_SHARPNESS_RATIO, MIN_CONTRAST, MAX_MOTION);
+    }
+
+    /**
+     * 最初のフレームを通し、scene を受け入れた状態のゲート。
+     */
+    private static FrameQualityGate settled(Mat scene) {
+        FrameQualityGate gate = gate();
+        gate.evaluate(scene);
+        assertAccepted(gate.evaluate(scene));
+        return gate;
+    }
+
+    /**
+     * 32 画素四方のブロックが並ぶ、はっきりした模様のフレーム。
+     */
+    private static Mat scene(int seed) {
+        Core.setRNGSeed(seed);
+        Mat blocks = new Mat(HEIGHT / 32, WIDTH / 32, CvType.CV_8UC1);
+        Core.randu(blocks, 0, 256);
+        Mat scene = new Mat();
+        Imgproc.resize(blocks, scene, new Size(WIDTH, HEIGHT), 0, 0, Imgproc.INTER_NEAREST);
+        return scene;
+    }
+
+    /**
+     * 右へ dx 画素ずらしたフレーム (空いた左端は端の画素で埋める)。
+     */
+    private static Mat shifted(Mat scene, int dx) {
+        Mat out = new Mat();
+        Imgproc.warpAffine(scene, out, translation(dx), scene.size(), Imgproc.INTER_NEAREST,
+                Core.BORDER_REPLICATE);
+        return out;
+    }
+
+    private static Mat translation(int dx) {
+        Mat m = new Mat(2, 3, CvType.CV_64F);
+        m.put(0, 0, 1, 0, dx, 0, 1, 0);
+        return m;
+    }
+}
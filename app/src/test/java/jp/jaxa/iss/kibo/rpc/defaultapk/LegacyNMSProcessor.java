@@ -0,0 +1,77 @@
+package jp.jaxa.iss.kibo.rpc.defaultapk;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * 以前の NMS (Detection のリストを毎回ソートし、先頭から取り除く実装)。
+ * テストと NmsBenchmark (benchmark モジュール) で、現在の {@link NMSProcessor} と比べるための基準です。
+ */
+class LegacyNMSProcessor {
+    static class Detection {
+        final int classId;
+        final float confidence;
+        final float x1, y1, x2, y2;
+
+        Detection(int classId, float confidence, float x1, float y1, float x2, float y2) {
+            this.classId = classId;
+            this.confidence = confidence;
+            this.x1 = x1;
+            this.y1 = y1;
+            this.x2 = x2;
+            this.y2 = y2;
+        }
+    }
+
+    static List<Detection> nonMaxSuppression(List<Detection> detections, float iouThreshold) {
+        List<Detection> sortedDetections = new ArrayList<Detection>(detections);
+        Collections.sort(sortedDetections, new Comparator<Detection>() {
+            @Override
+            public int compare(Detection d1, Detection d2) {
+                if (d2.confidence > d1.confidence)
+                    return 1;
+                else if (d2.confidence < d1.confidence)
+                    return -1;
+                else
+                    return 0;
+            }
+        });
+
+        List<Detection> result = new ArrayList<Detection>();
+        while (!sortedDetections.isEmpty()) {
+            Detection best = sortedDetections.remove(0);
+            result.add(best);
+
+            Iterator<Detection> it = sortedDetections.iterator();
+            while (it.hasNext()) {
+                Detection other = it.next();
+                if (iou(best, other) > iouThreshold) {
+                    it.remove();
+                }
+            }
+        }
+        return result;
+    }
+
+    private static float iou(Detection d1, Detection d2) {
+        float x1 = Math.max(d1.x1, d2.x1);
+        float y1 = Math.max(d1.y1, d2.y1);
+        float x2 = Math.min(d1.x2, d2.x2);
+        float y2 = Math.min(d1.y2, d2.y2);
+
+        float intersectionWidth = x2 - x1;
+        float intersectionHeight = y2 - y1;
+        float intersectionArea = 0;
+        if (intersectionWidth > 0 && intersectionHeight > 0) {
+            intersectionArea = intersectionWidth * intersectionHeight;
+        }
+
+        float area1 = (d1.x2 - d1.x1) * (d1.y2 - d1.y1);
+        float area2 = (d2.x2 - d2.x1) * (d2.y2 - d2.y1);
+
+        return intersectionArea / (area1 + area2 - intersectionArea);
+    }
+}
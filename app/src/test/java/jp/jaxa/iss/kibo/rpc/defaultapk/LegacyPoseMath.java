@@ -0,0 +1,133 @@
+package jp.jaxa.iss.kibo.rpc.defaultapk;
+
+import gov.nasa.arc.astrobee.types.Point;
+import gov.nasa.arc.astrobee.types.Quaternion;
+
+/**
+ * 以前の姿勢計算 (呼び出しごとに Point / Quaternion を作る実装)。
+ * テストと PoseMathBenchmark (benchmark モジュール) で、{@link Vec3} / {@link Quat} / {@link Pose} と比べるための基準です。
+ */
+final class LegacyPoseMath {
+    private LegacyPoseMath() {
+    }
+
+    static Point PAdd(Point p1, Point p2) {
+        return new Point(p1.getX() + p2.getX(), p1.getY() + p2.getY(), p1.getZ() + p2.getZ());
+    }
+
+    static Point PInv(Point p1) {
+        return new Point(-p1.getX(), -p1.getY(), -p1.getZ());
+    }
+
+    static double PLen(Point p1) {
+        return Math.sqrt(p1.getX() * p1.getX() + p1.getY() * p1.getY() + p1.getZ() * p1.getZ());
+    }
+
+    static Point PNormalize(Point p1) {
+        double len = PLen(p1);
+        return new Point(p1.getX() / len, p1.getY() / len, p1.getZ() / len);
+    }
+
+    static Point PScalarMul(double s, Point p) {
+        return new Point(s * p.getX(), s * p.getY(), s * p.getZ());
+    }
+
+    static Quaternion QMul(Quaternion q1, Quaternion q2) {
+        float x1 = q1.getX(), y1 = q1.getY(), z1 = q1.getZ(), w1 = q1.getW();
+        float x2 = q2.getX(), y2 = q2.getY(), z2 = q2.getZ(), w2 = q2.getW();
+
+        float x = w1 * x2 + x1 * w2 + y1 * z2 - z1 * y2;
+        float y = w1 * y2 - x1 * z2 + y1 * w2 + z1 * x2;
+        float z = w1 * z2 + x1 * y2 - y1 * x2 + z1 * w2;
+        float w = w1 * w2 - x1 * x2 - y1 * y2 - z1 * z2;
+
+        return new Quaternion(x, y, z, w);
+    }
+
+    /**
+     * X+方向 = (1,0,0) を、与えられた単位ベクトル v の方向に向く回転を表すクォータニオンを返す。
+     * v は Point クラスで、getX(), getY(), getZ() を持つものとする。
+     */
+    static Quaternion quaternionFromXDirection(Point v) {
+        final double EPS = 1e-6;
+
+        // 入力ベクトル v を正規化
+        double vx = v.getX();
+        double vy = v.getY();
+        double vz = v.getZ();
+        double len = Math.sqrt(vx * vx + vy * vy + vz * vz);
+        if (len < EPS) {
+            // ゼロベクトルが来たらとりあえず回転なしを返す
+            return new Quaternion(0, 0, 0, 1);
+        }
+        vx /= len;
+        vy /= len;
+        vz /= len;
+
+        // X 軸（1,0,0）との内積
+        double dot = 1.0 * vx + 0.0 * vy + 0.0 * vz;
+
+        // (1,0,0) と v が反対方向にほぼ一致している場合
+        if (dot < -1.0 + EPS) {
+            // 180度回転：X→-X, ここでは Y 軸まわりを例に取る (0,1,0) 軸で回転
+            return new Quaternion(0, 1, 0, 0);
+        }
+
+        // (1,0,0) と v がほぼ同じ方向の場合 → 回転なし
+        if (dot > 1.0 - EPS) {
+            return new Quaternion(0, 0, 0, 1);
+        }
+
+        // 回転軸 = X × v
+        double ax = 0.0 * vz - 0.0 * vy; // = 0 - 0 = 0
+        double ay = 0.0 * vx - 1.0 * vz; // = -vz
+        double az = 1.0 * vy - 0.0 * vx; // = vy
+
+        // 正規化
+        double axisLen = Math.sqrt(ax * ax + ay * ay + az * az);
+        ax /= axisLen;
+        ay /= axisLen;
+        az /= axisLen;
+
+        // 回転角度
+        double angle = Math.acos(dot);
+
+        double half = angle / 2.0;
+        double s = Math.sin(half);
+        double w = Math.cos(half);
+        double x = ax * s;
+        double y = ay * s;
+        double z = az * s;
+
+        return new Quaternion((float) x, (float) y, (float) z, (float) w);
+    }
+
+    static Point applyQuaternion(Quaternion q, Point v) {
+        double x = q.getX();
+        double y = q.getY();
+        double z = q.getZ();
+        double w = q.getW();
+
+        double vx = v.getX();
+        double vy = v.getY();
+        double vz = v.getZ();
+
+        // q * vq (v をクォータニオン (vx,vy,vz,0) として掛け合わせ)
+        double qv_x = w * vx + y * vz - z * vy;
+        double qv_y = w * vy + z * vx - x * vz;
+        double qv_z = w * vz + x * vy - y * vx;
+        double qv_w = -x * vx - y * vy - z * vz;
+
+        // (q * vq) * q_conj
+        // q_conj = (-x, -y, -z, w)
+        double rx = qv_w * (-x) + qv_x * w + qv_y * (-z) - qv_z * (-y);
+        double ry = qv_w * (-y) + qv_y * w + qv_z * (-x) - qv_x * (-z);
+        double rz = qv_w * (-z) + qv_z * w + qv_x * (-y) - qv_y * (-x);
+
+        return new Point(rx, ry, rz);
+    }
+
+    static Quaternion inverseQuaternion(Quaternion q) {
+        return new Quaternion(-q.getX(), -q.getY(), -q.getZ(), q.getW());
+    }
+}
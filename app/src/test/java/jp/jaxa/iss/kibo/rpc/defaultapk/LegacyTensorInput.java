@@ -0,0 +1,58 @@
+package jp.jaxa.iss.kibo.rpc.defaultapk;
+
+import org.opencv.core.Mat;
+
+/**
+ * 以前の Recognize.detectObjects の入力の作り方を、Android を使わずに再現したもの。{@link TensorInputConverter} と比べるための基準です。
+ *
+ * <pre>
+ * Utils.matToBitmap(imageMat, bitmap);                                  // ARGB_8888 (グレースケールは RGB に複製)
+ * Bitmap resized = Bitmap.createScaledBitmap(bitmap, w, h, false);      // 最近傍
+ * TensorImage tensorImage = TensorImage.fromBitmap(resized);            // RGB (UINT8)
+ * imageProcessor.process(tensorImage).getBuffer();                      // NormalizeOp(0, 255), CastOp(FLOAT32)
+ * </pre>
+ *
+ * createScaledBitmap (filter = false) は出力画素の中心を入力に写し、その画素を取ります。
+ * Skia は固定小数点の座標を 1 ULP だけ小さくしてから切り捨てるので、ちょうど境界に来たとき (2 倍の縮小など) は
+ * 小さい方の画素になります (入力の x = (出力の x + 0.5) * 入力の幅 / 出力の幅 を超えない最大の整数で、等しい場合は 1 引く)。
+ * 実機の Bitmap と一致することは androidTest の TensorInputConverterInstrumentedTest で確かめます。
+ */
+final class LegacyTensorInput {
+    private LegacyTensorInput() {
+    }
+
+    /**
+     * @param image CV_8UC1, CV_8UC3 (RGB), CV_8UC4 (RGBA) のいずれか。
+     * @return [height, width, 3] の RGB 順の float 値。
+     */
+    static float[] convert(Mat image, int width, int height, float mean, float std) {
+        int cols = image.cols();
+        int rows = image.rows();
+        int channels = image.channels();
+        byte[] pixels = new byte[cols * rows * channels];
+        Mat continuous = image.isContinuous() ? image : image.clone();
+        continuous.get(0, 0, pixels);
+
+        float[] values = new float[width * height * 3];
+        int dst = 0;
+        for (int y = 0; y < height; y++) {
+            int sy = sample(y, rows, height);
+            for (int x = 0; x < width; x++) {
+                int sx = sample(x, cols, width);
+                int src = (sy * cols + sx) * channels;
+                for (int c = 0; c < 3; c++) {
+                    int v = pixels[src + (channels == 1 ? 0 : c)] & 0xFF;
+                    values[dst++] = (v - mean) / std;
+                }
+            }
+        }
+        return values;
+    }
+
+    private static int sample(int dst, int srcSize, int dstSize) {
+        // (dst + 0.5) * srcSize / dstSize より真に小さい最大の整数
+        long numerator = (2L * dst + 1) * srcSize;
+        long denominator = 2L * dstSize;
+        return (int) Math.min(srcSize - 1, (numerator - 1) / denominator);
+    }
+}
@@ -0,0 +1,43 @@
+package jp.jaxa.iss.kibo.rpc.defaultapk;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 以前の Recognize.detectObjects の後処理 (TensorBuffer.getFloatArray() の配列からアンカーごとに Detection を作る実装)。
+ * 8400 アンカー・15 チャンネルの固定の形を前提にしています。{@link YoloPostProcessor} と比べるための基準です。
+ */
+final class LegacyYoloDecoder {
+    private LegacyYoloDecoder() {
+    }
+
+    static List<LegacyNMSProcessor.Detection> decode(float[] array) {
+        List<LegacyNMSProcessor.Detection> detections = new ArrayList<>();
+        for (int i = 0; i < 8400; i++) {
+            // クラススコアの最大値とそのインデックスを取得
+            int classId = -1;
+            float maxScore = -Float.MAX_VALUE;
+            for (int j = 4; j < 15; j++) {
+                if (array[i + 8400 * j] > maxScore) {
+                    maxScore = array[i + 8400 * j];
+                    classId = j - 4;
+                }
+            }
+
+            if (maxScore >= 0.25f) {
+                float xCenter = array[i + 8400 * 0];
+                float yCenter = array[i + 8400 * 1];
+                float width = array[i + 8400 * 2];
+                float height = array[i + 8400 * 3];
+
+                float x1 = xCenter - width / 2;
+                float y1 = yCenter - height / 2;
+                float x2 = xCenter + width / 2;
+                float y2 = yCenter + height / 2;
+
+                detections.add(new LegacyNMSProcessor.Detection(classId, maxScore, x1, y1, x2, y2));
+            }
+        }
+        return detections;
+    }
+}
@@ -0,0 +1,152 @@
+package jp.jaxa.iss.kibo.rpc.defaultapk;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * {@link NMSProcessor} のテスト。クラスを区別しない NMS は以前の実装 ({@link LegacyNMSProcessor}) と同じ結果を返し、
+ * 上限を指定しなければ検出数は変わりません。
+ */
+public class NMSProcessorTest {
+    private static final float IOU_THRESHOLD = 0.7F;
+    private static final int OBJECTS = 12;
+
+    @Test
+    public void classAgnosticMatchesLegacy() {
+        for (int count : new int[] { 100, 1000, 8000 }) {
+            Candidates c = new Candidates(count, OBJECTS, count);
+            List<LegacyNMSProcessor.Detection> expected = LegacyNMSProcessor.nonMaxSuppression(c.toDetections(),
+                    IOU_THRESHOLD);
+            NMSProcessor nms = new NMSProcessor(16);
+            int kept = nms.nonMaxSuppression(c.classIds, c.scores, c.x1, c.y1, c.x2, c.y2, count, IOU_THRESHOLD,
+                    false, 0);
+
+            assertEquals(count + " candidates", expected.size(), kept);
+            for (int i = 0; i < kept; i++) {
+                int k = nms.getKeep()[i];
+                LegacyNMSProcessor.Detection d = expected.get(i);
+                assertEquals(d.classId, c.classIds[k]);
+                assertEquals(d.confidence, c.scores[k], 0);
+                assertEquals(d.x1, c.x1[k], 0);
+                assertEquals(d.y1, c.y1[k], 0);
+            }
+        }
+    }
+
+    @Test
+    public void maxDetectionsKeepsHighestScores() {
+        Candidates c = new Candidates(1000, OBJECTS, 1);
+        NMSProcessor nms = new NMSProcessor(c.classIds.length);
+        int all = nms.nonMaxSuppression(c.classIds, c.scores, c.x1, c.y1, c.x2, c.y2, 1000, IOU_THRESHOLD, false,
+                0);
+        int[] unlimited = nms.getKeep().clone();
+        assertTrue(all > 3);
+
+        int kept = nms.nonMaxSuppression(c.classIds, c.scores, c.x1, c.y1, c.x2, c.y2, 1000, IOU_THRESHOLD,
+                false, 3);
+        assertEquals(3, kept);
+        for (int i = 0; i < kept; i++) {
+            assertEquals(unlimited[i], nms.getKeep()[i]);
+        }
+        // 上限が検出数以上なら上限なしと同じ
+        assertEquals(all, nms.nonMaxSuppression(c.classIds, c.scores, c.x1, c.y1, c.x2, c.y2, 1000,
+                IOU_THRESHOLD, false, all));
+    }
+
+    @Test
+    public void classAwareKeepsOverlappingBoxesOfOtherClasses() {
+        int[] classIds = { 0, 1, 0 };
+        float[] scores = { 0.9f, 0.8f, 0.7f };
+        float[] x1 = { 0, 1, 2 };
+        float[] y1 = { 0, 1, 2 };
+        float[] x2 = { 100, 101, 102 };
+        float[] y2 = { 100, 101, 102 };
+        NMSProcessor nms = new NMSProcessor(3);
+
+        assertEquals(1, nms.nonMaxSuppression(classIds, scores, x1, y1, x2, y2, 3, IOU_THRESHOLD, false, 0));
+        assertEquals(0, nms.getKeep()[0]);
+
+        assertEquals(2, nms.nonMaxSuppression(classIds, scores, x1, y1, x2, y2, 3, IOU_THRESHOLD, true, 0));
+        assertEquals(0, nms.getKeep()[0]);
+        assertEquals(1, nms.getKeep()[1]);
+    }
+
+    @Test
+    public void classAwareSuppressesOnlyWithinClass() {
+        Candidates c = new Candidates(1000, OBJECTS, 2);
+        NMSProcessor nms = new NMSProcessor(16);
+        int kept = nms.nonMaxSuppression(c.classIds, c.scores, c.x1, c.y1, c.x2, c.y2, 1000, IOU_THRESHOLD, true,
+                0);
+        for (int i = 0; i < kept; i++) {
+            for (int j = i + 1; j < kept; j++) {
+                int a = nms.getKeep()[i];
+                int b = nms.getKeep()[j];
+                assertFalse(c.classIds[a] == c.classIds[b] && iou(c, a, b) > IOU_THRESHOLD);
+                assertTrue(c.scores[a] >= c.scores[b]);
+            }
+        }
+    }
+
+    private static float iou(Candidates c, int a, int b) {
+        float w = Math.min(c.x2[a], c.x2[b]) - Math.max(c.x1[a], c.x1[b]);
+        float h = Math.min(c.y2[a], c.y2[b]) - Math.max(c.y1[a], c.y1[b]);
+        float intersection = w > 0 && h > 0 ? w * h : 0;
+        float areaA = (c.x2[a] - c.x1[a]) * (c.y2[a] - c.y1[a]);
+        float areaB = (c.x2[b] - c.x1[b]) * (c.y2[b] - c.y1[b]);
+        return intersection / (areaA + areaB - intersection);
+    }
+
+    /**
+     * 少数の物体のまわりに、少しずつずれた候補が集まるようにした候補の並列配列。同点のスコアも含みます。
+     */
+    private static class Candidates {
+        final int[] classIds;
+        final float[] scores;
+        final float[] x1, y1, x2, y2;
+
+        Candidates(int count, int objects, long seed) {
+            Random random = new Random(seed);
+            classIds = new int[count];
+            scores = new float[count];
+            x1 = new float[count];
+            y1 = new float[count];
+            x2 = new float[count];
+            y2 = new float[count];
+            float[] centers = new float[objects * 3];
+            for (int o = 0; o < objects; o++) {
+                centers[o * 3] = 60 + random.nextFloat() * 520;
+                centers[o * 3 + 1] = 60 + random.nextFloat() * 520;
+                centers[o * 3 + 2] = 30 + random.nextFloat() * 60;
+            }
+            for (int i = 0; i < count; i++) {
+                int o = random.nextInt(objects);
+                float cx = centers[o * 3] + (float) random.nextGaussian() * 6;
+                float cy = centers[o * 3 + 1] + (float) random.nextGaussian() * 6;
+                float half = centers[o * 3 + 2] * (0.9f + random.nextFloat() * 0.2f) / 2;
+                classIds[i] = random.nextInt(4) == 0 ? random.nextInt(11) : o % 11;
+                // 100 段階に丸めて同点を作る
+                scores[i] = 0.25f + Math.round(random.nextFloat() * 100) / 100f * 0.75f;
+                x1[i] = cx - half;
+                y1[i] = cy - half;
+                x2[i] = cx + half;
+                y2[i] = cy + half;
+            }
+        }
+
+        List<LegacyNMSProcessor.Detection> toDetections() {
+            List<LegacyNMSProcessor.Detection> detections = new ArrayList<>();
+            for (int i = 0; i < classIds.length; i++) {
+                detections.add(new LegacyNMSProcessor.Detection(classIds[i], scores[i], x1[i], y1[i], x2[i],
+                        y2[i]));
+            }
+            return detections;
+        }
+    }
+}
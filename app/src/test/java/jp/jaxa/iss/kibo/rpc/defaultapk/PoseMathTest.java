@@ -0,0 +1,216 @@
+package jp.jaxa.iss.kibo.rpc.defaultapk;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Assume;
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+import java.util.Random;
+
+import gov.nasa.arc.astrobee.types.Point;
+import gov.nasa.arc.astrobee.types.Quaternion;
+
+/**
+ * {@link Vec3} / {@link Quat} / {@link Pose} が、乱数で作った姿勢とベクトルで以前の実装 ({@link LegacyPoseMath}) と
+ * 同じ結果を返すこと、また計算中にオブジェクトを作らないことを確かめます。
+ */
+public class PoseMathTest {
+    private static final int CASES = 10000;
+    private static final double TOLERANCE = 1e-5;
+    // 割り当て量を測る回数と、その間に許す割り当て量 (計測そのものの分)
+    private static final int ALLOCATION_WARM_UP = 200000;
+    private static final int ALLOCATION_ITERATIONS = 1000000;
+    private static final long ALLOCATION_SLACK_BYTES = 1024;
+
+    @Test
+    public void quaternionProductMatchesQMul() {
+        Random random = new Random(1);
+        Quat a = new Quat(), b = new Quat(), q = new Quat();
+        for (int i = 0; i < CASES; i++) {
+            Quaternion qa = randomQuaternion(random);
+            Quaternion qb = randomQuaternion(random);
+            a.set(qa);
+            b.set(qb);
+            assertClose("QMul", LegacyPoseMath.QMul(qa, qb), q.mul(a, b));
+            assertClose("QMul (aliased)", LegacyPoseMath.QMul(qa, qb), q.set(a).mul(q, b));
+            assertClose("inverseQuaternion", LegacyPoseMath.inverseQuaternion(qa), q.conjugate(a));
+        }
+    }
+
+    @Test
+    public void rotationMatchesApplyQuaternion() {
+        Random random = new Random(2);
+        Quat a = new Quat();
+        Vec3 u = new Vec3(), out = new Vec3();
+        for (int i = 0; i < CASES; i++) {
+            Quaternion qa = randomQuaternion(random);
+            Point pu = randomPoint(random, i);
+            a.set(qa);
+            u.set(pu);
+            assertClose("applyQuaternion", LegacyPoseMath.applyQuaternion(qa, pu), a.rotate(u, out));
+            assertClose("applyQuaternion (aliased)", LegacyPoseMath.applyQuaternion(qa, pu),
+                    a.rotate(out.set(u), out));
+            assertClose("rotateInverse", pu, a.rotateInverse(a.rotate(u, out), out));
+        }
+    }
+
+    @Test
+    public void fromXDirectionMatchesQuaternionFromXDirection() {
+        Random random = new Random(3);
+        Quat q = new Quat();
+        Vec3 u = new Vec3(), x = new Vec3(), out = new Vec3();
+        for (int i = 0; i < CASES; i++) {
+            Point pu = randomPoint(random, i);
+            u.set(pu);
+            assertClose("quaternionFromXDirection", LegacyPoseMath.quaternionFromXDirection(pu),
+                    q.fromXDirection(u));
+            // X+ を回すと v の向きになる (0ベクトル以外)
+            if (u.length() > 0) {
+                assertClose("direction", LegacyPoseMath.PNormalize(pu), q.rotate(x.set(1, 0, 0), out));
+            }
+        }
+    }
+
+    @Test
+    public void vectorOperationsMatchPointHelpers() {
+        Random random = new Random(4);
+        Vec3 u = new Vec3(), w = new Vec3(), out = new Vec3();
+        for (int i = 0; i < CASES; i++) {
+            Point pu = randomPoint(random, i);
+            Point pw = randomPoint(random, i + 1);
+            double s = random.nextGaussian();
+            u.set(pu);
+            w.set(pw);
+            assertClose("PAdd", LegacyPoseMath.PAdd(pu, pw), out.add(u, w));
+            assertClose("PAdd (aliased)", LegacyPoseMath.PAdd(pu, pw), out.set(u).add(out, w));
+            assertClose("PInv", LegacyPoseMath.PInv(pu), out.negate(u));
+            assertClose("PScalarMul", LegacyPoseMath.PScalarMul(s, pu), out.scale(s, u));
+            assertEquals("PLen", LegacyPoseMath.PLen(pu), u.length(), TOLERANCE);
+            if (u.length() > 0) {
+                assertClose("PNormalize", LegacyPoseMath.PNormalize(pu), out.normalize(u));
+            }
+        }
+    }
+
+    @Test
+    public void poseTransformMatchesLegacyComposition() {
+        Random random = new Random(5);
+        Pose pose = new Pose();
+        Vec3 u = new Vec3(), out = new Vec3();
+        double[] rotation = new double[9];
+        double[] points = new double[3];
+        for (int i = 0; i < CASES; i++) {
+            Quaternion qa = randomQuaternion(random);
+            Point pu = randomPoint(random, i);
+            Point pw = randomPoint(random, i + 1);
+            pose.set(pw, qa);
+            u.set(pu);
+
+            Point expected = LegacyPoseMath.PAdd(pw, LegacyPoseMath.applyQuaternion(qa, pu));
+            assertClose("Pose.transform", expected, pose.transform(u, out));
+            assertClose("Pose.inverseTransform", pu, pose.inverseTransform(out, out));
+            points[0] = u.x;
+            points[1] = u.y;
+            points[2] = u.z;
+            pose.transform(rotation, points, points, 0, 1);
+            assertClose("Pose.transform (batch)", expected, out.set(points[0], points[1], points[2]));
+        }
+    }
+
+    /**
+     * 作業用のインスタンスを使い回せば、計算を繰り返してもヒープに割り当てないことを確かめます
+     * (スレッドごとの割り当て量を測れる JVM でのみ実行します)。
+     */
+    @Test
+    public void operationsDoNotAllocate() {
+        java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        Assume.assumeTrue(bean instanceof com.sun.management.ThreadMXBean);
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) bean;
+        Assume.assumeTrue(threads.isThreadAllocatedMemorySupported() && threads.isThreadAllocatedMemoryEnabled());
+
+        Operations operations = new Operations();
+        operations.run(ALLOCATION_WARM_UP);
+        long id = Thread.currentThread().getId();
+        long before = threads.getThreadAllocatedBytes(id);
+        double sum = operations.run(ALLOCATION_ITERATIONS);
+        long allocated = threads.getThreadAllocatedBytes(id) - before;
+
+        assertTrue(allocated + " bytes for " + ALLOCATION_ITERATIONS + " iterations (" + sum + ")",
+                allocated <= ALLOCATION_SLACK_BYTES);
+    }
+
+    /**
+     * Mission と FramePreprocessor で使う計算の組み合わせ。
+     */
+    private static class Operations {
+        private final Quat a = new Quat().set(new Quaternion(0, 0, -0.7071f, 0.7071f));
+        private final Quat b = new Quat().set(new Quaternion(-0.5f, 0.5f, 0.5f, 0.5f));
+        private final Quat q = new Quat();
+        private final Vec3 v = new Vec3(0.6, -0.2, 0.1);
+        private final Vec3 back = new Vec3(-0.6, 0, 0);
+        private final Vec3 out = new Vec3();
+        private final Pose pose = new Pose();
+        private final double[] rotation = new double[9];
+        private final double[] points = new double[3 * 20];
+
+        Operations() {
+            pose.position.set(v);
+            pose.orientation.set(a);
+        }
+
+        double run(int iterations) {
+            double sum = 0;
+            for (int i = 0; i < iterations; i++) {
+                q.mul(a, b);
+                sum += b.rotate(v, out).x;
+                sum += q.fromXDirection(v).w;
+                sum += pose.transform(out.add(v, back), out).y;
+                sum += pose.inverseTransform(out, out).z;
+                sum += Quat.angle(a, b) + Vec3.angle(v, back) + Vec3.distance(v, back);
+                pose.transform(rotation, points, points, 0, 20);
+            }
+            return sum + points[0];
+        }
+    }
+
+    private static Quaternion randomQuaternion(Random random) {
+        double x = random.nextGaussian(), y = random.nextGaussian(), z = random.nextGaussian(),
+                w = random.nextGaussian();
+        double n = Math.sqrt(x * x + y * y + z * z + w * w);
+        return new Quaternion((float) (x / n), (float) (y / n), (float) (z / n), (float) (w / n));
+    }
+
+    /**
+     * 一部は quaternionFromXDirection の場合分けに当たる点 (0ベクトル・X 軸の向き・その逆) にします。
+     */
+    private static Point randomPoint(Random random, int i) {
+        double x = 2 * random.nextGaussian();
+        switch (i % 16) {
+            case 0:
+                return new Point(0, 0, 0);
+            case 1:
+                return new Point(Math.abs(x), 0, 0);
+            case 2:
+                return new Point(-Math.abs(x), 0, 0);
+            default:
+                return new Point(x, 2 * random.nextGaussian(), 2 * random.nextGaussian());
+        }
+    }
+
+    private static void assertClose(String name, Quaternion expected, Quat actual) {
+        String message = name + ": expected " + expected + " but " + actual;
+        assertEquals(message, expected.getX(), actual.x, TOLERANCE);
+        assertEquals(message, expected.getY(), actual.y, TOLERANCE);
+        assertEquals(message, expected.getZ(), actual.z, TOLERANCE);
+        assertEquals(message, expected.getW(), actual.w, TOLERANCE);
+    }
+
+    private static void assertClose(String name, Point expected, Vec3 actual) {
+        String message = name + ": expected " + expected + " but " + actual;
+        assertEquals(message, expected.getX(), actual.x, TOLERANCE);
+        assertEquals(message, expected.getY(), actual.y, TOLERANCE);
+        assertEquals(message, expected.getZ(), actual.z, TOLERANCE);
+    }
+}
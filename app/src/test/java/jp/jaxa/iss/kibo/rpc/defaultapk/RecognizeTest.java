@@ -0,0 +1,73 @@
+package jp.jaxa.iss.kibo.rpc.defaultapk;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+import org.opencv.core.Core;
+import org.opencv.core.Mat;
+import org.opencv.core.MatOfDouble;
+import org.opencv.imgcodecs.Imgcodecs;
+
+/**
+ * バックエンド選択で使う {@link Recognize#sameDetections} と、サンプル画像のテスト。
+ */
+public class RecognizeTest {
+    // {クラス, 確信度, x1, y1, x2, y2}
+    private static final float[] REFERENCE = {
+            2, 0.91f, 100, 100, 220, 220,
+            7, 0.90f, 300, 120, 380, 260,
+            7, 0.42f, 420, 400, 500, 470 };
+
+    @Test
+    public void sameDetectionsAcceptsSmallDifferences() {
+        assertTrue(Recognize.sameDetections(REFERENCE, REFERENCE.clone()));
+        assertTrue(Recognize.sameDetections(new float[0], new float[0]));
+        // 確信度が少し変わって並び順が入れ替わり、枠が 1 画素ずれても同じ
+        float[] other = {
+                7, 0.92f, 301, 120, 381, 259,
+                2, 0.89f, 100, 101, 221, 220,
+                7, 0.45f, 420, 400, 500, 470 };
+        assertTrue(Recognize.sameDetections(REFERENCE, other));
+    }
+
+    @Test
+    public void sameDetectionsRejectsDifferentBoxesAndScores() {
+        float[] fewer = new float[12];
+        System.arraycopy(REFERENCE, 0, fewer, 0, 12);
+        assertFalse(Recognize.sameDetections(REFERENCE, fewer));
+
+        float[] otherClass = REFERENCE.clone();
+        otherClass[0] = 3;
+        assertFalse(Recognize.sameDetections(REFERENCE, otherClass));
+
+        float[] lowerScore = REFERENCE.clone();
+        lowerScore[13] = 0.30f;
+        assertFalse(Recognize.sameDetections(REFERENCE, lowerScore));
+
+        // クラスごとの個数は同じでも、枠が別の場所にある
+        float[] moved = REFERENCE.clone();
+        moved[14] += 40;
+        moved[16] += 40;
+        assertFalse(Recognize.sameDetections(REFERENCE, moved));
+
+        // 同じ検出に2つを対応させない
+        float[] duplicated = REFERENCE.clone();
+        System.arraycopy(REFERENCE, 6, duplicated, 12, 6);
+        assertFalse(Recognize.sameDetections(REFERENCE, duplicated));
+    }
+
+    @Test
+    public void sampleImageIsAnAreaCrop() {
+        TestFixtures.loadOpenCv();
+        Mat sample = Imgcodecs.imread(TestFixtures.asset("sample.png").getPath(), Imgcodecs.IMREAD_UNCHANGED);
+        assertFalse(sample.empty());
+        // 黒一色ではなく、2値化したエリアの切り抜き (白地に黒の物体)
+        MatOfDouble mean = new MatOfDouble();
+        MatOfDouble stddev = new MatOfDouble();
+        Core.meanStdDev(sample, mean, stddev);
+        assertTrue(mean.get(0, 0)[0] > 64);
+        assertTrue(stddev.get(0, 0)[0] > 64);
+        sample.release();
+    }
+}
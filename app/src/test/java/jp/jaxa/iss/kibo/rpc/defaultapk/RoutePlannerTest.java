@@ -0,0 +1,96 @@
+package jp.jaxa.iss.kibo.rpc.defaultapk;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import gov.nasa.arc.astrobee.types.Point;
+import gov.nasa.arc.astrobee.types.Quaternion;
+
+/**
+ * {@link Mission} と同じ KIZ・エリア・移動時間の見積もりで {@link RoutePlanner} の計画を確かめます。
+ * 以前の固定の巡回 ({@link Mission#LEGACY_POINTS}) よりも見積もりが短く、開始位置が少し違っても同じ計画を使い回すこと。
+ */
+public class RoutePlannerTest {
+    // ドッキングステーションの前 (ミッション開始時の位置と姿勢)
+    private static final Point DOCK = new Point(9.815, -9.806, 4.293);
+    private static final Quaternion DOCK_Q = new Quaternion(1, 0, 0, 0);
+
+    @Test
+    public void plannedRouteIsFasterThanLegacyOrder() {
+        RoutePlanner planner = planner(MotionCostModel.SIMULATOR);
+        RoutePlanner.Plan plan = plan(planner, DOCK, DOCK_Q);
+        RoutePlanner.Plan legacy = planner.evaluate(DOCK, DOCK_Q, Mission.ASTRONAUT_POINT,
+                Mission.ASTRONAUT_QUATERNION, legacyStops());
+        assertTrue(plan.describe() + " vs legacy " + legacy.describe(),
+                plan.getEstimatedMillis() < legacy.getEstimatedMillis());
+    }
+
+    @Test
+    public void plannedRouteIsNoSlowerThanLegacyForOtherCostModels() {
+        // 移動が遅い・回転が遅い・1回の moveTo が重い場合でも、以前の順序より遅くはならない
+        MotionCostModel[] models = { new MotionCostModel(0.05, 0.35, 2000), new MotionCostModel(0.2, 0.05, 2000),
+                new MotionCostModel(0.2, 0.35, 20000) };
+        for (MotionCostModel model : models) {
+            RoutePlanner planner = planner(model);
+            RoutePlanner.Plan plan = plan(planner, DOCK, DOCK_Q);
+            RoutePlanner.Plan legacy = planner.evaluate(DOCK, DOCK_Q, Mission.ASTRONAUT_POINT,
+                    Mission.ASTRONAUT_QUATERNION, legacyStops());
+            assertTrue(model + ": " + plan.describe() + " vs legacy " + legacy.describe(),
+                    plan.getEstimatedMillis() <= legacy.getEstimatedMillis());
+        }
+    }
+
+    @Test
+    public void everyAreaIsObservedOnceFromInsideKiz() {
+        RoutePlanner.Plan plan = plan(planner(MotionCostModel.SIMULATOR), DOCK, DOCK_Q);
+        int[] observed = new int[Mission.AREAS.length];
+        for (RoutePlanner.Stop stop : plan.getStops()) {
+            for (int area : stop.getAreas()) {
+                observed[area]++;
+            }
+            Point p = stop.getPosition();
+            String message = plan.describe();
+            assertTrue(message, p.getX() >= Mission.KIZ_MIN.getX() && p.getX() <= Mission.KIZ_MAX.getX());
+            assertTrue(message, p.getY() >= Mission.KIZ_MIN.getY() && p.getY() <= Mission.KIZ_MAX.getY());
+            assertTrue(message, p.getZ() >= Mission.KIZ_MIN.getZ() && p.getZ() <= Mission.KIZ_MAX.getZ());
+        }
+        for (int count : observed) {
+            assertEquals(plan.describe(), 1, count);
+        }
+    }
+
+    @Test
+    public void nearbyStartReusesCachedStops() {
+        RoutePlanner.Plan first = plan(planner(MotionCostModel.SIMULATOR), DOCK, DOCK_Q);
+        // 自己位置の誤差程度の違い (丸める刻みより十分小さい)
+        Point start = new Point(DOCK.getX() + 0.01, DOCK.getY() + 0.01, DOCK.getZ() - 0.01);
+        Quaternion startQ = new Quaternion(0.999f, 0.01f, 0, 0.02f);
+        RoutePlanner planner = planner(MotionCostModel.SIMULATOR);
+        RoutePlanner.Plan second = plan(planner, start, startQ);
+
+        assertSame(first.getStops(), second.getStops());
+        // 所要時間は実際の開始位置から見積もり直す
+        assertEquals(planner.evaluate(start, startQ, Mission.ASTRONAUT_POINT, Mission.ASTRONAUT_QUATERNION,
+                first.getStops()).getEstimatedMillis(), second.getEstimatedMillis());
+    }
+
+    private static RoutePlanner planner(MotionCostModel costModel) {
+        return new RoutePlanner(Mission.KIZ_MIN, Mission.KIZ_MAX, costModel, Mission.ROUTE_STANDOFF,
+                Mission.ROUTE_MAX_DISTANCE, Mission.ROUTE_MAX_OFF_AXIS_DEGREES);
+    }
+
+    private static RoutePlanner.Plan plan(RoutePlanner planner, Point start, Quaternion startQ) {
+        return planner.plan(start, startQ, Mission.ASTRONAUT_POINT, Mission.ASTRONAUT_QUATERNION, Mission.AREAS);
+    }
+
+    private static RoutePlanner.Stop[] legacyStops() {
+        RoutePlanner.Stop[] stops = new RoutePlanner.Stop[Mission.LEGACY_POINTS.length];
+        for (int i = 0; i < stops.length; i++) {
+            stops[i] = new RoutePlanner.Stop(Mission.LEGACY_POINTS[i], Mission.LEGACY_QUATERNIONS[i], i);
+        }
+        return stops;
+    }
+}
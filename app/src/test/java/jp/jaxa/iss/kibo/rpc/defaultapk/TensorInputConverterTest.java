@@ -0,0 +1,206 @@
+package jp.jaxa.iss.kibo.rpc.defaultapk;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.opencv.core.Core;
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.core.Rect;
+import org.opencv.core.Size;
+import org.opencv.imgproc.Imgproc;
+import org.tensorflow.lite.DataType;
+
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
+
+/**
+ * {@link TensorInputConverter} の書き込むテンソルが、以前の Bitmap / TensorImage の経路 ({@link LegacyTensorInput}) と
+ * 一致することを確かめます。
+ * <p>
+ * 同じ大きさや 1280x960 からの縮小のように、入力の座標が画素の境界の近くに来ない比なら完全に一致します。
+ * それ以外の比では、入力の座標が画素の境界から 1/1000 画素以内に来たとき、固定小数点の誤差で隣の画素を取ることがあるので
+ * (OpenCV も Skia も固定小数点で計算します)、値の違う要素が {@link #MAX_MISMATCH} 以下であればよいとします。
+ */
+public class TensorInputConverterTest {
+    private static final int SIZE = 640;
+    private static final float MEAN = 0f;
+    private static final float STD = 255f;
+    private static final float TOLERANCE = 1e-6f;
+    // 整数でない比のときに許す、値の違う要素の割合
+    private static final double MAX_MISMATCH = 0.01;
+
+    @BeforeClass
+    public static void loadOpenCv() {
+        TestFixtures.loadOpenCv();
+    }
+
+    @Test
+    public void sameSizeBinaryCrop() {
+        assertMatchesLegacy(binaryImage(SIZE, SIZE, 1), 0);
+    }
+
+    @Test
+    public void downscaledFrame() {
+        // NavCam のフレーム (1280x960) をそのまま渡す場合
+        assertMatchesLegacy(grayImage(1280, 960, 2), 0);
+    }
+
+    @Test
+    public void downscaledNonIntegerRatio() {
+        assertMatchesLegacy(binaryImage(1001, 777, 3), MAX_MISMATCH);
+    }
+
+    @Test
+    public void upscaledCrop() {
+        assertMatchesLegacy(binaryImage(500, 300, 4), MAX_MISMATCH);
+    }
+
+    @Test
+    public void colorImages() {
+        Mat gray = grayImage(700, 700, 5);
+        Mat rgb = new Mat();
+        Mat rgba = new Mat();
+        Mat noise = new Mat(gray.size(), CvType.CV_8UC3);
+        Core.randu(noise, 0, 256);
+        Imgproc.cvtColor(gray, rgb, Imgproc.COLOR_GRAY2RGB);
+        Core.add(rgb, noise, rgb);
+        Imgproc.cvtColor(rgb, rgba, Imgproc.COLOR_RGB2RGBA);
+        assertMatchesLegacy(rgb, MAX_MISMATCH);
+        assertMatchesLegacy(rgba, MAX_MISMATCH);
+    }
+
+    @Test
+    public void submatrix() {
+        Mat frame = grayImage(1280, 960, 6);
+        assertMatchesLegacy(frame.submat(new Rect(100, 50, SIZE, SIZE)), 0);
+        assertMatchesLegacy(frame.submat(new Rect(13, 7, 900, 800)), MAX_MISMATCH);
+    }
+
+    @Test
+    public void batchMatchesSingleImages() {
+        Mat[] images = { binaryImage(SIZE, SIZE, 7), grayImage(1280, 960, 8), binaryImage(320, 320, 9) };
+        TensorInputConverter converter = new TensorInputConverter(SIZE, SIZE, 3, DataType.FLOAT32, MEAN, STD);
+        FloatBuffer batch = converter.convert(images, images.length).asFloatBuffer();
+        int values = SIZE * SIZE * 3;
+        assertEquals(images.length * values, batch.remaining());
+        for (Mat image : images) {
+            float[] expected = LegacyTensorInput.convert(image, SIZE, SIZE, MEAN, STD);
+            for (int i = 0; i < values; i++) {
+                assertEquals(expected[i], batch.get(), TOLERANCE);
+            }
+        }
+        converter.release();
+    }
+
+    @Test
+    public void uint8InputIsPixelValues() {
+        Mat image = grayImage(SIZE, SIZE, 10);
+        TensorInputConverter converter = new TensorInputConverter(SIZE, SIZE, 3, DataType.UINT8, MEAN, STD);
+        ByteBuffer buffer = converter.convert(image);
+        float[] expected = LegacyTensorInput.convert(image, SIZE, SIZE, 0f, 1f);
+        assertEquals(expected.length, buffer.remaining());
+        for (int i = 0; i < expected.length; i++) {
+            assertEquals((int) expected[i], buffer.get(i) & 0xFF);
+        }
+        converter.release();
+    }
+
+    @Test
+    public void int8InputUsesZeroPoint() {
+        // 既定の INT8 (scale 1 / 255, ゼロ点 -128) では画素値 v が v - 128 になる
+        Mat image = new Mat(1, 4, CvType.CV_8UC1);
+        image.put(0, 0, new byte[] { 0, 1, (byte) 128, (byte) 255 });
+        TensorInputConverter converter = new TensorInputConverter(4, 1, 3, DataType.INT8, MEAN, STD);
+        ByteBuffer buffer = converter.convert(image);
+        byte[] expected = { -128, -127, 0, 127 };
+        for (int x = 0; x < expected.length; x++) {
+            for (int c = 0; c < 3; c++) {
+                assertEquals(expected[x], buffer.get(x * 3 + c));
+            }
+        }
+        converter.release();
+    }
+
+    @Test
+    public void quantizedInputMatchesFloatWithinHalfStep() {
+        Mat image = grayImage(1280, 960, 11);
+        assertQuantizedMatchesFloat(image, DataType.INT8, 1f / 255, -128);
+        assertQuantizedMatchesFloat(image, DataType.UINT8, 1f / 255, 0);
+        assertQuantizedMatchesFloat(image, DataType.UINT8, 1f / 128, 128);
+        assertQuantizedMatchesFloat(image, DataType.INT8, 0.0042f, -100);
+        // 表せない値 (1 / 512 のスケールで 0.5 以上) は最大値に丸める
+        assertQuantizedMatchesFloat(image, DataType.UINT8, 1f / 512, 0);
+    }
+
+    /**
+     * 量子化した入力を逆量子化した値が、FLOAT32 の入力と量子化の半ステップ以内 (範囲外は端の値) であることを確かめます。
+     */
+    private static void assertQuantizedMatchesFloat(Mat image, DataType type, float scale, int zeroPoint) {
+        TensorInputConverter floatConverter = new TensorInputConverter(SIZE, SIZE, 3, DataType.FLOAT32, MEAN, STD);
+        TensorInputConverter quantized = new TensorInputConverter(SIZE, SIZE, 3, type, MEAN, STD, scale,
+                zeroPoint);
+        FloatBuffer expected = floatConverter.convert(image).asFloatBuffer();
+        ByteBuffer actual = quantized.convert(image);
+        boolean signed = type == DataType.INT8;
+        float min = ((signed ? -128 : 0) - zeroPoint) * scale;
+        float max = ((signed ? 127 : 255) - zeroPoint) * scale;
+        String message = type + " scale " + scale + " zero point " + zeroPoint;
+
+        assertEquals(message, expected.remaining(), actual.remaining());
+        for (int i = 0; i < expected.remaining(); i++) {
+            byte b = actual.get(i);
+            float value = ((signed ? b : b & 0xFF) - zeroPoint) * scale;
+            float clamped = Math.max(min, Math.min(max, expected.get(i)));
+            assertEquals(message + " at " + i, clamped, value, scale / 2 + TOLERANCE);
+        }
+        floatConverter.release();
+        quantized.release();
+    }
+
+    private static void assertMatchesLegacy(Mat image, double maxMismatch) {
+        TensorInputConverter converter = new TensorInputConverter(SIZE, SIZE, 3, DataType.FLOAT32, MEAN, STD);
+        ByteBuffer buffer = converter.convert(image);
+        FloatBuffer actual = buffer.asFloatBuffer();
+        float[] expected = LegacyTensorInput.convert(image, SIZE, SIZE, MEAN, STD);
+
+        assertEquals(expected.length * 4, buffer.remaining());
+        int mismatches = 0;
+        int first = -1;
+        for (int i = 0; i < expected.length; i++) {
+            if (!(Math.abs(expected[i] - actual.get(i)) <= TOLERANCE)) {
+                if (first < 0) {
+                    first = i;
+                }
+                mismatches++;
+            }
+        }
+        String size = image.cols() + "x" + image.rows();
+        if (maxMismatch == 0 && first >= 0) {
+            assertEquals(size + " at " + first, expected[first], actual.get(first), TOLERANCE);
+        }
+        assertTrue(size + ": " + mismatches + " of " + expected.length + " differ",
+                mismatches <= expected.length * maxMismatch);
+        converter.release();
+    }
+
+    /**
+     * 2値化したエリアの切り抜きに近い画像 (細かい白黒の模様)。
+     */
+    static Mat binaryImage(int width, int height, long seed) {
+        Mat image = grayImage(width, height, seed);
+        Imgproc.threshold(image, image, 127, 255, Imgproc.THRESH_BINARY);
+        return image;
+    }
+
+    static Mat grayImage(int width, int height, long seed) {
+        Core.setRNGSeed((int) seed);
+        Mat image = new Mat(height, width, CvType.CV_8UC1);
+        Core.randu(image, 0, 256);
+        // 隣り合う画素が少し似るようにぼかす (最近傍の取り方がずれると値が変わる程度に)
+        Imgproc.GaussianBlur(image, image, new Size(3, 3), 0.8);
+        return image;
+    }
+}
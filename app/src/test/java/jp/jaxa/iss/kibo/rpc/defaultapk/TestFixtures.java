@@ -0,0 +1,90 @@
+package jp.jaxa.iss.kibo.rpc.defaultapk;
+
+import org.bytedeco.javacpp.Loader;
+import org.bytedeco.opencv.opencv_java;
+import org.opencv.core.Core;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * テストで使うデータ (src/test/resources) の読み込みと、OpenCV の準備を行うクラス。
+ */
+final class TestFixtures {
+    // YOLO の出力 (4 + クラス数, 640x640 入力時の候補数)
+    static final int NUM_CHANNEL = 15;
+    static final int NUM_ELEMENTS = 8400;
+
+    private static boolean openCvLoaded = false;
+
+    private TestFixtures() {
+    }
+
+    /**
+     * OpenCV のネイティブライブラリを読み込みます。
+     * java.library.path に opencv_java があればそれを、なければ bytedeco の同梱ライブラリを使います。
+     */
+    static synchronized void loadOpenCv() {
+        if (openCvLoaded) {
+            return;
+        }
+        try {
+            System.loadLibrary(Core.NATIVE_LIBRARY_NAME);
+        } catch (UnsatisfiedLinkError e) {
+            Loader.load(opencv_java.class);
+        }
+        openCvLoaded = true;
+    }
+
+    /**
+     * app/src/main/assets のファイル。Gradle はモジュールのディレクトリで、IDE などはリポジトリの直下でテストを実行するため、
+     * 両方を探します。
+     */
+    static File asset(String name) {
+        File file = new File("src/main/assets", name);
+        return file.exists() ? file : new File("app/src/main/assets", name);
+    }
+
+    static byte[] readBytes(String resource) throws IOException {
+        try (InputStream in = TestFixtures.class.getResourceAsStream("/" + resource)) {
+            if (in == null) {
+                throw new IOException("resource not found: " + resource);
+            }
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[16 * 1024];
+            int read;
+            while ((read = in.read(buffer)) > 0) {
+                out.write(buffer, 0, read);
+            }
+            return out.toByteArray();
+        }
+    }
+
+    /**
+     * float32 (リトルエンディアン) を並べたファイルを読み込みます。
+     */
+    static float[] readFloats(String resource) throws IOException {
+        ByteBuffer bytes = ByteBuffer.wrap(readBytes(resource)).order(ByteOrder.LITTLE_ENDIAN);
+        float[] values = new float[bytes.remaining() / 4];
+        bytes.asFloatBuffer().get(values);
+        return values;
+    }
+
+    /**
+     * YOLO の出力テンソル [1, 15, 8400] (チャンネル優先) と同じ形式のデータ。
+     * リポジトリにはモデルがないため、アンカーの格子 (stride 8/16/32) に沿って 7 つの物体のまわりのスコアを高くしたものを
+     * 乱数で作っています。閾値ちょうど (0.25) のスコアや、クラス間・アンカー間で同点のスコアも含みます。
+     * 実機で interpreter.run の出力をそのまま書き出したファイルに置き換えても、同じテストが使えます。
+     */
+    static float[] readYoloOutput() throws IOException {
+        float[] output = readFloats("yolo_output.bin");
+        if (output.length != NUM_CHANNEL * NUM_ELEMENTS) {
+            throw new IOException("unexpected output size: " + output.length);
+        }
+        return output;
+    }
+}
@@ -0,0 +1,201 @@
+package jp.jaxa.iss.kibo.rpc.defaultapk;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.tensorflow.lite.DataType;
+
+import java.nio.ByteBuffer;
+import java.util.List;
+
+/**
+ * {@link YoloPostProcessor} と {@link NMSProcessor} の結果が、以前の後処理
+ * ({@link LegacyYoloDecoder} と {@link LegacyNMSProcessor}) と完全に一致することを確かめます。
+ * 量子化 (UINT8 / INT8) の出力は、逆量子化した float の出力を以前の後処理に通した結果と一致することを確かめます。
+ */
+public class YoloPostProcessorTest {
+    private static final float SCORE_THRESHOLD = 0.25F;
+    private static final float IOU_THRESHOLD = 0.7F;
+
+    private float[] output;
+    private YoloPostProcessor postProcessor;
+
+    @Before
+    public void setUp() throws Exception {
+        output = TestFixtures.readYoloOutput();
+        postProcessor = new YoloPostProcessor(TestFixtures.NUM_CHANNEL, TestFixtures.NUM_ELEMENTS,
+                SCORE_THRESHOLD);
+        postProcessor.getOutputBuffer().asFloatBuffer().put(output);
+    }
+
+    @Test
+    public void decodeMatchesLegacy() {
+        List<LegacyNMSProcessor.Detection> expected = LegacyYoloDecoder.decode(output);
+        int count = postProcessor.decode();
+
+        assertEquals(expected.size(), count);
+        for (int i = 0; i < count; i++) {
+            assertSame("candidate " + i, expected.get(i), postProcessor.getClassIds()[i],
+                    postProcessor.getScores()[i], postProcessor.getX1()[i], postProcessor.getY1()[i],
+                    postProcessor.getX2()[i], postProcessor.getY2()[i]);
+        }
+    }
+
+    @Test
+    public void decodeIsRepeatable() {
+        int first = postProcessor.decode();
+        float[] scores = postProcessor.getScores().clone();
+        // バッファを巻き戻しても同じ結果になる (出力バッファと候補の配列を使い回す)
+        postProcessor.getOutputBuffer();
+        assertEquals(first, postProcessor.decode());
+        for (int i = 0; i < first; i++) {
+            assertEquals(scores[i], postProcessor.getScores()[i], 0);
+        }
+    }
+
+    @Test
+    public void detectionsMatchLegacy() {
+        List<LegacyNMSProcessor.Detection> expected = LegacyNMSProcessor.nonMaxSuppression(
+                LegacyYoloDecoder.decode(output), IOU_THRESHOLD);
+        int count = postProcessor.decode();
+        NMSProcessor nms = new NMSProcessor(TestFixtures.NUM_ELEMENTS);
+        int kept = nms.nonMaxSuppression(postProcessor.getClassIds(), postProcessor.getScores(),
+                postProcessor.getX1(), postProcessor.getY1(), postProcessor.getX2(), postProcessor.getY2(), count,
+                IOU_THRESHOLD, false, 0);
+
+        assertEquals(expected.size(), kept);
+        for (int i = 0; i < kept; i++) {
+            int k = nms.getKeep()[i];
+            assertSame("detection " + i, expected.get(i), postProcessor.getClassIds()[k],
+                    postProcessor.getScores()[k], postProcessor.getX1()[k], postProcessor.getY1()[k],
+                    postProcessor.getX2()[k], postProcessor.getY2()[k]);
+        }
+    }
+
+    @Test
+    public void rawThresholdIsSmallestPassingValue() {
+        assertRawThreshold(DataType.UINT8, 0.25f, 1f / 255, 0);
+        assertRawThreshold(DataType.UINT8, 0.25f, 1f / 256, 128);
+        assertRawThreshold(DataType.INT8, 0.25f, 1f / 255, -128);
+        // 閾値 / スケールが float の丸めで境界の整数をわずかに超え、ceil では 1 大きくなる組み合わせ
+        assertRawThreshold(DataType.INT8, 0.3f, 0.3f / 62, -36);
+        assertRawThreshold(DataType.INT8, 0.01f, 0.01f / 123, -112);
+        assertRawThreshold(DataType.UINT8, 0.3f, 0.3f / 62, 0);
+    }
+
+    @Test
+    public void quantizedScoreAtThresholdIsCandidate() {
+        float threshold = 0.3f;
+        float scale = threshold / 62;
+        int zeroPoint = -36;
+        YoloPostProcessor quantized = new YoloPostProcessor(5, 3, threshold, DataType.INT8, scale, zeroPoint);
+        int q = quantized.getRawThreshold();
+        assertEquals(26, q);
+        ByteBuffer buffer = quantized.getOutputBuffer();
+        // アンカー 0, 1, 2 のスコアが閾値の 1 つ下・ちょうど・1 つ上
+        buffer.put(new byte[] { 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, (byte) (q - 1), (byte) q, (byte) (q + 1) });
+        assertEquals(2, quantized.decode());
+        assertEquals(threshold, quantized.getScores()[0], 0);
+        assertEquals((q + 1 - zeroPoint) * scale, quantized.getScores()[1], 0);
+    }
+
+    @Test
+    public void int8UsesSignedValuesAndZeroPoint() {
+        float scale = 1f / 255;
+        YoloPostProcessor quantized = new YoloPostProcessor(6, 2, SCORE_THRESHOLD, DataType.INT8, scale, -128);
+        ByteBuffer buffer = quantized.getOutputBuffer();
+        // チャンネルごとに {アンカー 0, アンカー 1}。値はゼロ点 -128 を引いて scale 倍したもの
+        // アンカー 0: 箱 (127, 127, 51, 102) * scale、クラス 1 のスコアが 0xC0 (-64 -> 64 * scale)
+        // アンカー 1: 箱は 0、クラス 0 のスコアが 0x7F (127 -> 1.0)
+        buffer.put(new byte[] {
+                -1, -128,
+                -1, -128,
+                51 - 128, -128,
+                102 - 128, -128,
+                -128, 127,
+                (byte) 0xC0, (byte) 0x80 });
+        assertEquals(2, quantized.decode());
+
+        assertEquals(1, quantized.getClassIds()[0]);
+        assertEquals(64 * scale, quantized.getScores()[0], 0);
+        float center = 127 * scale;
+        assertEquals(center - 51 * scale / 2, quantized.getX1()[0], 0);
+        assertEquals(center + 51 * scale / 2, quantized.getX2()[0], 0);
+        assertEquals(center - 102 * scale / 2, quantized.getY1()[0], 0);
+
+        assertEquals(0, quantized.getClassIds()[1]);
+        assertEquals(1f, quantized.getScores()[1], 1e-6f);
+        // 箱の値はゼロ点 (-128) で 0 になる
+        assertEquals(0f, quantized.getX1()[1], 0);
+        assertEquals(0f, quantized.getY2()[1], 0);
+    }
+
+    @Test
+    public void quantizedMatchesLegacyOnDequantizedOutput() {
+        // 量子化したモデルは箱を入力サイズで割った 0〜1 で出力するので、スコアと同じスケールで表せる
+        float[] normalized = output.clone();
+        for (int i = 0; i < 4 * TestFixtures.NUM_ELEMENTS; i++) {
+            normalized[i] /= 640;
+        }
+        float max = 0;
+        for (float v : normalized) {
+            max = Math.max(max, Math.abs(v));
+        }
+        assertQuantizedMatchesLegacy(normalized, DataType.UINT8, max / 255, 0);
+        assertQuantizedMatchesLegacy(normalized, DataType.INT8, max / 255, -128);
+        // 負の値も表せるゼロ点
+        assertQuantizedMatchesLegacy(normalized, DataType.UINT8, 2 * max / 255, 127);
+        assertQuantizedMatchesLegacy(normalized, DataType.INT8, 2 * max / 255, 0);
+    }
+
+    /**
+     * 出力を量子化し、逆量子化した float の出力を以前の後処理に通した結果と比べます。
+     */
+    private static void assertQuantizedMatchesLegacy(float[] output, DataType type, float scale, int zeroPoint) {
+        int min = type == DataType.INT8 ? -128 : 0;
+        int max = type == DataType.INT8 ? 127 : 255;
+        YoloPostProcessor quantized = new YoloPostProcessor(TestFixtures.NUM_CHANNEL, TestFixtures.NUM_ELEMENTS,
+                SCORE_THRESHOLD, type, scale, zeroPoint);
+        ByteBuffer buffer = quantized.getOutputBuffer();
+        float[] dequantized = new float[output.length];
+        for (int i = 0; i < output.length; i++) {
+            int q = Math.max(min, Math.min(max, Math.round(output[i] / scale) + zeroPoint));
+            buffer.put((byte) q);
+            dequantized[i] = (q - zeroPoint) * scale;
+        }
+
+        List<LegacyNMSProcessor.Detection> expected = LegacyYoloDecoder.decode(dequantized);
+        int count = quantized.decode();
+        String message = type + " scale " + scale + " zero point " + zeroPoint;
+        assertTrue(message, count > 0);
+        assertEquals(message, expected.size(), count);
+        for (int i = 0; i < count; i++) {
+            assertSame(message + " candidate " + i, expected.get(i), quantized.getClassIds()[i],
+                    quantized.getScores()[i], quantized.getX1()[i], quantized.getY1()[i], quantized.getX2()[i],
+                    quantized.getY2()[i]);
+        }
+    }
+
+    /**
+     * rawThreshold が逆量子化したスコアで閾値以上になる最小の量子化値であることを確かめます。
+     */
+    private static void assertRawThreshold(DataType type, float threshold, float scale, int zeroPoint) {
+        YoloPostProcessor quantized = new YoloPostProcessor(5, 1, threshold, type, scale, zeroPoint);
+        int q = quantized.getRawThreshold();
+        String message = type + " threshold " + threshold + " scale " + scale + " zero point " + zeroPoint;
+        assertTrue(message, (q - zeroPoint) * scale >= threshold);
+        assertTrue(message, (q - 1 - zeroPoint) * scale < threshold);
+    }
+
+    private static void assertSame(String message, LegacyNMSProcessor.Detection expected, int classId,
+            float score, float x1, float y1, float x2, float y2) {
+        assertEquals(message, expected.classId, classId);
+        assertEquals(message, expected.confidence, score, 0);
+        assertEquals(message, expected.x1, x1, 0);
+        assertEquals(message, expected.y1, y1, 0);
+        assertEquals(message, expected.x2, x2, 0);
+        assertEquals(message, expected.y2, y2, 0);
+    }
+}
@@ -0,0 +1,276 @@
+package jp.jaxa.iss.kibo.rpc.defaultapk;
+
+import org.opencv.aruco.Aruco;
+import org.opencv.aruco.DetectorParameters;
+import org.opencv.aruco.Dictionary;
+import org.opencv.core.Mat;
+import org.opencv.imgcodecs.Imgcodecs;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * 記録した NavCam 画像 (歪み補正前) で ArUco の検出パラメータを選ぶツール。
+ *
+ * <pre>
+ * ./gradlew :benchmark:arucoTune -Ptuner.frames=(画像のディレクトリ)
+ * </pre>
+ *
+ * DICT_5X5_1000 全体と OpenCV の既定パラメータで見つかったミッションのマーカーを正解とし、
+ * ミッションの id だけの辞書 ({@link ArucoConfig}) で、適応的2値化の窓・周長の範囲・コーナーの補正方法の
+ * 組み合わせごとに検出時間を測ります。設定ごとの時間は CSV で標準出力に出します。
+ * 正解を全て検出し、正解以外を検出しない設定のうち最も速いものを書き出します。
+ * 最速との差が TIE_TOLERANCE 以内の設定は計測の揺らぎとみなし、既定から変える項目が少ないものを選びます。
+ * 周長の範囲は、記録に写っていない距離でも見つかるよう、正解の周長から PERIMETER_MARGIN 倍の余裕を残します。
+ */
+public class ArucoTuner {
+    private static final double PERIMETER_MARGIN = 2.0;
+    private static final double TIE_TOLERANCE = 0.05;
+    private static final int[][] WINDOWS = { { 3, 23, 10 }, { 3, 13, 10 }, { 5, 15, 10 }, { 7, 17, 10 },
+            { 3, 3, 10 }, { 7, 7, 10 }, { 13, 13, 10 }, { 23, 23, 10 } };
+    private static final double[] MIN_PERIMETER_RATES = { 0.01, 0.02, 0.03, 0.05, 0.08 };
+    private static final double[] MAX_PERIMETER_RATES = { 0.5, 1.0, 2.0, 4.0 };
+    private static final int[] REFINEMENTS = { Aruco.CORNER_REFINE_NONE, Aruco.CORNER_REFINE_SUBPIX,
+            Aruco.CORNER_REFINE_CONTOUR };
+
+    /**
+     * 1つの設定の計測結果。
+     */
+    private static class Trial {
+        final ArucoConfig config;
+        double meanMillis;
+        double maxMillis;
+        int missed;
+        int extra;
+
+        Trial(ArucoConfig config) {
+            this.config = config;
+        }
+
+        boolean isValid() {
+            return missed == 0 && extra == 0;
+        }
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 2) {
+            System.err.println("usage: ArucoTuner <frames dir> <output properties> [repeats]");
+            System.exit(2);
+        }
+        BenchmarkFixtures.loadOpenCv();
+        int repeats = args.length > 2 ? Integer.parseInt(args[2]) : 5;
+
+        List<Mat> frames = new ArrayList<>();
+        List<String> names = new ArrayList<>();
+        File[] files = new File(args[0]).listFiles();
+        if (files != null) {
+            Arrays.sort(files);
+            for (File file : files) {
+                String name = file.getName().toLowerCase();
+                if (name.endsWith(".png") || name.endsWith(".jpg")) {
+                    Mat frame = Imgcodecs.imread(file.getPath(), Imgcodecs.IMREAD_GRAYSCALE);
+                    if (!frame.empty()) {
+                        frames.add(frame);
+                        names.add(file.getName());
+                    }
+                }
+            }
+        }
+        if (frames.isEmpty()) {
+            throw new IOException("no frames in " + args[0]);
+        }
+
+        // 正解: 辞書全体・既定パラメータで見つかるミッションのマーカー
+        ArucoConfig defaults = ArucoConfig.defaults();
+        Set<Integer> missionIds = new HashSet<>();
+        for (int id : defaults.markerIds) {
+            missionIds.add(id);
+        }
+        Dictionary fullDictionary = Aruco.getPredefinedDictionary(ArucoConfig.BASE_DICTIONARY);
+        DetectorParameters defaultParameters = defaults.createParameters();
+        List<Set<Integer>> expected = new ArrayList<>();
+        double minRate = Double.MAX_VALUE, maxRate = 0;
+        int markers = 0;
+        for (int f = 0; f < frames.size(); f++) {
+            Mat frame = frames.get(f);
+            List<Mat> corners = new ArrayList<>();
+            Mat ids = new Mat();
+            Aruco.detectMarkers(frame, fullDictionary, corners, ids, defaultParameters);
+            Set<Integer> found = new HashSet<>();
+            float[] quad = new float[8];
+            int[] id = new int[1];
+            for (int i = 0; i < ids.rows(); i++) {
+                ids.get(i, 0, id);
+                if (!missionIds.contains(id[0])) {
+                    continue;
+                }
+                found.add(id[0]);
+                corners.get(i).get(0, 0, quad);
+                double perimeter = 0;
+                for (int k = 0; k < 8; k += 2) {
+                    perimeter += Math.hypot(quad[(k + 2) % 8] - quad[k], quad[(k + 3) % 8] - quad[k + 1]);
+                }
+                double rate = perimeter / Math.max(frame.cols(), frame.rows());
+                minRate = Math.min(minRate, rate);
+                maxRate = Math.max(maxRate, rate);
+            }
+            expected.add(found);
+            markers += found.size();
+            System.out.println(names.get(f) + ": " + found);
+        }
+        if (markers == 0) {
+            throw new IOException("no mission markers in " + args[0]);
+        }
+        System.out.printf("%d frames, %d markers, perimeter rate %.3f-%.3f%n", frames.size(), markers, minRate,
+                maxRate);
+
+        Trial full = new Trial(defaults);
+        measure(frames, fullDictionary, defaultParameters, repeats, full);
+        double baseline = full.meanMillis;
+        System.out.printf("full dictionary, default parameters: %.2f ms%n", baseline);
+        Trial reduced = new Trial(defaults);
+        measure(frames, defaults.createDictionary(), defaultParameters, repeats, reduced);
+        System.out.printf("mission ids only, default parameters: %.2f ms%n", reduced.meanMillis);
+
+        System.out.println("window_min,window_max,window_step,min_perimeter,max_perimeter,refinement,mean_ms,max_ms,"
+                + "missed,extra");
+        List<Trial> valid = new ArrayList<>();
+        for (int[] window : WINDOWS) {
+            for (double minPerimeter : MIN_PERIMETER_RATES) {
+                for (double maxPerimeter : MAX_PERIMETER_RATES) {
+                    if (minPerimeter * PERIMETER_MARGIN > minRate || maxPerimeter < maxRate * PERIMETER_MARGIN) {
+                        continue;
+                    }
+                    for (int refinement : REFINEMENTS) {
+                        Trial trial = new Trial(defaults.with(window[0], window[1], window[2], minPerimeter,
+                                maxPerimeter, refinement));
+                        Dictionary dictionary = trial.config.createDictionary();
+                        DetectorParameters parameters = trial.config.createParameters();
+                        verify(frames, dictionary, parameters, expected, trial);
+                        measure(frames, dictionary, parameters, repeats, trial);
+                        System.out.printf("%d,%d,%d,%.2f,%.2f,%d,%.3f,%.3f,%d,%d%n", window[0], window[1],
+                                window[2], minPerimeter, maxPerimeter, refinement, trial.meanMillis,
+                                trial.maxMillis, trial.missed, trial.extra);
+                        if (trial.isValid()) {
+                            valid.add(trial);
+                        }
+                    }
+                }
+            }
+        }
+        if (valid.isEmpty()) {
+            throw new IOException("no configuration detects every marker");
+        }
+        double fastest = Double.MAX_VALUE;
+        for (Trial trial : valid) {
+            fastest = Math.min(fastest, trial.meanMillis);
+        }
+        Trial best = null;
+        for (Trial trial : valid) {
+            if (trial.meanMillis > fastest * (1 + TIE_TOLERANCE)) {
+                continue;
+            }
+            if (best == null || changes(trial.config, defaults) < changes(best.config, defaults)
+                    || (changes(trial.config, defaults) == changes(best.config, defaults)
+                            && trial.meanMillis < best.meanMillis)) {
+                best = trial;
+            }
+        }
+
+        System.out.printf("selected %s: %.2f ms (full dictionary, default parameters %.2f ms)%n", best.config,
+                best.meanMillis, baseline);
+        try (OutputStream out = new FileOutputStream(args[1])) {
+            best.config.store(out, String.format("ArucoTuner: %d frames, %d markers, %.2f ms per frame "
+                    + "(full dictionary, default parameters %.2f ms)", frames.size(), markers, best.meanMillis,
+                    baseline));
+        }
+        for (Mat frame : frames) {
+            frame.release();
+        }
+    }
+
+    /**
+     * 既定の設定から変えた項目の数。
+     */
+    private static int changes(ArucoConfig config, ArucoConfig defaults) {
+        int changes = 0;
+        changes += config.adaptiveThreshWinSizeMin != defaults.adaptiveThreshWinSizeMin ? 1 : 0;
+        changes += config.adaptiveThreshWinSizeMax != defaults.adaptiveThreshWinSizeMax ? 1 : 0;
+        changes += config.adaptiveThreshWinSizeStep != defaults.adaptiveThreshWinSizeStep ? 1 : 0;
+        changes += config.minMarkerPerimeterRate != defaults.minMarkerPerimeterRate ? 1 : 0;
+        changes += config.maxMarkerPerimeterRate != defaults.maxMarkerPerimeterRate ? 1 : 0;
+        changes += config.cornerRefinementMethod != defaults.cornerRefinementMethod ? 1 : 0;
+        return changes;
+    }
+
+    /**
+     * 全フレームを1回ずつ検出し、正解に対する見落としと余分な検出を数えます。
+     */
+    private static void verify(List<Mat> frames, Dictionary dictionary, DetectorParameters parameters,
+            List<Set<Integer>> expected, Trial trial) {
+        List<Mat> corners = new ArrayList<>();
+        Mat ids = new Mat();
+        int[] id = new int[1];
+        for (int f = 0; f < frames.size(); f++) {
+            Aruco.detectMarkers(frames.get(f), dictionary, corners, ids, parameters);
+            Set<Integer> found = new HashSet<>();
+            for (int i = 0; i < ids.rows(); i++) {
+                ids.get(i, 0, id);
+                found.add(trial.config.markerId(id[0]));
+            }
+            for (Integer e : expected.get(f)) {
+                trial.missed += found.contains(e) ? 0 : 1;
+            }
+            for (Integer e : found) {
+                trial.extra += expected.get(f).contains(e) ? 0 : 1;
+            }
+            release(corners);
+        }
+        ids.release();
+    }
+
+    /**
+     * 全フレームの検出を repeats 周繰り返し、1フレームあたりの平均と最大の時間 [ms] を記録します。
+     * 平均は他の処理の割り込みの影響を除くため、最も速かった周のものです。最初の1周はウォームアップとして計測しません。
+     */
+    private static void measure(List<Mat> frames, Dictionary dictionary, DetectorParameters parameters,
+            int repeats, Trial trial) {
+        List<Mat> corners = new ArrayList<>();
+        Mat ids = new Mat();
+        long best = Long.MAX_VALUE;
+        long max = 0;
+        for (int r = 0; r <= repeats; r++) {
+            long total = 0;
+            for (Mat frame : frames) {
+                long start = System.nanoTime();
+                Aruco.detectMarkers(frame, dictionary, corners, ids, parameters);
+                long nanos = System.nanoTime() - start;
+                total += nanos;
+                if (r > 0) {
+                    max = Math.max(max, nanos);
+                }
+                release(corners);
+            }
+            if (r > 0) {
+                best = Math.min(best, total);
+            }
+        }
+        ids.release();
+        trial.meanMillis = best / 1e6 / frames.size();
+        trial.maxMillis = max / 1e6;
+    }
+
+    private static void release(List<Mat> mats) {
+        for (Mat mat : mats) {
+            mat.release();
+        }
+        mats.clear();
+    }
+}
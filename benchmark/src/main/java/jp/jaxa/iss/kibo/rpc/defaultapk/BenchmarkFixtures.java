@@ -0,0 +1,141 @@
+package jp.jaxa.iss.kibo.rpc.defaultapk;
+
+import org.bytedeco.javacpp.Loader;
+import org.bytedeco.opencv.opencv_java;
+import org.opencv.core.Core;
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.imgcodecs.Imgcodecs;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.nio.FloatBuffer;
+import java.util.Random;
+
+/**
+ * ベンチマークで使う画像・カメラパラメータ・検出候補を用意するクラス。
+ * fixtures ディレクトリはシステムプロパティ benchmark.fixtures で指定します (jmh タスクが設定します)。
+ */
+final class BenchmarkFixtures {
+    static final File DIRECTORY = new File(System.getProperty("benchmark.fixtures", "fixtures"));
+    // エリアのマーカー (fixtures/area1.png に写っているもの)
+    static final int AREA_MARKER_ID = 101;
+    // YOLO の出力 (4 + クラス数, 640x640 入力時の候補数)
+    static final int NUM_CHANNEL = 15;
+    static final int NUM_ELEMENTS = 8400;
+
+    private static boolean openCvLoaded = false;
+
+    private BenchmarkFixtures() {
+    }
+
+    /**
+     * OpenCV のネイティブライブラリを読み込みます。
+     * java.library.path に opencv_java があればそれを、なければ bytedeco の同梱ライブラリを使います。
+     */
+    static synchronized void loadOpenCv() {
+        if (openCvLoaded) {
+            return;
+        }
+        try {
+            System.loadLibrary(Core.NATIVE_LIBRARY_NAME);
+        } catch (UnsatisfiedLinkError e) {
+            Loader.load(opencv_java.class);
+        }
+        openCvLoaded = true;
+    }
+
+    static File file(String name) {
+        return new File(DIRECTORY, name);
+    }
+
+    /**
+     * fixtures の NavCam 画像をグレースケールで読み込みます。
+     */
+    static Mat readFrame(String name) {
+        loadOpenCv();
+        Mat frame = Imgcodecs.imread(file(name).getPath(), Imgcodecs.IMREAD_GRAYSCALE);
+        if (frame.empty()) {
+            throw new IllegalStateException("cannot read " + file(name));
+        }
+        return frame;
+    }
+
+    /**
+     * fixtures/intrinsics.csv (1行目: カメラ行列, 2行目: 歪み係数) を読み込みます。
+     *
+     * @return { カメラ行列 (3x3), 歪み係数 (1x5) }
+     */
+    static Mat[] readIntrinsics() throws IOException {
+        loadOpenCv();
+        double[][] rows = new double[2][];
+        try (BufferedReader reader = new BufferedReader(new FileReader(file("intrinsics.csv")))) {
+            for (int r = 0; r < 2; r++) {
+                String[] cols = reader.readLine().trim().split(",");
+                rows[r] = new double[cols.length];
+                for (int i = 0; i < cols.length; i++) {
+                    rows[r][i] = Double.parseDouble(cols[i]);
+                }
+            }
+        }
+        Mat cameraMatrix = new Mat(3, 3, CvType.CV_64F);
+        cameraMatrix.put(0, 0, rows[0]);
+        Mat distCoeffs = new Mat(1, 5, CvType.CV_64F);
+        distCoeffs.put(0, 0, rows[1]);
+        return new Mat[] { cameraMatrix, distCoeffs };
+    }
+
+    /**
+     * YOLO の出力テンソル (チャンネル優先, FLOAT32) を乱数で埋めます。
+     * objectRatio の割合の候補は、いずれかのクラスのスコアが閾値を超えるようにします。
+     */
+    static void fillYoloOutput(FloatBuffer output, int numChannel, int numElements, double objectRatio,
+            long seed) {
+        Random random = new Random(seed);
+        for (int i = 0; i < numElements; i++) {
+            output.put(i, random.nextFloat() * 640);
+            output.put(i + numElements, random.nextFloat() * 640);
+            output.put(i + numElements * 2, 20 + random.nextFloat() * 100);
+            output.put(i + numElements * 3, 20 + random.nextFloat() * 100);
+        }
+        for (int c = 4; c < numChannel; c++) {
+            for (int i = 0; i < numElements; i++) {
+                output.put(c * numElements + i, random.nextFloat() * 0.2f);
+            }
+        }
+        for (int i = 0; i < numElements; i++) {
+            if (random.nextDouble() < objectRatio) {
+                int c = 4 + random.nextInt(numChannel - 4);
+                output.put(c * numElements + i, 0.3f + random.nextFloat() * 0.7f);
+            }
+        }
+    }
+
+    /**
+     * NMS の候補を作ります。少数の物体のまわりに、少しずつずれた候補が集まるようにします。
+     */
+    static void fillCandidates(int[] classIds, float[] scores, float[] x1, float[] y1, float[] x2, float[] y2,
+            int count, int objects, long seed) {
+        Random random = new Random(seed);
+        float[] centers = new float[objects * 3];
+        for (int o = 0; o < objects; o++) {
+            centers[o * 3] = 60 + random.nextFloat() * 520;
+            centers[o * 3 + 1] = 60 + random.nextFloat() * 520;
+            centers[o * 3 + 2] = 30 + random.nextFloat() * 60;
+        }
+        for (int i = 0; i < count; i++) {
+            int o = random.nextInt(objects);
+            float cx = centers[o * 3] + (float) random.nextGaussian() * 6;
+            float cy = centers[o * 3 + 1] + (float) random.nextGaussian() * 6;
+            float half = centers[o * 3 + 2] * (0.9f + random.nextFloat() * 0.2f) / 2;
+            classIds[i] = o % 11;
+            scores[i] = 0.25f + random.nextFloat() * 0.75f;
+            x1[i] = cx - half;
+            y1[i] = cy - half;
+            x2[i] = cx + half;
+            y2[i] = cy + half;
+        }
+    }
+}
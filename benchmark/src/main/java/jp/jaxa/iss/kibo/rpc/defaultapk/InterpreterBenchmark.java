@@ -0,0 +1,105 @@
+package jp.jaxa.iss.kibo.rpc.defaultapk;
+
+import org.opencv.core.Mat;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.tensorflow.lite.DataType;
+import org.tensorflow.lite.Interpreter;
+import org.tensorflow.lite.Tensor;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * fixtures/model.tflite の推論 (interpreter.run) と後処理まで含めた計測。
+ * Linux 用の TensorFlow Lite JNI ライブラリが必要です (build.gradle を参照)。
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class InterpreterBenchmark {
+    @Param({ "DEFAULT", "SINGLE_THREAD", "MULTI_THREAD", "XNNPACK" })
+    public String backend;
+
+    private Interpreter interpreter;
+    private TensorInputConverter converter;
+    private YoloPostProcessor postProcessor;
+    private NMSProcessor nmsProcessor;
+    private ByteBuffer input;
+
+    @Setup
+    public void setup() throws IOException {
+        ByteBuffer model;
+        try (RandomAccessFile file = new RandomAccessFile(BenchmarkFixtures.file("model.tflite"), "r")) {
+            FileChannel channel = file.getChannel();
+            model = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+        interpreter = new Interpreter(model, InferenceBackend.valueOf(backend).createOptions());
+
+        Tensor inputTensor = interpreter.getInputTensor(0);
+        Tensor outputTensor = interpreter.getOutputTensor(0);
+        int[] inputShape = inputTensor.shape();
+        int[] outputShape = outputTensor.shape();
+        Tensor.QuantizationParams inputQuantization = inputTensor.quantizationParams();
+        Tensor.QuantizationParams outputQuantization = outputTensor.quantizationParams();
+        if (inputTensor.dataType() == DataType.FLOAT32) {
+            converter = new TensorInputConverter(inputShape[1], inputShape[2], inputShape[3],
+                    inputTensor.dataType(), 0f, 255f);
+        } else {
+            converter = new TensorInputConverter(inputShape[1], inputShape[2], inputShape[3],
+                    inputTensor.dataType(), 0f, 255f, inputQuantization.getScale(),
+                    inputQuantization.getZeroPoint());
+        }
+        postProcessor = new YoloPostProcessor(outputShape[1], outputShape[2], 0.25F, outputTensor.dataType(),
+                outputQuantization.getScale(), outputQuantization.getZeroPoint());
+        nmsProcessor = new NMSProcessor(outputShape[2]);
+
+        Mat[] intrinsics = BenchmarkFixtures.readIntrinsics();
+        Mat frame = BenchmarkFixtures.readFrame("area1.png");
+        FramePreprocessor preprocessor = new FramePreprocessor(intrinsics[0], intrinsics[1]);
+        preprocessor.detectMarkers(preprocessor.undistort(frame));
+        input = converter.convert(preprocessor.warpArea(preprocessor.findMarker(BenchmarkFixtures.AREA_MARKER_ID)));
+        preprocessor.release();
+        frame.release();
+    }
+
+    @TearDown
+    public void tearDown() {
+        interpreter.close();
+        converter.release();
+    }
+
+    @Benchmark
+    public ByteBuffer run() {
+        input.rewind();
+        ByteBuffer output = postProcessor.getOutputBuffer();
+        interpreter.run(input, output);
+        return output;
+    }
+
+    @Benchmark
+    public int detect() {
+        input.rewind();
+        interpreter.run(input, postProcessor.getOutputBuffer());
+        int count = postProcessor.decode();
+        return nmsProcessor.nonMaxSuppression(postProcessor.getClassIds(), postProcessor.getScores(),
+                postProcessor.getX1(), postProcessor.getY1(), postProcessor.getX2(), postProcessor.getY2(), count,
+                0.7F, false, 0);
+    }
+}
@@ -0,0 +1,283 @@
+package jp.jaxa.iss.kibo.rpc.defaultapk;
+
+import org.opencv.core.Mat;
+import org.opencv.imgcodecs.Imgcodecs;
+import org.tensorflow.lite.DataType;
+import org.tensorflow.lite.Interpreter;
+import org.tensorflow.lite.Tensor;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * 同じ画像で FLOAT32 のモデルと量子化したモデル (INT8 / UINT8 など) を推論し、時間と検出の一致を比べるツール。
+ *
+ * <pre>
+ * ./gradlew :benchmark:compareModels -Pcompare.float=(モデル) -Pcompare.quantized=(モデル) -Ptflite.lib=...
+ *     [-Pcompare.images=(画像のディレクトリ)] [-Pcompare.repeats=N]
+ * </pre>
+ *
+ * 画像にエリアのマーカーが写っていれば、ミッションと同じく {@link FramePreprocessor} で切り抜いた2値画像を、
+ * 写っていなければ画像をそのまま (切り抜き済みとして) 入力にします。
+ * 入力の変換・推論・後処理 (デコードと NMS) は Recognize と同じクラスで行い、推論と後処理の時間は repeats 回のうち
+ * 最も速いものを取ります。検出は同じクラスで IoU が MATCH_IOU 以上のものを1対1に対応させて数えます。
+ * 画像ごとの結果を CSV で標準出力に出し、最後に平均の時間・速度比・一致率をまとめます。
+ * 2つのモデルは同じ形 (入力サイズ・クラス) で、枠を同じ単位 (画素か 0〜1) で出力するものを指定してください。
+ */
+public class ModelComparison {
+    private static final float SCORE_THRESHOLD = 0.25F;
+    private static final float IOU_THRESHOLD = 0.7F;
+    private static final float MATCH_IOU = 0.5F;
+    private static final int[] AREA_MARKER_IDS = { 101, 102, 103, 104 };
+
+    /**
+     * 1つのモデルの推論と後処理。
+     */
+    private static class Detector {
+        final String name;
+        final Interpreter interpreter;
+        final TensorInputConverter converter;
+        final YoloPostProcessor postProcessor;
+        final NMSProcessor nmsProcessor;
+        long inferenceNanos;
+        long postProcessNanos;
+        double totalInferenceMillis;
+        double totalPostProcessMillis;
+
+        Detector(String name, File modelFile) throws IOException {
+            ByteBuffer model;
+            try (RandomAccessFile file = new RandomAccessFile(modelFile, "r")) {
+                FileChannel channel = file.getChannel();
+                model = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            }
+            this.interpreter = new Interpreter(model, InferenceBackend.DEFAULT.createOptions());
+
+            Tensor inputTensor = interpreter.getInputTensor(0);
+            Tensor outputTensor = interpreter.getOutputTensor(0);
+            int[] inputShape = inputTensor.shape();
+            int[] outputShape = outputTensor.shape();
+            Tensor.QuantizationParams inputQuantization = inputTensor.quantizationParams();
+            Tensor.QuantizationParams outputQuantization = outputTensor.quantizationParams();
+            if (inputTensor.dataType() == DataType.FLOAT32) {
+                converter = new TensorInputConverter(inputShape[1], inputShape[2], inputShape[3],
+                        inputTensor.dataType(), 0f, 255f);
+            } else {
+                converter = new TensorInputConverter(inputShape[1], inputShape[2], inputShape[3],
+                        inputTensor.dataType(), 0f, 255f, inputQuantization.getScale(),
+                        inputQuantization.getZeroPoint());
+            }
+            postProcessor = new YoloPostProcessor(outputShape[1], outputShape[2], SCORE_THRESHOLD,
+                    outputTensor.dataType(), outputQuantization.getScale(), outputQuantization.getZeroPoint());
+            nmsProcessor = new NMSProcessor(outputShape[2]);
+            this.name = name + " (input " + inputTensor.dataType() + ", output " + outputTensor.dataType() + ")";
+        }
+
+        /**
+         * image を repeats 回推論し、最も速い回の時間を記録します。最初の1回はウォームアップとして計測しません。
+         *
+         * @return 残った検出を {クラス, 確信度, x1, y1, x2, y2} の順に並べたもの。
+         */
+        float[] detect(Mat image, int repeats) {
+            inferenceNanos = Long.MAX_VALUE;
+            postProcessNanos = Long.MAX_VALUE;
+            int kept = 0;
+            for (int r = 0; r <= repeats; r++) {
+                ByteBuffer input = converter.convert(image);
+                long start = System.nanoTime();
+                interpreter.run(input, postProcessor.getOutputBuffer());
+                long inferred = System.nanoTime();
+                int count = postProcessor.decode();
+                kept = nmsProcessor.nonMaxSuppression(postProcessor.getClassIds(), postProcessor.getScores(),
+                        postProcessor.getX1(), postProcessor.getY1(), postProcessor.getX2(),
+                        postProcessor.getY2(), count, IOU_THRESHOLD, false, 0);
+                long end = System.nanoTime();
+                if (r > 0) {
+                    inferenceNanos = Math.min(inferenceNanos, inferred - start);
+                    postProcessNanos = Math.min(postProcessNanos, end - inferred);
+                }
+            }
+            totalInferenceMillis += inferenceNanos / 1e6;
+            totalPostProcessMillis += postProcessNanos / 1e6;
+
+            int[] keep = nmsProcessor.getKeep();
+            float[] boxes = new float[kept * 6];
+            for (int i = 0; i < kept; i++) {
+                int k = keep[i];
+                boxes[i * 6] = postProcessor.getClassIds()[k];
+                boxes[i * 6 + 1] = postProcessor.getScores()[k];
+                boxes[i * 6 + 2] = postProcessor.getX1()[k];
+                boxes[i * 6 + 3] = postProcessor.getY1()[k];
+                boxes[i * 6 + 4] = postProcessor.getX2()[k];
+                boxes[i * 6 + 5] = postProcessor.getY2()[k];
+            }
+            return boxes;
+        }
+
+        void close() {
+            interpreter.close();
+            converter.release();
+        }
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 3) {
+            System.err.println("usage: ModelComparison <float model> <quantized model> <images dir> [repeats]");
+            System.exit(2);
+        }
+        BenchmarkFixtures.loadOpenCv();
+        int repeats = args.length > 3 ? Integer.parseInt(args[3]) : 5;
+
+        Detector reference = new Detector("float", new File(args[0]));
+        Detector quantized = new Detector("quantized", new File(args[1]));
+        List<String> names = new ArrayList<>();
+        List<Mat> images = readImages(new File(args[2]), names);
+        if (images.isEmpty()) {
+            throw new IOException("no images in " + args[2]);
+        }
+        System.out.println("float: " + reference.name);
+        System.out.println("quantized: " + quantized.name);
+
+        System.out.println("image,float_infer_ms,quantized_infer_ms,float_post_ms,quantized_post_ms,float_n,"
+                + "quantized_n,matched,mean_score_diff,same_counts");
+        int totalReference = 0;
+        int totalQuantized = 0;
+        int totalMatched = 0;
+        int sameCounts = 0;
+        double scoreDiff = 0;
+        int numClasses = reference.postProcessor.getNumClasses();
+        for (int i = 0; i < images.size(); i++) {
+            float[] expected = reference.detect(images.get(i), repeats);
+            float[] actual = quantized.detect(images.get(i), repeats);
+            double[] diff = new double[1];
+            int matched = match(expected, actual, diff);
+            boolean same = Arrays.equals(counts(expected, numClasses), counts(actual, numClasses));
+
+            totalReference += expected.length / 6;
+            totalQuantized += actual.length / 6;
+            totalMatched += matched;
+            sameCounts += same ? 1 : 0;
+            scoreDiff += diff[0];
+            System.out.printf("%s,%.2f,%.2f,%.3f,%.3f,%d,%d,%d,%.4f,%b%n", names.get(i),
+                    reference.inferenceNanos / 1e6, quantized.inferenceNanos / 1e6,
+                    reference.postProcessNanos / 1e6, quantized.postProcessNanos / 1e6, expected.length / 6,
+                    actual.length / 6, matched, matched > 0 ? diff[0] / matched : 0, same);
+        }
+
+        int n = images.size();
+        double referenceMillis = (reference.totalInferenceMillis + reference.totalPostProcessMillis) / n;
+        double quantizedMillis = (quantized.totalInferenceMillis + quantized.totalPostProcessMillis) / n;
+        int larger = Math.max(totalReference, totalQuantized);
+        System.out.printf("%d images, %d repeats%n", n, repeats);
+        System.out.printf("float: %.2f ms (inference %.2f ms, post-process %.3f ms)%n", referenceMillis,
+                reference.totalInferenceMillis / n, reference.totalPostProcessMillis / n);
+        System.out.printf("quantized: %.2f ms (inference %.2f ms, post-process %.3f ms), %.2fx%n", quantizedMillis,
+                quantized.totalInferenceMillis / n, quantized.totalPostProcessMillis / n,
+                referenceMillis / quantizedMillis);
+        System.out.printf("detections: float %d, quantized %d, matched %d (%.1f%%), mean score diff %.4f%n",
+                totalReference, totalQuantized, totalMatched, larger > 0 ? 100.0 * totalMatched / larger : 100.0,
+                totalMatched > 0 ? scoreDiff / totalMatched : 0);
+        System.out.printf("images with the same count per class: %d / %d%n", sameCounts, n);
+
+        reference.close();
+        quantized.close();
+        for (Mat image : images) {
+            image.release();
+        }
+    }
+
+    /**
+     * ディレクトリの画像を読み込みます。エリアのマーカーが写っていれば、その切り抜きを使います。
+     */
+    private static List<Mat> readImages(File directory, List<String> names) throws IOException {
+        List<Mat> images = new ArrayList<>();
+        File[] files = directory.listFiles();
+        if (files == null) {
+            return images;
+        }
+        Mat[] intrinsics = BenchmarkFixtures.readIntrinsics();
+        FramePreprocessor preprocessor = new FramePreprocessor(intrinsics[0], intrinsics[1]);
+        preprocessor.setTracking(false);
+        Arrays.sort(files);
+        for (File file : files) {
+            String name = file.getName().toLowerCase();
+            if (!name.endsWith(".png") && !name.endsWith(".jpg")) {
+                continue;
+            }
+            Mat image = Imgcodecs.imread(file.getPath(), Imgcodecs.IMREAD_GRAYSCALE);
+            if (image.empty()) {
+                continue;
+            }
+            preprocessor.detectMarkers(preprocessor.undistort(image));
+            for (int id : AREA_MARKER_IDS) {
+                int index = preprocessor.findMarker(id);
+                if (index >= 0) {
+                    images.add(preprocessor.warpArea(index).clone());
+                    names.add(file.getName() + "#" + id);
+                }
+            }
+            if (preprocessor.getIds().empty()) {
+                images.add(image);
+                names.add(file.getName());
+            } else {
+                image.release();
+            }
+        }
+        preprocessor.release();
+        return images;
+    }
+
+    /**
+     * a と b の検出を、同じクラスで IoU が MATCH_IOU 以上のもの同士で1対1に対応させます (確信度の高い順に貪欲に)。
+     *
+     * @param scoreDiff [0] に対応した検出の確信度の差の合計を入れます。
+     * @return 対応した数。
+     */
+    private static int match(float[] a, float[] b, double[] scoreDiff) {
+        boolean[] used = new boolean[b.length / 6];
+        int matched = 0;
+        for (int i = 0; i < a.length; i += 6) {
+            int best = -1;
+            float bestIou = MATCH_IOU;
+            for (int j = 0; j < used.length; j++) {
+                int o = j * 6;
+                if (used[j] || a[i] != b[o]) {
+                    continue;
+                }
+                float iou = iou(a, i, b, o);
+                if (iou >= bestIou) {
+                    best = j;
+                    bestIou = iou;
+                }
+            }
+            if (best >= 0) {
+                used[best] = true;
+                matched++;
+                scoreDiff[0] += Math.abs(a[i + 1] - b[best * 6 + 1]);
+            }
+        }
+        return matched;
+    }
+
+    private static int[] counts(float[] boxes, int numClasses) {
+        int[] counts = new int[numClasses];
+        for (int i = 0; i < boxes.length; i += 6) {
+            counts[(int) boxes[i]]++;
+        }
+        return counts;
+    }
+
+    private static float iou(float[] a, int i, float[] b, int j) {
+        float w = Math.min(a[i + 4], b[j + 4]) - Math.max(a[i + 2], b[j + 2]);
+        float h = Math.min(a[i + 5], b[j + 5]) - Math.max(a[i + 3], b[j + 3]);
+        float intersection = w > 0 && h > 0 ? w * h : 0;
+        float areaA = (a[i + 4] - a[i + 2]) * (a[i + 5] - a[i + 3]);
+        float areaB = (b[j + 4] - b[j + 2]) * (b[j + 5] - b[j + 3]);
+        return intersection / (areaA + areaB - intersection);
+    }
+}
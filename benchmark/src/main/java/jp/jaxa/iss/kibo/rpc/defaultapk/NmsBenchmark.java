@@ -0,0 +1,75 @@
+package jp.jaxa.iss.kibo.rpc.defaultapk;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * NMS の計測。現在の {@link NMSProcessor} と以前のリストを使う実装 ({@link LegacyNMSProcessor}) を比べます。
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class NmsBenchmark {
+    private static final float IOU_THRESHOLD = 0.7F;
+
+    // 候補の数 (decode 後)。8000 はほぼ全アンカーが閾値を超えた場合
+    @Param({ "100", "1000", "8000" })
+    public int candidates;
+
+    private final int objects = 12;
+    private int[] classIds;
+    private float[] scores;
+    private float[] x1, y1, x2, y2;
+    private NMSProcessor nmsProcessor;
+    private List<LegacyNMSProcessor.Detection> detections;
+
+    @Setup
+    public void setup() {
+        classIds = new int[candidates];
+        scores = new float[candidates];
+        x1 = new float[candidates];
+        y1 = new float[candidates];
+        x2 = new float[candidates];
+        y2 = new float[candidates];
+        BenchmarkFixtures.fillCandidates(classIds, scores, x1, y1, x2, y2, candidates, objects, 1);
+
+        nmsProcessor = new NMSProcessor(BenchmarkFixtures.NUM_ELEMENTS);
+        detections = new ArrayList<>();
+        for (int i = 0; i < candidates; i++) {
+            detections.add(new LegacyNMSProcessor.Detection(classIds[i], scores[i], x1[i], y1[i], x2[i], y2[i]));
+        }
+    }
+
+    @Benchmark
+    public int current() {
+        return nmsProcessor.nonMaxSuppression(classIds, scores, x1, y1, x2, y2, candidates, IOU_THRESHOLD, false,
+                0);
+    }
+
+    @Benchmark
+    public int currentClassAware() {
+        return nmsProcessor.nonMaxSuppression(classIds, scores, x1, y1, x2, y2, candidates, IOU_THRESHOLD, true,
+                0);
+    }
+
+    @Benchmark
+    public int legacy() {
+        return LegacyNMSProcessor.nonMaxSuppression(detections, IOU_THRESHOLD).size();
+    }
+}
@@ -0,0 +1,125 @@
+package jp.jaxa.iss.kibo.rpc.defaultapk;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import gov.nasa.arc.astrobee.types.Point;
+import gov.nasa.arc.astrobee.types.Quaternion;
+
+/**
+ * 姿勢計算の計測。{@link Vec3} / {@link Quat} / {@link Pose} と以前の実装 ({@link LegacyPoseMath}) を比べます。
+ * -Pjmh.prof=gc で計測すると、legacy 以外は gc.alloc.rate.norm が 0 B/op になります。
+ * 両者の結果が一致することは PoseMathTest (app のテスト) で確かめます。
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PoseMathBenchmark {
+    // まとめて変換する点の数 (1フレームのマーカーのコーナー程度)
+    private static final int POINTS = 20;
+
+    private final Quaternion q1 = new Quaternion(0, 0, -0.7071f, 0.7071f);
+    private final Quaternion q2 = new Quaternion(-0.5f, 0.5f, 0.5f, 0.5f);
+    private final Point v = new Point(0.6, -0.2, 0.1);
+
+    private final Quat quat1 = new Quat().set(q1);
+    private final Quat quat2 = new Quat().set(q2);
+    private final Vec3 vec = new Vec3().set(v);
+    private final Vec3 back = new Vec3(-0.6, 0, 0);
+    private final Pose pose = new Pose();
+    private final Quat quatOut = new Quat();
+    private final Vec3 vecOut = new Vec3();
+    private final double[] rotation = new double[9];
+    private final double[] local = new double[3 * POINTS];
+    private final double[] world = new double[3 * POINTS];
+    private final Point[] localPoints = new Point[POINTS];
+
+    @Setup
+    public void setup() {
+        pose.position.set(v);
+        pose.orientation.set(q1);
+        Random random = new Random(1);
+        for (int i = 0; i < POINTS; i++) {
+            localPoints[i] = new Point(random.nextDouble(), random.nextDouble(), random.nextDouble());
+            local[3 * i] = localPoints[i].getX();
+            local[3 * i + 1] = localPoints[i].getY();
+            local[3 * i + 2] = localPoints[i].getZ();
+        }
+    }
+
+    @Benchmark
+    public Quaternion legacyQMul() {
+        return LegacyPoseMath.QMul(q1, q2);
+    }
+
+    @Benchmark
+    public Quat qMul() {
+        return quatOut.mul(quat1, quat2);
+    }
+
+    @Benchmark
+    public Point legacyApplyQuaternion() {
+        return LegacyPoseMath.applyQuaternion(q2, v);
+    }
+
+    @Benchmark
+    public Vec3 rotate() {
+        return quat2.rotate(vec, vecOut);
+    }
+
+    @Benchmark
+    public Quaternion legacyQuaternionFromXDirection() {
+        return LegacyPoseMath.quaternionFromXDirection(v);
+    }
+
+    @Benchmark
+    public Quat fromXDirection() {
+        return quatOut.fromXDirection(vec);
+    }
+
+    /**
+     * エリアから戻る位置の計算 (Mission の1エリア分)。
+     */
+    @Benchmark
+    public Point legacyAreaComebackPoint() {
+        return LegacyPoseMath.PAdd(v, LegacyPoseMath.applyQuaternion(q1, LegacyPoseMath.PAdd(v,
+                new Point(-0.6, 0, 0))));
+    }
+
+    @Benchmark
+    public Vec3 areaComebackPoint() {
+        return pose.transform(vecOut.add(vec, back), vecOut);
+    }
+
+    /**
+     * ロボット座標系の点の列をワールド座標系に変換します。
+     */
+    @Benchmark
+    public Point legacyTransformPoints() {
+        Point last = null;
+        for (Point p : localPoints) {
+            last = LegacyPoseMath.PAdd(v, LegacyPoseMath.applyQuaternion(q1, p));
+        }
+        return last;
+    }
+
+    @Benchmark
+    public double[] transformPoints() {
+        pose.transform(rotation, local, world, 0, POINTS);
+        return world;
+    }
+}
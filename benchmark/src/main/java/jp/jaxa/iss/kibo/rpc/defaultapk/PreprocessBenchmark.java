@@ -0,0 +1,140 @@
+package jp.jaxa.iss.kibo.rpc.defaultapk;
+
+import org.opencv.core.Core;
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.imgproc.Imgproc;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * NavCam 画像の前処理 (Mission.preprocess と同じ手順) の計測。
+ * 歪み補正 → マーカー検出 → エリアの切り抜きと2値化 → 位置推定 を行います。
+ * <p>
+ * frames が "drift" のときは、area1.png を少しずつずらした列 (停止中の揺れ)、マーカーの写らないフレーム、
+ * 大きく跳んだフレームを順に繰り返し、ROI 探索のヒット・全体探索への切り替えの回数も
+ * 補助カウンタ (roiHits, roiMisses, fullSearches, markersFound) として出力します。
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class PreprocessBenchmark {
+    // drift: ずれていくフレームの列, area1.png: マーカーあり, empty.png: マーカーなし (全体探索のみ)
+    @Param({ "drift", "area1.png", "empty.png" })
+    public String frames;
+
+    @Param({ "true", "false" })
+    public boolean tracking;
+
+    // drift の各フレームのずれ (画素)。null はマーカーの写らないフレーム (empty.png)
+    private static final int[][] DRIFT = { { 0, 0 }, { 6, 3 }, { 12, 5 }, { 17, 8 }, { 21, 12 }, { 24, 17 },
+            null, { 26, 20 }, { 27, 24 }, { -150, -90 }, { -146, -88 }, { -143, -85 } };
+
+    private Mat[] sequence;
+    private int next = 0;
+    private FramePreprocessor preprocessor;
+
+    /**
+     * ROI 探索の回数 (JMH が iteration ごとの合計を出力します)。
+     */
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    @State(Scope.Thread)
+    public static class TrackingCounters {
+        public long roiHits;
+        public long roiMisses;
+        public long fullSearches;
+        public long markersFound;
+
+        @Setup(Level.Iteration)
+        public void clear() {
+            roiHits = 0;
+            roiMisses = 0;
+            fullSearches = 0;
+            markersFound = 0;
+        }
+    }
+
+    @Setup
+    public void setup() throws IOException {
+        Mat[] intrinsics = BenchmarkFixtures.readIntrinsics();
+        sequence = "drift".equals(frames) ? drift() : new Mat[] { BenchmarkFixtures.readFrame(frames) };
+        preprocessor = new FramePreprocessor(intrinsics[0], intrinsics[1]);
+        preprocessor.setTracking(tracking);
+    }
+
+    @TearDown
+    public void tearDown() {
+        System.out.println(frames + ", tracking " + tracking + ": " + preprocessor.getTrackingSummary());
+        preprocessor.release();
+        for (Mat frame : sequence) {
+            frame.release();
+        }
+    }
+
+    @Benchmark
+    public double preprocess(TrackingCounters counters) {
+        int roiHits = preprocessor.getRoiHits();
+        int roiMisses = preprocessor.getRoiMisses();
+        int fullSearches = preprocessor.getFullSearches();
+        Mat frame = sequence[next];
+        next = (next + 1) % sequence.length;
+
+        Mat gray = preprocessor.undistort(frame);
+        preprocessor.detectMarkers(gray, BenchmarkFixtures.AREA_MARKER_ID);
+        int index = preprocessor.findMarker(BenchmarkFixtures.AREA_MARKER_ID);
+        counters.roiHits += preprocessor.getRoiHits() - roiHits;
+        counters.roiMisses += preprocessor.getRoiMisses() - roiMisses;
+        counters.fullSearches += preprocessor.getFullSearches() - fullSearches;
+        if (index < 0) {
+            return 0;
+        }
+        counters.markersFound++;
+        preprocessor.warpArea(index);
+        return preprocessor.estimateAreaPosition()[2];
+    }
+
+    @Benchmark
+    public Mat undistort() {
+        return preprocessor.undistort(sequence[0]);
+    }
+
+    /**
+     * area1.png を {@link #DRIFT} のとおりにずらしたフレームの列を作ります。
+     */
+    private static Mat[] drift() {
+        Mat area = BenchmarkFixtures.readFrame("area1.png");
+        Mat[] sequence = new Mat[DRIFT.length];
+        for (int i = 0; i < DRIFT.length; i++) {
+            if (DRIFT[i] == null) {
+                sequence[i] = BenchmarkFixtures.readFrame("empty.png");
+                continue;
+            }
+            Mat translation = new Mat(2, 3, CvType.CV_64F);
+            translation.put(0, 0, 1, 0, DRIFT[i][0], 0, 1, DRIFT[i][1]);
+            sequence[i] = new Mat();
+            Imgproc.warpAffine(area, sequence[i], translation, area.size(), Imgproc.INTER_LINEAR,
+                    Core.BORDER_REPLICATE);
+            translation.release();
+        }
+        area.release();
+        return sequence;
+    }
+}
@@ -0,0 +1,70 @@
+package jp.jaxa.iss.kibo.rpc.defaultapk;
+
+import org.opencv.core.Mat;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.tensorflow.lite.DataType;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 前処理済みのエリア画像 (2値, 640x640) から入力テンソルへの変換 ({@link TensorInputConverter#convert}) の計測。
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TensorInputBenchmark {
+    @Param({ "FLOAT32", "UINT8" })
+    public String dataType;
+
+    // モデルの入力サイズ (640 ならリサイズなし)
+    @Param({ "640", "320" })
+    public int inputSize;
+
+    private Mat area;
+    private TensorInputConverter converter;
+
+    @Setup
+    public void setup() throws IOException {
+        Mat[] intrinsics = BenchmarkFixtures.readIntrinsics();
+        Mat frame = BenchmarkFixtures.readFrame("area1.png");
+        FramePreprocessor preprocessor = new FramePreprocessor(intrinsics[0], intrinsics[1]);
+        preprocessor.detectMarkers(preprocessor.undistort(frame));
+        area = preprocessor.warpArea(preprocessor.findMarker(BenchmarkFixtures.AREA_MARKER_ID)).clone();
+        preprocessor.release();
+        frame.release();
+
+        DataType type = DataType.valueOf(dataType);
+        if (type == DataType.FLOAT32) {
+            converter = new TensorInputConverter(inputSize, inputSize, 3, type, 0f, 255f);
+        } else {
+            converter = new TensorInputConverter(inputSize, inputSize, 3, type, 0f, 255f, 1 / 255f, 0);
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        converter.release();
+        area.release();
+    }
+
+    @Benchmark
+    public ByteBuffer convert() {
+        return converter.convert(area);
+    }
+}
@@ -0,0 +1,44 @@
+package jp.jaxa.iss.kibo.rpc.defaultapk;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * YOLO の出力テンソルから候補を取り出す処理 ({@link YoloPostProcessor#decode}) の計測。
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class YoloDecodeBenchmark {
+    // 閾値を超える候補の割合
+    @Param({ "0.001", "0.01", "0.05" })
+    public double objectRatio;
+
+    private YoloPostProcessor postProcessor;
+
+    @Setup
+    public void setup() {
+        postProcessor = new YoloPostProcessor(BenchmarkFixtures.NUM_CHANNEL, BenchmarkFixtures.NUM_ELEMENTS, 0.25F);
+        BenchmarkFixtures.fillYoloOutput(postProcessor.getOutputBuffer().asFloatBuffer(),
+                BenchmarkFixtures.NUM_CHANNEL, BenchmarkFixtures.NUM_ELEMENTS, objectRatio, 1);
+    }
+
+    @Benchmark
+    public int decode() {
+        return postProcessor.decode();
+    }
+}